@@ -0,0 +1,92 @@
+package com.emailmanager.benchmarks;
+
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.services.EmailContentStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Writing and reading single .eml files in a content store already holding recordCount messages,
+// since directory size is what changes the cost of a lookup or an atomic replace
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentStoreBenchmark {
+    private static final byte[] MIME_CONTENT = mimeContent();
+
+    @State(Scope.Benchmark)
+    public static class Store {
+        @Param({"10000", "100000", "1000000"})
+        public int recordCount;
+
+        @Param({"false", "true"})
+        public boolean compress;
+
+        Path directory;
+        EmailContentStore contentStore;
+        private final SplittableRandom random = new SplittableRandom(42);
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("bench-content");
+            contentStore = new EmailContentStore(directory.resolve("storage"), compress);
+            // Populated in slices so the fixture never holds a whole large mailbox in memory
+            for (int from = 0; from < recordCount; from += 10000) {
+                contentStore.saveEmailContents(SyntheticEmails.emails(from, Math.min(10000, recordCount - from)));
+            }
+        }
+
+        EmailRecord randomEmail() {
+            return SyntheticEmails.email(random.nextInt(recordCount));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            SyntheticEmails.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    public EmailContentStore writeEml(Store store) throws IOException {
+        store.contentStore.writeContent(store.randomEmail().getId(), new ByteArrayInputStream(MIME_CONTENT));
+        return store.contentStore;
+    }
+
+    @Benchmark
+    public String readEml(Store store) throws IOException {
+        return store.contentStore.getEmailContent(store.randomEmail().getId());
+    }
+
+    private static byte[] mimeContent() {
+        StringBuilder content = new StringBuilder()
+            .append("From: sender1@example.com\r\n")
+            .append("Subject: Project update\r\n")
+            .append("Message-ID: <bench.1@mail.example.com>\r\n")
+            .append("Content-Type: text/plain; charset=utf-8\r\n\r\n");
+        // About 8 KB of plain-text body
+        while (content.length() < 8 * 1024) {
+            content.append("Status of the quarterly rollout and the open items from last week's review.\r\n");
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,59 @@
+package com.emailmanager.benchmarks;
+
+import com.emailmanager.utils.OffsetDateTimeConverter;
+import com.opencsv.exceptions.CsvConstraintViolationException;
+import com.opencsv.exceptions.CsvDataTypeMismatchException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Write-then-parse of every receivedDateTime of a mailbox through the OpenCSV converter
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OffsetDateTimeConverterBenchmark {
+
+    @State(Scope.Thread)
+    public static class Values {
+        @Param({"10000", "100000", "1000000"})
+        public int recordCount;
+
+        Object[] dates;
+        final RoundTripConverter converter = new RoundTripConverter();
+
+        @Setup
+        public void generate() {
+            dates = new Object[recordCount];
+            for (int i = 0; i < recordCount; i++) {
+                dates[i] = SyntheticEmails.email(i).getReceivedDateTime();
+            }
+        }
+    }
+
+    @Benchmark
+    public void roundTrip(Values values, Blackhole blackhole) throws Exception {
+        for (Object date : values.dates) {
+            blackhole.consume(values.converter.roundTrip(date));
+        }
+    }
+
+    // The converter's methods are protected, as OpenCSV calls them through the bean field
+    static class RoundTripConverter extends OffsetDateTimeConverter {
+        Object roundTrip(Object date) throws CsvDataTypeMismatchException, CsvConstraintViolationException {
+            return convert(convertToWrite(date));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.emailmanager.benchmarks;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.services.EmailRecordCache;
+import com.emailmanager.services.EmailStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Storage hot paths of the CSV store against mailboxes of increasing size. Every state builds its
+// fixture in a fresh temp directory per fork, so benchmarks never see each other's writes.
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StorageBenchmark {
+    private static final String CSV_FILE = "emails.csv";
+    // Size of a typical sync page appended by an incremental sync
+    private static final int INCREMENTAL_BATCH_SIZE = 100;
+
+    @State(Scope.Benchmark)
+    public static class ColdSave {
+        @Param({"10000", "100000", "1000000"})
+        public int recordCount;
+
+        List<EmailRecord> emails;
+        Path directory;
+        EmailStorageService storage;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            emails = SyntheticEmails.emails(0, recordCount);
+        }
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("bench-cold-save");
+            storage = new EmailStorageService(directory, CSV_FILE);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            storage.close();
+            SyntheticEmails.deleteRecursively(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ExistingMailbox {
+        @Param({"10000", "100000", "1000000"})
+        public int recordCount;
+
+        // Record cache size in MB; 0 makes every loadEmails parse the file
+        @Param({"0"})
+        public long cacheMaxMegabytes;
+
+        @Param({"fast"})
+        public String csvCodec;
+
+        // Run with -Djava.util.concurrent.ForkJoinPool.common.parallelism=N to vary the cores used
+        @Param({"true", "false"})
+        public boolean parallelCsvLoad;
+
+        // Off, so loadEmails measures CSV parsing; with -p recordSnapshot=true it reads the snapshot instead
+        @Param({"false"})
+        public boolean recordSnapshot;
+
+        Path directory;
+        EmailStorageService storage;
+        long nextIndex;
+        private final SplittableRandom random = new SplittableRandom(42);
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("bench-mailbox");
+            SyntheticEmails.writeCsv(directory.resolve(CSV_FILE), recordCount);
+            EmailConfig config = new EmailConfig();
+            config.setCacheMaxMegabytes(cacheMaxMegabytes);
+            config.setCsvCodec(csvCodec);
+            config.setParallelCsvLoad(parallelCsvLoad);
+            config.setRecordSnapshot(recordSnapshot);
+            storage = new EmailStorageService(directory, CSV_FILE, config, new EmailRecordCache(cacheMaxMegabytes));
+            // Load the ID set and the indexes up front, as a long-running process would have them
+            storage.saveEmails(Collections.emptyList());
+            storage.getConversationThread(SyntheticEmails.conversationId(0));
+            nextIndex = recordCount;
+        }
+
+        String randomConversationId() {
+            return SyntheticEmails.conversationId(random.nextInt(recordCount / SyntheticEmails.MESSAGES_PER_CONVERSATION));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            storage.close();
+            SyntheticEmails.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public EmailStorageService saveEmailsCold(ColdSave state) throws IOException {
+        state.storage.saveEmails(state.emails);
+        return state.storage;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public EmailStorageService saveEmailsIncremental(ExistingMailbox state) throws IOException {
+        List<EmailRecord> batch = SyntheticEmails.emails(state.nextIndex, INCREMENTAL_BATCH_SIZE);
+        state.nextIndex += INCREMENTAL_BATCH_SIZE;
+        state.storage.saveEmails(batch);
+        return state.storage;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<EmailRecord> loadEmails(ExistingMailbox state) throws IOException {
+        return state.storage.loadEmails();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<EmailRecord> getConversationThread(ExistingMailbox state) throws IOException {
+        return state.storage.getConversationThread(state.randomConversationId());
+    }
+}
@@ -0,0 +1,105 @@
+package com.emailmanager.benchmarks;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.services.EmailStorageService;
+import com.emailmanager.services.FakeGraphServer;
+import com.emailmanager.services.GraphService;
+import com.emailmanager.services.SyncService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Initial sync of a whole mailbox from a local FakeGraphServer under different logging setups:
+// logback.xml is the application's async configuration, logback-sync.xml the synchronous one it
+// replaced. Log output goes to the console and logs/ as in the application. The server adds no
+// latency and MIME downloads are off, so what differs between the setups is the logging alone;
+// single shots are noisy, hence the number of iterations and forks behind each error bar.
+@Fork(2)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SyncBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Mailbox {
+        @Param({"10000", "100000"})
+        public int messageCount;
+
+        @Param({"logback.xml", "logback-sync.xml"})
+        public String logConfig;
+
+        @Param({"INFO", "DEBUG"})
+        public String logLevel;
+
+        FakeGraphServer server;
+        EmailConfig config;
+        Path directory;
+        EmailStorageService storage;
+        SyncService syncService;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            System.setProperty("EMAIL_MANAGER_LOG_LEVEL", logLevel);
+            LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+            context.reset();
+            JoranConfigurator configurator = new JoranConfigurator();
+            configurator.setContext(context);
+            configurator.doConfigure(SyncBenchmark.class.getClassLoader().getResource(logConfig));
+
+            server = new FakeGraphServer(0, messageCount, 0, 0);
+            server.start();
+            config = new EmailConfig();
+            config.setClientId("client");
+            config.setClientSecret("secret");
+            config.setTenantId("tenant");
+            config.setUserEmail("bench@example.com");
+            config.setGraphEndpoint(server.getEndpoint());
+            // Only the local server is called, so client-side rate limits would just cap the result
+            config.setTenantRequestsPerSecond(1000000);
+            config.setMailboxRequestsPerSecond(1000000);
+        }
+
+        @Setup(Level.Iteration)
+        public void open() throws Exception {
+            directory = Files.createTempDirectory("bench-sync");
+            storage = new EmailStorageService(directory, "emails.csv");
+            syncService = new SyncService(new GraphService(config), storage, 0);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws Exception {
+            syncService.close();
+            storage.close();
+            SyntheticEmails.deleteRecursively(directory);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            server.close();
+            ((LoggerContext) LoggerFactory.getILoggerFactory()).stop();
+        }
+    }
+
+    @Benchmark
+    public int initialSync(Mailbox mailbox) throws Exception {
+        return mailbox.syncService.syncNewEmails();
+    }
+}
@@ -0,0 +1,103 @@
+package com.emailmanager.benchmarks;
+
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.utils.EmailCsvCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Deterministic mailbox data for the benchmarks: conversations of a few replies each, with
+// References chains, a realistic spread of senders and received dates in mixed offsets.
+final class SyntheticEmails {
+    static final int MESSAGES_PER_CONVERSATION = 5;
+    private static final OffsetDateTime START = OffsetDateTime.of(2020, 1, 1, 8, 0, 0, 0, ZoneOffset.UTC);
+    private static final ZoneOffset[] OFFSETS = {
+        ZoneOffset.UTC, ZoneOffset.ofHours(-8), ZoneOffset.ofHoursMinutes(5, 30), ZoneOffset.ofHours(2)
+    };
+
+    private SyntheticEmails() {
+    }
+
+    static EmailRecord email(long index) {
+        long conversation = index / MESSAGES_PER_CONVERSATION;
+        int position = (int) (index % MESSAGES_PER_CONVERSATION);
+        StringBuilder references = new StringBuilder();
+        for (long i = index - position; i < index; i++) {
+            if (references.length() > 0) {
+                references.append(' ');
+            }
+            references.append(messageId(i));
+        }
+        OffsetDateTime received = START.plusMinutes(index * 7)
+            .withOffsetSameInstant(OFFSETS[(int) (index % OFFSETS.length)]);
+        return new EmailRecord("AAMkAGI2TG93AAA-" + index,
+            (position == 0 ? "" : "RE: ") + "Project update, \"phase " + conversation % 97 + "\" review",
+            received, "sender" + index % 500 + "@example.com", messageId(index),
+            conversationId(conversation), references.length() == 0 ? null : references.toString());
+    }
+
+    static List<EmailRecord> emails(long from, int count) {
+        List<EmailRecord> emails = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            emails.add(email(from + i));
+        }
+        return emails;
+    }
+
+    static String conversationId(long conversation) {
+        return "AAQkAGI2conv" + conversation + "=";
+    }
+
+    // Writes the rows straight to the CSV, sorted like a compacted file, so large fixtures are
+    // set up without going through saveEmails and the .eml stubs it creates
+    static void writeCsv(Path csvPath, int count) throws IOException {
+        Files.createDirectories(csvPath.getParent());
+        List<EmailRecord> emails = emails(0, count);
+        emails.sort(Comparator.comparing(EmailRecord::getReceivedDateTime));
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            for (EmailRecord email : emails) {
+                byte[] row = EmailCsvCodec.encode(email);
+                if (buffer.remaining() < row.length) {
+                    flush(channel, buffer);
+                }
+                buffer.put(row);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    private static String messageId(long index) {
+        return "<bench." + index + "@mail.example.com>";
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
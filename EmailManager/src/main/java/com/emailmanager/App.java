@@ -2,23 +2,71 @@ package com.emailmanager;
 
 import com.emailmanager.models.EmailConfig;
 import com.emailmanager.models.EmailRecord;
+import com.emailmanager.models.MailboxConfig;
+import com.emailmanager.models.MailboxSyncResult;
+import com.emailmanager.models.QueuedReply;
+import com.emailmanager.models.ReplyResult;
+import com.emailmanager.models.ThreadNode;
 import com.emailmanager.services.ConfigService;
-import com.emailmanager.services.EmailStorageService;
+import com.emailmanager.services.EmailRecordCache;
+import com.emailmanager.services.EmailStore;
+import com.emailmanager.services.EmailStoreFactory;
 import com.emailmanager.services.GraphService;
+import com.emailmanager.services.MailImportService;
+import com.emailmanager.services.MailboxSyncService;
+import com.emailmanager.services.MessageThreader;
+import com.emailmanager.services.MetricsService;
+import com.emailmanager.services.ReplyQueueService;
+import com.emailmanager.services.SearchIndex;
+import com.emailmanager.services.SyncDaemon;
+import com.emailmanager.services.SyncService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class App {
     private static final Logger logger = LoggerFactory.getLogger(App.class);
     private static final Scanner scanner = new Scanner(System.in);
+    private static final int SEARCH_RESULT_LIMIT = 50;
+    private static final int LIST_PAGE_SIZE = 20;
     private static GraphService graphService;
-    private static EmailStorageService emailStorageService;
+    private static EmailStore emailStore;
+    private static SyncService syncService;
+    private static MailboxSyncService mailboxSyncService;
+    private static ReplyQueueService replyQueueService;
+    private static SearchIndex searchIndex;
+    private static MetricsService metricsService;
+    private static boolean searchIndexCaughtUp;
+    private static final MessageThreader messageThreader = new MessageThreader();
+    private static boolean threaderLoaded;
+    // Index -> email of the last page of the listing shown. Indices are resolved against it, since
+    // background compaction can reorder the rows after the page was printed, and it saves looking
+    // the email up again.
+    private static final Map<Integer, EmailRecord> listedEmails = new HashMap<>();
+    private static EmailConfig config;
 
     public static void main(String[] args) {
+        if (args.length > 0 && "--daemon".equals(args[0])) {
+            runDaemon();
+            return;
+        }
+        if (args.length > 0 && "--import".equals(args[0])) {
+            runImport(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         try {
             initialize();
             boolean running = true;
@@ -42,7 +90,23 @@ public class App {
                         viewConversationThread();
                         break;
                     case 5:
+                        syncAllMailboxes();
+                        break;
+                    case 6:
+                        replyToMultipleEmails();
+                        break;
+                    case 7:
+                        searchEmails();
+                        break;
+                    case 8:
+                        viewReplyTree();
+                        break;
+                    case 9:
+                        listEmailsBetweenDates();
+                        break;
+                    case 10:
                         running = false;
+                        shutdown();
                         break;
                     default:
                         System.out.println("Invalid option. Please try again.");
@@ -56,38 +120,140 @@ public class App {
 
     private static void initialize() throws Exception {
         ConfigService configService = new ConfigService();
-        EmailConfig config = configService.loadConfig();
+        config = configService.loadConfig();
+        metricsService = new MetricsService(config.getMetricsPort());
         graphService = new GraphService(config);
-        emailStorageService = new EmailStorageService("emails.csv");
+        // One record cache is shared by the default mailbox and every mailbox partition
+        EmailRecordCache recordCache = new EmailRecordCache(config.getCacheMaxMegabytes());
+        emailStore = EmailStoreFactory.create(Paths.get("emails"), config, recordCache);
+        syncService = new SyncService(graphService, emailStore, config.getMaxConcurrentContentFetches());
+        mailboxSyncService = new MailboxSyncService(config, Paths.get("emails", "mailboxes"), recordCache);
+        replyQueueService = new ReplyQueueService(graphService,
+            emailStore.getDataFilePath().resolveSibling("reply-queue.jsonl"));
+        // Every content write from here on is indexed as it happens
+        searchIndex = new SearchIndex(Paths.get("emails", "search"), emailStore.getContentStore());
+        emailStore.getContentStore().addListener(searchIndex);
         logger.info("Application initialized successfully");
     }
 
+    // Imports .eml trees and mbox files into the default mailbox's store, then exits
+    private static void runImport(String[] paths) {
+        if (paths.length == 0) {
+            System.out.println("Usage: --import <.eml file, mbox file or directory>...");
+            System.exit(2);
+        }
+        try {
+            initialize();
+        } catch (Exception e) {
+            logger.error("Application error: ", e);
+            System.exit(1);
+        }
+
+        List<Path> sources = new ArrayList<>();
+        for (String path : paths) {
+            sources.add(Paths.get(path));
+        }
+        boolean failed = false;
+        try (MailImportService importService = new MailImportService(emailStore,
+                Runtime.getRuntime().availableProcessors())) {
+            System.out.println(importService.importPaths(sources));
+        } catch (Exception e) {
+            logger.error("Import failed: ", e);
+            System.out.println("Import failed: " + e.getMessage());
+            failed = true;
+        } finally {
+            shutdown();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    // Headless mode: syncs the default mailbox and every configured mailbox on their intervals until
+    // the process is stopped, then lets running syncs finish and closes the stores
+    private static void runDaemon() {
+        try {
+            initialize();
+        } catch (Exception e) {
+            logger.error("Application error: ", e);
+            System.exit(1);
+        }
+
+        SyncDaemon daemon = new SyncDaemon(config.getMaxConcurrentSyncs() + 1);
+        daemon.schedule(config.getUserEmail(), config.getSyncIntervalSeconds(), syncService::syncNewEmails);
+        for (MailboxConfig mailbox : config.getMailboxes()) {
+            long interval = mailbox.getSyncIntervalSeconds() > 0
+                ? mailbox.getSyncIntervalSeconds()
+                : config.getSyncIntervalSeconds();
+            daemon.schedule(mailbox.getUserEmail(), interval, () -> {
+                MailboxSyncResult result = mailboxSyncService.syncMailbox(mailbox);
+                if (!result.isSuccess()) {
+                    throw new Exception(result.getError());
+                }
+                return result.getDownloaded();
+            });
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            logger.info("Shutting down sync daemon");
+            daemon.close();
+            shutdown();
+        }, "shutdown"));
+        logger.info("Sync daemon started for {} mailboxes", config.getMailboxes().size() + 1);
+    }
+
+    // Closing the services flushes journals, indexes and pending compactions
+    private static void shutdown() {
+        searchIndex.close();
+        replyQueueService.close();
+        syncService.close();
+        emailStore.close();
+        mailboxSyncService.close();
+        metricsService.close();
+    }
+
     private static void displayMenu() {
         System.out.println("\nEmail Manager Menu:");
         System.out.println("1. Download new emails");
         System.out.println("2. Reply to an email");
         System.out.println("3. List all emails");
         System.out.println("4. View conversation thread");
-        System.out.println("5. Exit");
+        System.out.println("5. Sync all configured mailboxes");
+        System.out.println("6. Reply to multiple emails");
+        System.out.println("7. Search emails");
+        System.out.println("8. View reply tree");
+        System.out.println("9. List emails received between two dates");
+        System.out.println("10. Exit");
         System.out.print("Enter your choice: ");
     }
 
     private static void downloadNewEmails() {
         try {
             System.out.println("Downloading new emails...");
-            List<EmailRecord> newEmails = graphService.getEmailsAsync();
-            emailStorageService.saveEmails(newEmails);
-            System.out.println("Downloaded " + newEmails.size() + " emails successfully.");
+            int downloaded = syncService.syncNewEmails();
+            System.out.println("Downloaded " + downloaded + " new emails successfully.");
         } catch (Exception e) {
             logger.error("Error downloading emails: ", e);
             System.out.println("Failed to download emails: " + e.getMessage());
         }
     }
 
+    private static void syncAllMailboxes() {
+        if (config.getMailboxes().isEmpty()) {
+            System.out.println("No additional mailboxes configured.");
+            return;
+        }
+
+        System.out.println("Syncing " + config.getMailboxes().size() + " mailboxes...");
+        List<MailboxSyncResult> results = mailboxSyncService.syncAll(config.getMailboxes());
+        for (MailboxSyncResult result : results) {
+            System.out.println(result);
+        }
+    }
+
     private static void replyToEmail() {
         try {
-            List<EmailRecord> emails = emailStorageService.loadEmails();
-            if (emails.isEmpty()) {
+            if (emailStore.count() == 0) {
                 System.out.println("No emails available.");
                 return;
             }
@@ -96,15 +262,21 @@ public class App {
             int index = scanner.nextInt();
             scanner.nextLine(); // Consume newline
 
-            if (index < 1 || index > emails.size()) {
+            EmailRecord email = getEmailAt(index);
+            if (email == null) {
                 System.out.println("Invalid email index.");
                 return;
             }
 
-            EmailRecord email = emails.get(index - 1);
             System.out.print("Enter your reply message: ");
             String replyMessage = scanner.nextLine();
 
+            System.out.printf("Replying to [%s] From: %s, Subject: %s%n",
+                email.getReceivedDateTime(), email.getFrom(), email.getSubject());
+            if (!confirm("Send this reply?")) {
+                System.out.println("Reply not sent.");
+                return;
+            }
             graphService.replyToEmail(email.getId(), replyMessage);
             System.out.println("Reply sent successfully.");
         } catch (Exception e) {
@@ -113,30 +285,242 @@ public class App {
         }
     }
 
-    private static void listAllEmails() {
+    private static void replyToMultipleEmails() {
         try {
-            List<EmailRecord> emails = emailStorageService.loadEmails();
-            if (emails.isEmpty()) {
+            List<QueuedReply> uncertain = replyQueueService.getReplies(QueuedReply.Status.UNCERTAIN);
+            if (!uncertain.isEmpty()) {
+                System.out.println(uncertain.size() + " earlier replies were interrupted and may not have been sent; "
+                    + "check Sent Items before resending them.");
+            }
+
+            if (emailStore.count() == 0) {
                 System.out.println("No emails available.");
                 return;
             }
 
-            System.out.println("\nAll Emails:");
+            System.out.print("Enter the indices of the emails to reply to (comma separated): ");
+            List<EmailRecord> selected = new ArrayList<>();
+            for (String part : scanner.nextLine().split(",")) {
+                int index = Integer.parseInt(part.trim());
+                EmailRecord email = getEmailAt(index);
+                if (email == null) {
+                    System.out.println("Invalid email index: " + index);
+                    return;
+                }
+                selected.add(email);
+            }
+
+            System.out.print("Enter your reply message: ");
+            String replyMessage = scanner.nextLine();
+
+            System.out.println("Replying to:");
+            for (EmailRecord email : selected) {
+                System.out.printf("[%s] From: %s, Subject: %s%n",
+                    email.getReceivedDateTime(), email.getFrom(), email.getSubject());
+            }
+            if (!confirm("Send " + selected.size() + " replies?")) {
+                System.out.println("Replies not sent.");
+                return;
+            }
+
+            // Queued first, so the replies survive a crash while they are being sent
+            for (EmailRecord email : selected) {
+                replyQueueService.enqueue(email.getId(), replyMessage);
+            }
+            List<ReplyResult> results = replyQueueService.processPending();
+            int sent = 0;
+            for (ReplyResult result : results) {
+                if (result.isSuccess()) {
+                    sent++;
+                } else {
+                    System.out.println(result);
+                }
+            }
+            System.out.println("Sent " + sent + " of " + results.size() + " replies.");
+        } catch (Exception e) {
+            logger.error("Error sending replies: ", e);
+            System.out.println("Failed to send replies: " + e.getMessage());
+        }
+    }
+
+    private static void searchEmails() {
+        try {
+            if (!searchIndexCaughtUp) {
+                int added = searchIndex.indexMissing(emailStore);
+                if (added > 0) {
+                    System.out.println("Indexed " + added + " stored emails.");
+                }
+                searchIndexCaughtUp = true;
+            }
+
+            System.out.print("Enter search terms: ");
+            String query = scanner.nextLine();
+            List<String> emailIds = searchIndex.search(query, SEARCH_RESULT_LIMIT);
+            if (emailIds.isEmpty()) {
+                System.out.println("No matching emails.");
+                return;
+            }
+
+            System.out.println("\nMatching Emails:");
+            int shown = 0;
+            for (String emailId : emailIds) {
+                EmailRecord email = emailStore.findEmailById(emailId);
+                if (email != null) {
+                    System.out.printf("%d. [%s] From: %s, Subject: %s%n",
+                        ++shown, email.getReceivedDateTime(), email.getFrom(), email.getSubject());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error searching emails: ", e);
+            System.out.println("Failed to search emails: " + e.getMessage());
+        }
+    }
+
+    private static void listEmailsBetweenDates() {
+        try {
+            // Days are taken as UTC and both are inclusive; with partitioned storage only the
+            // partitions overlapping the range are read
+            System.out.print("Enter the first day (yyyy-MM-dd, blank for no limit): ");
+            String first = scanner.nextLine().trim();
+            System.out.print("Enter the last day (yyyy-MM-dd, blank for no limit): ");
+            String last = scanner.nextLine().trim();
+            OffsetDateTime from = first.isEmpty() ? null : LocalDate.parse(first).atStartOfDay().atOffset(ZoneOffset.UTC);
+            OffsetDateTime to = last.isEmpty() ? null
+                : LocalDate.parse(last).plusDays(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+
+            List<EmailRecord> emails = emailStore.findEmailsBetween(from, to);
+            if (emails.isEmpty()) {
+                System.out.println("No emails received in that range.");
+                return;
+            }
+
+            System.out.println("\nEmails received in range (" + emails.size() + "):");
             for (int i = 0; i < emails.size(); i++) {
                 EmailRecord email = emails.get(i);
                 System.out.printf("%d. [%s] From: %s, Subject: %s%n",
                     i + 1, email.getReceivedDateTime(), email.getFrom(), email.getSubject());
             }
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date: " + e.getParsedString());
+        } catch (Exception e) {
+            logger.error("Error listing emails by date: ", e);
+            System.out.println("Failed to list emails: " + e.getMessage());
+        }
+    }
+
+    private static void viewReplyTree() {
+        try {
+            if (emailStore.count() == 0) {
+                System.out.println("No emails available.");
+                return;
+            }
+
+            System.out.print("Enter the index of the email to view its reply tree: ");
+            int index = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+
+            EmailRecord email = getEmailAt(index);
+            if (email == null) {
+                System.out.println("Invalid email index.");
+                return;
+            }
+
+            if (!threaderLoaded) {
+                // Reply trees span the default mailbox and every configured mailbox. They are built
+                // on first use, so the daemon never holds them, and grow with each save from then on;
+                // the listeners go first so nothing saved during the load is missed.
+                emailStore.addSaveListener(messageThreader::addAll);
+                mailboxSyncService.addSaveListener(messageThreader::addAll);
+                messageThreader.addAll(emailStore.loadEmails());
+                for (MailboxConfig mailbox : config.getMailboxes()) {
+                    messageThreader.addAll(mailboxSyncService.getEmailStore(mailbox.getUserEmail()).loadEmails());
+                }
+                threaderLoaded = true;
+            }
+
+            ThreadNode thread = messageThreader.getThread(email);
+            System.out.println("\nReply Tree (" + thread.size() + " messages):");
+            printThread(thread, 0);
+        } catch (Exception e) {
+            logger.error("Error viewing reply tree: ", e);
+            System.out.println("Failed to view reply tree: " + e.getMessage());
+        }
+    }
+
+    private static void printThread(ThreadNode node, int depth) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            indent.append("  ");
+        }
+        EmailRecord email = node.getEmail();
+        if (email == null) {
+            System.out.println(indent + "(earlier message not stored)");
+        } else {
+            System.out.printf("%s[%s] From: %s, Subject: %s%n",
+                indent, email.getReceivedDateTime(), email.getFrom(), email.getSubject());
+        }
+        for (ThreadNode child : node.getChildren()) {
+            printThread(child, depth + 1);
+        }
+    }
+
+    private static void listAllEmails() {
+        try {
+            int total = emailStore.count();
+            if (total == 0) {
+                System.out.println("No emails available.");
+                return;
+            }
+
+            // Only one page is read from storage at a time
+            int pageCount = (total + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE;
+            int page = 0;
+            while (true) {
+                List<EmailRecord> emails = emailStore.listEmails(page * LIST_PAGE_SIZE, LIST_PAGE_SIZE);
+                System.out.printf("%nEmails (page %d of %d, %d total):%n", page + 1, pageCount, total);
+                listedEmails.clear();
+                for (int i = 0; i < emails.size(); i++) {
+                    EmailRecord email = emails.get(i);
+                    listedEmails.put(page * LIST_PAGE_SIZE + i + 1, email);
+                    System.out.printf("%d. [%s] From: %s, Subject: %s%n",
+                        page * LIST_PAGE_SIZE + i + 1, email.getReceivedDateTime(), email.getFrom(), email.getSubject());
+                }
+
+                System.out.print("[n]ext, [p]revious, page number or [q]uit: ");
+                String input = scanner.nextLine().trim().toLowerCase();
+                if (input.equals("n")) {
+                    page = Math.min(page + 1, pageCount - 1);
+                } else if (input.equals("p")) {
+                    page = Math.max(page - 1, 0);
+                } else if (input.matches("\\d+")) {
+                    page = Math.max(0, Math.min(Integer.parseInt(input) - 1, pageCount - 1));
+                } else {
+                    return;
+                }
+            }
         } catch (Exception e) {
             logger.error("Error listing emails: ", e);
             System.out.println("Failed to list emails: " + e.getMessage());
         }
     }
 
+    // Resolves an index from the last page of the listing to the email shown there
+    private static EmailRecord getEmailAt(int index) {
+        EmailRecord email = listedEmails.get(index);
+        if (email == null) {
+            System.out.println("Index " + index + " is not on the last page listed; list the emails first.");
+        }
+        return email;
+    }
+
+    private static boolean confirm(String question) {
+        System.out.print(question + " [y/N]: ");
+        return scanner.nextLine().trim().equalsIgnoreCase("y");
+    }
+
     private static void viewConversationThread() {
         try {
-            List<EmailRecord> emails = emailStorageService.loadEmails();
-            if (emails.isEmpty()) {
+            if (emailStore.count() == 0) {
                 System.out.println("No emails available.");
                 return;
             }
@@ -145,13 +529,13 @@ public class App {
             int index = scanner.nextInt();
             scanner.nextLine(); // Consume newline
 
-            if (index < 1 || index > emails.size()) {
+            EmailRecord email = getEmailAt(index);
+            if (email == null) {
                 System.out.println("Invalid email index.");
                 return;
             }
 
-            EmailRecord email = emails.get(index - 1);
-            List<EmailRecord> thread = emailStorageService.getConversationThread(email.getConversationId());
+            List<EmailRecord> thread = emailStore.getConversationThread(email.getConversationId());
             
             System.out.println("\nConversation Thread:");
             for (int i = 0; i < thread.size(); i++) {
@@ -161,7 +545,7 @@ public class App {
                     threadEmail.getSubject(), threadEmail.getMessageType());
                 
                 try {
-                    String content = emailStorageService.getEmailContent(threadEmail.getId());
+                    String content = emailStore.getEmailContent(threadEmail.getId());
                     System.out.println("Content:");
                     System.out.println(content);
                     System.out.println("----------------------------------------");
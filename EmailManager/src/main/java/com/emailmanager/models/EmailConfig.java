@@ -1,5 +1,8 @@
 package com.emailmanager.models;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class EmailConfig {
     private String clientId;
     private String clientSecret;
@@ -7,6 +10,37 @@ public class EmailConfig {
     private String userEmail;
     private String csvFilePath;
     private String emailStoragePath;
+    private List<MailboxConfig> mailboxes = new ArrayList<>();
+    private int maxConcurrentSyncs = 8;
+    private int maxConcurrentSyncsPerTenant = 4;
+    private double tenantRequestsPerSecond = 50;
+    private double mailboxRequestsPerSecond = 16;
+    private int maxRetries = 6;
+    private long cacheMaxMegabytes = 256;
+    // "fast" for the built-in CSV codec, "opencsv" for OpenCSV bean binding
+    private String csvCodec = "fast";
+    // Decode large CSV files on the common fork-join pool when loading them (fast codec only)
+    private boolean parallelCsvLoad = true;
+    // Keep a binary snapshot of the parsed records next to the CSV so restarts skip the parse
+    private boolean recordSnapshot = true;
+    // Keep Graph access tokens in the OS credential store across restarts
+    private boolean persistTokenCache = false;
+    // Allow the token cache as a plain file where no credential store is available (headless Linux)
+    private boolean allowUnencryptedTokenCache = false;
+    // "csv" for emails.csv, "binary" for the memory-mapped columnar store in emails.bin
+    private String storageFormat = "csv";
+    // Gzip new .eml files in the content store
+    private boolean compressContent = false;
+    // Parallel MIME downloads per mailbox; 0 keeps only the header stub for each email
+    private int maxConcurrentContentFetches = 4;
+    // Service root to call instead of https://graph.microsoft.com/v1.0, e.g. a FakeGraphServer
+    private String graphEndpoint;
+    // Port of the local Prometheus /metrics endpoint; 0 publishes metrics through JMX only
+    private int metricsPort = 0;
+    // Interval between scheduled syncs in --daemon mode, for mailboxes without their own
+    private long syncIntervalSeconds = 300;
+    // "none" for a single emails.csv, or "year", "month" or "day" to split CSV storage by received date
+    private String partitionPeriod = "none";
 
     // Default constructor for Jackson
     public EmailConfig() {
@@ -60,4 +94,156 @@ public class EmailConfig {
     public void setEmailStoragePath(String emailStoragePath) {
         this.emailStoragePath = emailStoragePath;
     }
-} 
\ No newline at end of file
+
+    public List<MailboxConfig> getMailboxes() {
+        return mailboxes;
+    }
+
+    public void setMailboxes(List<MailboxConfig> mailboxes) {
+        this.mailboxes = mailboxes;
+    }
+
+    public int getMaxConcurrentSyncs() {
+        return maxConcurrentSyncs;
+    }
+
+    public void setMaxConcurrentSyncs(int maxConcurrentSyncs) {
+        this.maxConcurrentSyncs = maxConcurrentSyncs;
+    }
+
+    public int getMaxConcurrentSyncsPerTenant() {
+        return maxConcurrentSyncsPerTenant;
+    }
+
+    public void setMaxConcurrentSyncsPerTenant(int maxConcurrentSyncsPerTenant) {
+        this.maxConcurrentSyncsPerTenant = maxConcurrentSyncsPerTenant;
+    }
+
+    public double getTenantRequestsPerSecond() {
+        return tenantRequestsPerSecond;
+    }
+
+    public void setTenantRequestsPerSecond(double tenantRequestsPerSecond) {
+        this.tenantRequestsPerSecond = tenantRequestsPerSecond;
+    }
+
+    public double getMailboxRequestsPerSecond() {
+        return mailboxRequestsPerSecond;
+    }
+
+    public void setMailboxRequestsPerSecond(double mailboxRequestsPerSecond) {
+        this.mailboxRequestsPerSecond = mailboxRequestsPerSecond;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getCacheMaxMegabytes() {
+        return cacheMaxMegabytes;
+    }
+
+    public void setCacheMaxMegabytes(long cacheMaxMegabytes) {
+        this.cacheMaxMegabytes = cacheMaxMegabytes;
+    }
+
+    public String getCsvCodec() {
+        return csvCodec;
+    }
+
+    public void setCsvCodec(String csvCodec) {
+        this.csvCodec = csvCodec;
+    }
+
+    public String getStorageFormat() {
+        return storageFormat;
+    }
+
+    public void setStorageFormat(String storageFormat) {
+        this.storageFormat = storageFormat;
+    }
+
+    public boolean isCompressContent() {
+        return compressContent;
+    }
+
+    public void setCompressContent(boolean compressContent) {
+        this.compressContent = compressContent;
+    }
+
+    public int getMaxConcurrentContentFetches() {
+        return maxConcurrentContentFetches;
+    }
+
+    public void setMaxConcurrentContentFetches(int maxConcurrentContentFetches) {
+        this.maxConcurrentContentFetches = maxConcurrentContentFetches;
+    }
+
+    public String getGraphEndpoint() {
+        return graphEndpoint;
+    }
+
+    public void setGraphEndpoint(String graphEndpoint) {
+        this.graphEndpoint = graphEndpoint;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public long getSyncIntervalSeconds() {
+        return syncIntervalSeconds;
+    }
+
+    public void setSyncIntervalSeconds(long syncIntervalSeconds) {
+        this.syncIntervalSeconds = syncIntervalSeconds;
+    }
+
+    public String getPartitionPeriod() {
+        return partitionPeriod;
+    }
+
+    public void setPartitionPeriod(String partitionPeriod) {
+        this.partitionPeriod = partitionPeriod;
+    }
+
+    public boolean isParallelCsvLoad() {
+        return parallelCsvLoad;
+    }
+
+    public void setParallelCsvLoad(boolean parallelCsvLoad) {
+        this.parallelCsvLoad = parallelCsvLoad;
+    }
+
+    public boolean isRecordSnapshot() {
+        return recordSnapshot;
+    }
+
+    public void setRecordSnapshot(boolean recordSnapshot) {
+        this.recordSnapshot = recordSnapshot;
+    }
+
+    public boolean isPersistTokenCache() {
+        return persistTokenCache;
+    }
+
+    public void setPersistTokenCache(boolean persistTokenCache) {
+        this.persistTokenCache = persistTokenCache;
+    }
+
+    public boolean isAllowUnencryptedTokenCache() {
+        return allowUnencryptedTokenCache;
+    }
+
+    public void setAllowUnencryptedTokenCache(boolean allowUnencryptedTokenCache) {
+        this.allowUnencryptedTokenCache = allowUnencryptedTokenCache;
+    }
+}
@@ -0,0 +1,42 @@
+package com.emailmanager.models;
+
+public class MailboxConfig {
+    private String userEmail;
+    // Optional; mailboxes without a tenant use the tenant from EmailConfig
+    private String tenantId;
+    // Optional; 0 uses syncIntervalSeconds from EmailConfig
+    private long syncIntervalSeconds;
+
+    // Default constructor for Jackson
+    public MailboxConfig() {
+    }
+
+    public MailboxConfig(String userEmail, String tenantId) {
+        this.userEmail = userEmail;
+        this.tenantId = tenantId;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public void setUserEmail(String userEmail) {
+        this.userEmail = userEmail;
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public long getSyncIntervalSeconds() {
+        return syncIntervalSeconds;
+    }
+
+    public void setSyncIntervalSeconds(long syncIntervalSeconds) {
+        this.syncIntervalSeconds = syncIntervalSeconds;
+    }
+}
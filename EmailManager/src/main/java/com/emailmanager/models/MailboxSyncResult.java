@@ -0,0 +1,42 @@
+package com.emailmanager.models;
+
+public class MailboxSyncResult {
+    private final String userEmail;
+    private final int downloaded;
+    private final long durationMillis;
+    private final String error;
+
+    public MailboxSyncResult(String userEmail, int downloaded, long durationMillis, String error) {
+        this.userEmail = userEmail;
+        this.downloaded = downloaded;
+        this.durationMillis = durationMillis;
+        this.error = error;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public int getDownloaded() {
+        return downloaded;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess()
+            ? String.format("%s: %d emails in %d ms", userEmail, downloaded, durationMillis)
+            : String.format("%s: failed after %d ms (%s)", userEmail, durationMillis, error);
+    }
+}
@@ -0,0 +1,40 @@
+package com.emailmanager.models;
+
+public class QueuedReply extends ReplyRequest {
+    public enum Status {
+        PENDING,
+        // Handed to Graph; if the process stops here the reply may or may not have been sent
+        SENDING,
+        SENT,
+        FAILED,
+        UNCERTAIN
+    }
+
+    private Status status;
+    private String error;
+
+    public QueuedReply() {
+    }
+
+    public QueuedReply(String id, String messageId, String replyContent, Status status, String error) {
+        super(id, messageId, replyContent);
+        this.status = status;
+        this.error = error;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,40 @@
+package com.emailmanager.models;
+
+public class ReplyRequest {
+    private String id;
+    private String messageId;
+    private String replyContent;
+
+    public ReplyRequest() {
+    }
+
+    public ReplyRequest(String id, String messageId, String replyContent) {
+        this.id = id;
+        this.messageId = messageId;
+        this.replyContent = replyContent;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getReplyContent() {
+        return replyContent;
+    }
+
+    public void setReplyContent(String replyContent) {
+        this.replyContent = replyContent;
+    }
+}
@@ -0,0 +1,52 @@
+package com.emailmanager.models;
+
+public class ReplyResult {
+    // Used when no response was received for the request, so it may or may not have been sent
+    public static final int STATUS_UNKNOWN = 0;
+    // Used for requests that were never handed to the server, so they can safely be sent again
+    public static final int STATUS_NOT_SENT = -1;
+
+    private final String requestId;
+    private final String messageId;
+    private final int statusCode;
+    private final String error;
+
+    public ReplyResult(String requestId, String messageId, int statusCode, String error) {
+        this.requestId = requestId;
+        this.messageId = messageId;
+        this.statusCode = statusCode;
+        this.error = error;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    public boolean isUncertain() {
+        return statusCode == STATUS_UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess()
+            ? String.format("%s: sent", messageId)
+            : String.format("%s: %s (%s)", messageId,
+                isUncertain() ? "unknown" : statusCode == STATUS_NOT_SENT ? "not sent" : "failed " + statusCode, error);
+    }
+}
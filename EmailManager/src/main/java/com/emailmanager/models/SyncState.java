@@ -0,0 +1,18 @@
+package com.emailmanager.models;
+
+public class SyncState {
+    // ISO-8601 receivedDateTime of the newest email persisted so far
+    private String watermark;
+
+    // Default constructor for Jackson
+    public SyncState() {
+    }
+
+    public String getWatermark() {
+        return watermark;
+    }
+
+    public void setWatermark(String watermark) {
+        this.watermark = watermark;
+    }
+}
@@ -0,0 +1,35 @@
+package com.emailmanager.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A message in a reply tree; email is null for a parent that is referenced but not stored
+public class ThreadNode {
+    private final EmailRecord email;
+    private final List<ThreadNode> children = new ArrayList<>();
+
+    public ThreadNode(EmailRecord email) {
+        this.email = email;
+    }
+
+    public EmailRecord getEmail() {
+        return email;
+    }
+
+    public List<ThreadNode> getChildren() {
+        return children;
+    }
+
+    public boolean isPlaceholder() {
+        return email == null;
+    }
+
+    // Number of stored messages in this subtree
+    public int size() {
+        int size = email != null ? 1 : 0;
+        for (ThreadNode child : children) {
+            size += child.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,780 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.utils.EmailCsvCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+
+// Columnar alternative to the CSV store. Records live in immutable, memory-mapped segment files,
+// one column after another: epoch-millis dates, zone offsets, dictionary ids for sender and
+// conversation, and offset-indexed UTF-8 heaps for the remaining strings. The message type is
+// derived from the references, so it is not stored.
+// The manifest lists the live segments, so appends and compaction become visible atomically.
+// Each append writes a segment, and a background thread merges the newest segments while they are
+// of similar size, so the number of segments grows logarithmically without rewriting the store.
+public class BinaryEmailStore implements EmailStore {
+    private static final Logger logger = LoggerFactory.getLogger(BinaryEmailStore.class);
+    private static final int SEGMENT_MAGIC = 0x454d5332;
+    // Segments written before the message type column was dropped; still readable
+    private static final int SEGMENT_MAGIC_V1 = 0x454d5331;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    // A segment is one mapping addressed with int offsets, so it must stay well below 2 GB
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final int SEGMENT_HEADER_BYTES = 8 + 4 * 8;
+    private static final int FIXED_ROW_BYTES = 8 + 4 + 4 + 4 + 4 * 4;
+
+    private final Path directory;
+    private final Path manifestPath;
+    private final EmailContentStore contentStore;
+    private final long maxSegmentBytes;
+    private final Dictionary senders;
+    private final Dictionary conversations;
+    private final List<Segment> segments = new ArrayList<>();
+    // Row of every stored record, counted across all segments; merges keep rows where they are
+    private final Map<String, Long> locations = new HashMap<>();
+    private final List<SaveListener> saveListeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService compactionExecutor = EmailStorageService.newCompactionExecutor();
+    private boolean mergeScheduled;
+    private int nextSegmentNumber;
+
+    public BinaryEmailStore(Path directory, EmailContentStore contentStore) throws IOException {
+        this(directory, contentStore, MAX_SEGMENT_BYTES);
+    }
+
+    BinaryEmailStore(Path directory, EmailContentStore contentStore, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.manifestPath = directory.resolve("manifest");
+        this.contentStore = contentStore;
+        this.maxSegmentBytes = maxSegmentBytes;
+        Files.createDirectories(directory);
+        this.senders = new Dictionary(directory.resolve("senders.dict"));
+        this.conversations = new Dictionary(directory.resolve("conversations.dict"));
+        openSegments();
+        scheduleMerge();
+    }
+
+    @Override
+    public List<EmailRecord> saveEmails(List<EmailRecord> emails) throws IOException {
+        List<EmailRecord> newEmails = appendRecords(emails);
+        if (!newEmails.isEmpty()) {
+            contentStore.saveEmailContents(newEmails);
+            for (SaveListener listener : saveListeners) {
+                listener.onEmailsSaved(newEmails);
+            }
+        }
+        return newEmails;
+    }
+
+    // Stores records without touching .eml content; used by saveEmails and the CSV converter
+    public synchronized List<EmailRecord> appendRecords(List<EmailRecord> emails) throws IOException {
+        List<EmailRecord> newEmails = new ArrayList<>();
+        Set<String> batchIds = new HashSet<>();
+        for (EmailRecord email : emails) {
+            if (!locations.containsKey(email.getId()) && batchIds.add(email.getId())) {
+                newEmails.add(email);
+            }
+        }
+        if (newEmails.isEmpty()) {
+            logger.debug("No new emails to save");
+            return newEmails;
+        }
+
+        newEmails.sort(EmailStorageService.BY_RECEIVED_DATE);
+        List<String> live = segmentNames();
+        List<String> names = writeSegments(newEmails);
+        live.addAll(names);
+        writeManifest(live);
+        for (String name : names) {
+            addSegment(name);
+        }
+        logger.info("Appended {} new emails to binary segments {}", newEmails.size(), names);
+        scheduleMerge();
+        return newEmails;
+    }
+
+    // Rewrites all segments sorted by received date, into as few as the segment size cap allows
+    public synchronized void compact() throws IOException {
+        List<EmailRecord> allEmails = loadEmails();
+        allEmails.sort(EmailStorageService.BY_RECEIVED_DATE);
+        List<String> oldNames = segmentNames();
+
+        List<String> names = writeSegments(allEmails);
+        writeManifest(names);
+        segments.clear();
+        locations.clear();
+        for (String name : names) {
+            addSegment(name);
+        }
+        for (String oldName : oldNames) {
+            Files.deleteIfExists(directory.resolve(oldName));
+        }
+        logger.info("Compacted binary store {} to {} emails", directory, allEmails.size());
+    }
+
+    @Override
+    public synchronized List<EmailRecord> loadEmails() {
+        List<EmailRecord> emails = new ArrayList<>(locations.size());
+        for (Segment segment : segments) {
+            for (int row = 0; row < segment.count; row++) {
+                emails.add(segment.read(row));
+            }
+        }
+        return emails;
+    }
+
+    @Override
+    public synchronized EmailRecord findEmailById(String emailId) {
+        Long location = locations.get(emailId);
+        if (location == null) {
+            return null;
+        }
+        Segment segment = segmentAt(location);
+        return segment.read((int) (location - segment.firstRow));
+    }
+
+    @Override
+    public synchronized List<EmailRecord> getConversationThread(String conversationId) {
+        List<EmailRecord> thread = new ArrayList<>();
+        Integer id = conversations.find(conversationId);
+        if (id != null) {
+            for (Segment segment : segments) {
+                for (int row = 0; row < segment.count; row++) {
+                    if (segment.conversationId(row) == id) {
+                        thread.add(segment.read(row));
+                    }
+                }
+            }
+        }
+        thread.sort(EmailStorageService.BY_RECEIVED_DATE);
+        logger.debug("Found {} emails in conversation thread {}", thread.size(), conversationId);
+        return thread;
+    }
+
+    @Override
+    public synchronized List<EmailRecord> findEmailsFrom(String sender) {
+        // Senders are compared case-insensitively, so several dictionary entries may match
+        Set<Integer> ids = senders.findIgnoreCase(sender);
+        List<EmailRecord> emails = new ArrayList<>();
+        if (!ids.isEmpty()) {
+            for (Segment segment : segments) {
+                for (int row = 0; row < segment.count; row++) {
+                    if (ids.contains(segment.senderId(row))) {
+                        emails.add(segment.read(row));
+                    }
+                }
+            }
+        }
+        return emails;
+    }
+
+    @Override
+    public synchronized OffsetDateTime getLatestReceivedDateTime() {
+        Segment latestSegment = null;
+        int latestRow = -1;
+        long latest = NO_DATE;
+        for (Segment segment : segments) {
+            for (int row = 0; row < segment.count; row++) {
+                long millis = segment.epochMillis(row);
+                if (millis != NO_DATE && (latestSegment == null || millis > latest)) {
+                    latest = millis;
+                    latestSegment = segment;
+                    latestRow = row;
+                }
+            }
+        }
+        return latestSegment != null ? latestSegment.receivedDateTime(latestRow) : null;
+    }
+
+    @Override
+    public String getEmailContent(String emailId) throws IOException {
+        return contentStore.getEmailContent(emailId);
+    }
+
+    @Override
+    public void addSaveListener(SaveListener listener) {
+        saveListeners.add(listener);
+    }
+
+    @Override
+    public EmailContentStore getContentStore() {
+        return contentStore;
+    }
+
+    @Override
+    public Path getDataFilePath() {
+        return manifestPath;
+    }
+
+    @Override
+    public synchronized int count() {
+        return locations.size();
+    }
+
+    @Override
+    public synchronized List<EmailRecord> listEmails(int offset, int limit) {
+        List<EmailRecord> emails = new ArrayList<>(Math.min(limit, 1024));
+        int skip = offset;
+        for (Segment segment : segments) {
+            if (skip >= segment.count) {
+                skip -= segment.count;
+                continue;
+            }
+            for (int row = skip; row < segment.count && emails.size() < limit; row++) {
+                emails.add(segment.read(row));
+            }
+            skip = 0;
+            if (emails.size() >= limit) {
+                break;
+            }
+        }
+        return emails;
+    }
+
+    // Streams an existing CSV into this store in bounded batches
+    public static int convertFromCsv(Path csvFilePath, BinaryEmailStore target) throws IOException {
+        logger.info("Converting {} to binary store {}", csvFilePath, target.directory);
+        List<EmailRecord> batch = new ArrayList<>();
+        int[] converted = new int[1];
+        EmailCsvCodec.scan(csvFilePath, 0, (offset, email) -> {
+            batch.add(email);
+            if (batch.size() >= 50000) {
+                converted[0] += target.appendRecords(batch).size();
+                batch.clear();
+            }
+        });
+        converted[0] += target.appendRecords(batch).size();
+        target.compact();
+        logger.info("Converted {} emails from {}", converted[0], csvFilePath);
+        return converted[0];
+    }
+
+    @Override
+    public void close() {
+        // Lets a running merge finish; mappings are released when the segments are garbage collected
+        EmailStorageService.shutdownCompactionExecutor(compactionExecutor);
+    }
+
+    private synchronized void scheduleMerge() {
+        if (!mergeScheduled && mergeCandidate() >= 0) {
+            mergeScheduled = true;
+            compactionExecutor.submit(this::mergeSegments);
+        }
+    }
+
+    // Index of the older of the newest two adjacent segments of similar size, or -1. Once none are
+    // left, each segment holds more than twice the rows of the next, so there are logarithmically
+    // many, even when appends outpace the merges.
+    private int mergeCandidate() {
+        for (int index = segments.size() - 2; index >= 0; index--) {
+            Segment older = segments.get(index);
+            Segment newer = segments.get(index + 1);
+            if (older.count <= newer.count * 2 && older.size + newer.size <= maxSegmentBytes) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    // Runs on the compaction thread. The merged file is written without holding the lock; the
+    // segments are swapped only if compact() has not replaced them in the meantime.
+    private void mergeSegments() {
+        try {
+            while (true) {
+                Segment older;
+                Segment newer;
+                String name;
+                synchronized (this) {
+                    int index = mergeCandidate();
+                    if (index < 0) {
+                        mergeScheduled = false;
+                        return;
+                    }
+                    older = segments.get(index);
+                    newer = segments.get(index + 1);
+                    name = nextSegmentName();
+                }
+
+                writeMergedSegment(directory.resolve(name), older, newer);
+
+                synchronized (this) {
+                    int index = segments.indexOf(older);
+                    if (index < 0 || index + 1 >= segments.size() || segments.get(index + 1) != newer) {
+                        Files.deleteIfExists(directory.resolve(name));
+                        continue;
+                    }
+                    List<String> live = new ArrayList<>();
+                    for (Segment segment : segments) {
+                        if (segment != newer) {
+                            live.add(segment == older ? name : segment.path.getFileName().toString());
+                        }
+                    }
+                    writeManifest(live);
+                    segments.set(index, new Segment(directory.resolve(name), older.firstRow));
+                    segments.remove(index + 1);
+                    Files.deleteIfExists(older.path);
+                    Files.deleteIfExists(newer.path);
+                    logger.debug("Merged binary segments {} and {} into {}", older.path.getFileName(),
+                        newer.path.getFileName(), name);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to merge segments of binary store {}: ", directory, e);
+            synchronized (this) {
+                mergeScheduled = false;
+            }
+        }
+    }
+
+    // Copies the columns of both segments without decoding the rows, so dictionary ids stay valid
+    private static void writeMergedSegment(Path path, Segment older, Segment newer) throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempPath.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(older.count + newer.count);
+            older.copyTo(out, older.datesStart, older.count * 8);
+            newer.copyTo(out, newer.datesStart, newer.count * 8);
+            older.copyTo(out, older.offsetsStart, older.count * 4);
+            newer.copyTo(out, newer.offsetsStart, newer.count * 4);
+            older.copyTo(out, older.sendersStart, older.count * 4);
+            newer.copyTo(out, newer.sendersStart, newer.count * 4);
+            older.copyTo(out, older.conversationsStart, older.count * 4);
+            newer.copyTo(out, newer.conversationsStart, newer.count * 4);
+            for (int column = 0; column < 4; column++) {
+                int olderBytes = older.stringBytes(column);
+                int newerBytes = newer.stringBytes(column);
+                out.writeInt(olderBytes + newerBytes);
+                older.copyTo(out, older.stringOffsetsStart[column], older.count * 4);
+                for (int row = 0; row <= newer.count; row++) {
+                    out.writeInt(olderBytes + newer.buffer.getInt(newer.stringOffsetsStart[column] + row * 4));
+                }
+                older.copyTo(out, older.stringBytesStart[column], olderBytes);
+                newer.copyTo(out, newer.stringBytesStart[column], newerBytes);
+            }
+            out.flush();
+            file.getChannel().force(false);
+        }
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void openSegments() throws IOException {
+        List<String> live = segmentNames();
+        Set<String> liveSet = new HashSet<>(live);
+        for (String name : live) {
+            addSegment(name);
+            int number = Integer.parseInt(name.substring("segment-".length(), name.length() - ".seg".length()));
+            nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+        }
+
+        // Segments not in the manifest were left behind by an interrupted write or compaction
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.seg*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!liveSet.contains(name)) {
+                    Files.deleteIfExists(file);
+                    if (name.endsWith(".seg")) {
+                        int number = Integer.parseInt(name.substring("segment-".length(), name.length() - ".seg".length()));
+                        nextSegmentNumber = Math.max(nextSegmentNumber, number + 1);
+                    }
+                }
+            }
+        }
+        logger.info("Opened binary store {} with {} emails in {} segments", directory, locations.size(), segments.size());
+    }
+
+    private List<String> segmentNames() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (Files.exists(manifestPath)) {
+            for (String line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    names.add(line.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    private void writeManifest(List<String> names) throws IOException {
+        Path tempPath = manifestPath.resolveSibling("manifest.tmp");
+        Files.write(tempPath, names, StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+        Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void addSegment(String name) throws IOException {
+        long firstRow = 0;
+        if (!segments.isEmpty()) {
+            Segment last = segments.get(segments.size() - 1);
+            firstRow = last.firstRow + last.count;
+        }
+        Segment segment = new Segment(directory.resolve(name), firstRow);
+        segments.add(segment);
+        for (int row = 0; row < segment.count; row++) {
+            locations.putIfAbsent(segment.string(Segment.ID, row), firstRow + row);
+        }
+    }
+
+    private Segment segmentAt(long row) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).firstRow <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return segments.get(low);
+    }
+
+    private String nextSegmentName() {
+        return String.format("segment-%06d.seg", nextSegmentNumber++);
+    }
+
+    // Splits the emails so that no segment exceeds maxSegmentBytes
+    private List<String> writeSegments(List<EmailRecord> emails) throws IOException {
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        long bytes = SEGMENT_HEADER_BYTES;
+        for (int i = 0; i < emails.size(); i++) {
+            long rowBytes = rowBytes(emails.get(i));
+            if (i > start && bytes + rowBytes > maxSegmentBytes) {
+                names.add(writeSegment(emails.subList(start, i)));
+                start = i;
+                bytes = SEGMENT_HEADER_BYTES;
+            }
+            bytes += rowBytes;
+        }
+        names.add(writeSegment(emails.subList(start, emails.size())));
+        return names;
+    }
+
+    private static long rowBytes(EmailRecord email) {
+        long bytes = FIXED_ROW_BYTES;
+        for (int column = 0; column < 4; column++) {
+            bytes += utf8Length(columnValue(email, column));
+        }
+        return bytes;
+    }
+
+    private static long utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private String writeSegment(List<EmailRecord> emails) throws IOException {
+        // Dictionaries must be durable before any segment refers to their ids
+        int count = emails.size();
+        int[] senderIds = new int[count];
+        int[] conversationIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            senderIds[i] = senders.idOf(emails.get(i).getFrom());
+            conversationIds[i] = conversations.idOf(emails.get(i).getConversationId());
+        }
+        senders.flush();
+        conversations.flush();
+
+        String name = nextSegmentName();
+        Path tempPath = directory.resolve(name + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tempPath.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(count);
+            for (EmailRecord email : emails) {
+                out.writeLong(email.getReceivedDateTime() != null
+                    ? email.getReceivedDateTime().toInstant().toEpochMilli() : NO_DATE);
+            }
+            for (EmailRecord email : emails) {
+                out.writeInt(email.getReceivedDateTime() != null
+                    ? email.getReceivedDateTime().getOffset().getTotalSeconds() : 0);
+            }
+            for (int id : senderIds) {
+                out.writeInt(id);
+            }
+            for (int id : conversationIds) {
+                out.writeInt(id);
+            }
+            writeStringColumn(out, emails, Segment.ID);
+            writeStringColumn(out, emails, Segment.SUBJECT);
+            writeStringColumn(out, emails, Segment.INTERNET_MESSAGE_ID);
+            writeStringColumn(out, emails, Segment.REFERENCES);
+            out.flush();
+            file.getChannel().force(false);
+        }
+        Files.move(tempPath, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        return name;
+    }
+
+    private static void writeStringColumn(DataOutputStream out, List<EmailRecord> emails, int column) throws IOException {
+        byte[][] values = new byte[emails.size()][];
+        int total = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = nullToEmpty(columnValue(emails.get(i), column)).getBytes(StandardCharsets.UTF_8);
+            total += values[i].length;
+        }
+        out.writeInt(total);
+        int offset = 0;
+        for (byte[] value : values) {
+            out.writeInt(offset);
+            offset += value.length;
+        }
+        out.writeInt(offset);
+        for (byte[] value : values) {
+            out.write(value);
+        }
+    }
+
+    private static String columnValue(EmailRecord email, int column) {
+        switch (column) {
+            case Segment.ID:
+                return email.getId();
+            case Segment.SUBJECT:
+                return email.getSubject();
+            case Segment.INTERNET_MESSAGE_ID:
+                return email.getInternetMessageId();
+            default:
+                return email.getReferences();
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private class Segment {
+        static final int ID = 0;
+        static final int SUBJECT = 1;
+        static final int INTERNET_MESSAGE_ID = 2;
+        static final int REFERENCES = 3;
+
+        final Path path;
+        final long firstRow;
+        final int count;
+        final long size;
+        private final MappedByteBuffer buffer;
+        private final int datesStart;
+        private final int offsetsStart;
+        private final int sendersStart;
+        private final int conversationsStart;
+        private final int[] stringOffsetsStart = new int[4];
+        private final int[] stringBytesStart = new int[4];
+
+        Segment(Path path, long firstRow) throws IOException {
+            this.path = path;
+            this.firstRow = firstRow;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                size = channel.size();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            int magic = buffer.getInt(0);
+            if (magic != SEGMENT_MAGIC && magic != SEGMENT_MAGIC_V1) {
+                throw new IOException("Not a binary email segment: " + path);
+            }
+            count = buffer.getInt(4);
+            datesStart = 8;
+            offsetsStart = datesStart + count * 8;
+            sendersStart = offsetsStart + count * 4;
+            conversationsStart = sendersStart + count * 4;
+            int position = conversationsStart + count * 4;
+            if (magic == SEGMENT_MAGIC_V1) {
+                position += count;
+            }
+            for (int column = 0; column < 4; column++) {
+                int totalBytes = buffer.getInt(position);
+                stringOffsetsStart[column] = position + 4;
+                stringBytesStart[column] = stringOffsetsStart[column] + (count + 1) * 4;
+                position = stringBytesStart[column] + totalBytes;
+            }
+        }
+
+        int stringBytes(int column) {
+            return buffer.getInt(stringOffsetsStart[column] + count * 4);
+        }
+
+        void copyTo(DataOutputStream out, int start, int length) throws IOException {
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(start);
+            byte[] chunk = new byte[64 * 1024];
+            while (length > 0) {
+                int n = Math.min(chunk.length, length);
+                slice.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+                length -= n;
+            }
+        }
+
+        long epochMillis(int row) {
+            return buffer.getLong(datesStart + row * 8);
+        }
+
+        OffsetDateTime receivedDateTime(int row) {
+            long millis = epochMillis(row);
+            if (millis == NO_DATE) {
+                return null;
+            }
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds(buffer.getInt(offsetsStart + row * 4));
+            return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), offset);
+        }
+
+        int senderId(int row) {
+            return buffer.getInt(sendersStart + row * 4);
+        }
+
+        int conversationId(int row) {
+            return buffer.getInt(conversationsStart + row * 4);
+        }
+
+        String string(int column, int row) {
+            int start = buffer.getInt(stringOffsetsStart[column] + row * 4);
+            int end = buffer.getInt(stringOffsetsStart[column] + (row + 1) * 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(stringBytesStart[column] + start);
+            slice.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        EmailRecord read(int row) {
+            return new EmailRecord(
+                string(ID, row),
+                string(SUBJECT, row),
+                receivedDateTime(row),
+                senders.get(senderId(row)),
+                string(INTERNET_MESSAGE_ID, row),
+                conversations.get(conversationId(row)),
+                string(REFERENCES, row)
+            );
+        }
+    }
+
+    // Append-only string dictionary: the id of a value is its position in the file
+    private static class Dictionary {
+        private final Path path;
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<String, Integer> pending = new LinkedHashMap<>();
+
+        Dictionary(Path path) throws IOException {
+            this.path = path;
+            if (Files.exists(path)) {
+                load();
+            }
+        }
+
+        private void load() throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            int validLength = 0;
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length < 0 || buffer.remaining() < length) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                String value = new String(bytes, StandardCharsets.UTF_8);
+                ids.putIfAbsent(value, values.size());
+                values.add(value);
+                validLength = buffer.position();
+            }
+
+            // Drop an entry torn by a crash mid-append
+            if (validLength < buffer.capacity()) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                }
+            }
+        }
+
+        int idOf(String value) {
+            String key = nullToEmpty(value);
+            Integer id = ids.get(key);
+            if (id == null) {
+                id = values.size();
+                values.add(key);
+                ids.put(key, id);
+                pending.put(key, id);
+            }
+            return id;
+        }
+
+        Integer find(String value) {
+            return ids.get(nullToEmpty(value));
+        }
+
+        Set<Integer> findIgnoreCase(String value) {
+            Set<Integer> matches = new HashSet<>();
+            for (int i = 0; i < values.size(); i++) {
+                if (values.get(i).equalsIgnoreCase(value)) {
+                    matches.add(i);
+                }
+            }
+            return matches;
+        }
+
+        String get(int id) {
+            return values.get(id);
+        }
+
+        void flush() throws IOException {
+            if (pending.isEmpty()) {
+                return;
+            }
+            try (FileOutputStream file = new FileOutputStream(path.toFile(), true);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                for (String value : pending.keySet()) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.flush();
+                file.getChannel().force(false);
+            }
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+// Read-only, column-oriented copy of a list of emails for long-lived caches. Per record it keeps
+// the unique strings (ID, subject, Message-ID, References) as UTF-8 in shared byte chunks, senders
+// and conversation IDs as codes into a dictionary, and the received time as epoch seconds, nanos
+// and offset. The message type is not stored, as EmailRecord derives it from References.
+// get() builds a new EmailRecord each time, so callers should not rely on identity or mutate it.
+public final class CompactEmailRecords extends AbstractList<EmailRecord> implements RandomAccess {
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final List<byte[]> chunks;
+    // Chunk index in the high 32 bits, position within the chunk in the low 32 bits
+    private final long[] locations;
+    private final int[] idHashes;
+    private final int[] senderCodes;
+    private final int[] conversationCodes;
+    private final String[] dictionary;
+    private final long[] epochSeconds;
+    private final int[] nanos;
+    private final int[] offsetSeconds;
+    // Open-addressing table of record index + 1 by ID hash; 0 marks an empty slot
+    private final int[] idTable;
+    private final int size;
+    private final long dataBytes;
+
+    private CompactEmailRecords(Builder builder) {
+        this(builder.size, builder.chunks, Arrays.copyOf(builder.locations, builder.size),
+            Arrays.copyOf(builder.idHashes, builder.size), Arrays.copyOf(builder.senderCodes, builder.size),
+            Arrays.copyOf(builder.conversationCodes, builder.size), Arrays.copyOf(builder.epochSeconds, builder.size),
+            Arrays.copyOf(builder.nanos, builder.size), Arrays.copyOf(builder.offsetSeconds, builder.size),
+            builder.dictionary.toArray(new String[0]), builder.dataBytes);
+    }
+
+    private CompactEmailRecords(int size, List<byte[]> chunks, long[] locations, int[] idHashes, int[] senderCodes,
+                                int[] conversationCodes, long[] epochSeconds, int[] nanos, int[] offsetSeconds,
+                                String[] dictionary, long dataBytes) {
+        this.size = size;
+        this.chunks = chunks;
+        this.locations = locations;
+        this.idHashes = idHashes;
+        this.senderCodes = senderCodes;
+        this.conversationCodes = conversationCodes;
+        this.epochSeconds = epochSeconds;
+        this.nanos = nanos;
+        this.offsetSeconds = offsetSeconds;
+        this.dictionary = dictionary;
+        this.dataBytes = dataBytes;
+
+        int capacity = Integer.highestOneBit(Math.max(4, size * 2 - 1)) << 1;
+        this.idTable = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = idHashes[i] & (capacity - 1);
+            // First occurrence of an ID wins, as with the previous HashMap index
+            while (idTable[slot] != 0) {
+                if (idHashes[idTable[slot] - 1] == idHashes[i] && sameId(idTable[slot] - 1, i)) {
+                    break;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            if (idTable[slot] == 0) {
+                idTable[slot] = i + 1;
+            }
+        }
+    }
+
+    public static CompactEmailRecords of(List<EmailRecord> emails) {
+        if (emails instanceof CompactEmailRecords) {
+            return (CompactEmailRecords) emails;
+        }
+        Builder builder = new Builder();
+        for (EmailRecord email : emails) {
+            builder.add(email);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public EmailRecord get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        }
+        Reader reader = new Reader(locations[index]);
+        String id = reader.next();
+        String subject = reader.next();
+        String internetMessageId = reader.next();
+        String references = reader.next();
+        return new EmailRecord(id, subject, receivedDateTime(index), dictionary[senderCodes[index]],
+            internetMessageId, dictionary[conversationCodes[index]], references);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // The first email with the ID, or null
+    public EmailRecord findById(String id) {
+        if (id == null) {
+            return null;
+        }
+        int hash = id.hashCode();
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int mask = idTable.length - 1;
+        for (int slot = hash & mask; idTable[slot] != 0; slot = (slot + 1) & mask) {
+            int index = idTable[slot] - 1;
+            if (idHashes[index] == hash && new Reader(locations[index]).matches(idBytes)) {
+                return get(index);
+            }
+        }
+        return null;
+    }
+
+    // Heap used by the columns, chunks and dictionary, for cache accounting
+    public long estimatedBytes() {
+        long dictionaryBytes = 0;
+        for (String value : dictionary) {
+            dictionaryBytes += 48 + (value != null ? value.length() : 0);
+        }
+        return (long) chunks.size() * 16 + dataBytes
+            + (long) size * (8 + 4 + 4 + 4 + 8 + 4 + 4)
+            + (long) idTable.length * 4
+            + dictionaryBytes;
+    }
+
+    // Writes every column in a layout that read() maps back without decoding the records
+    void write(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        buffer.putInt(size).putInt(dictionary.length).putInt(chunks.size()).putLong(dataBytes);
+        for (String value : dictionary) {
+            byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+            buffer = ensureRemaining(channel, buffer, 4);
+            buffer.putInt(bytes != null ? bytes.length : -1);
+            if (bytes != null) {
+                buffer = put(channel, buffer, bytes);
+            }
+        }
+        for (byte[] chunk : chunks) {
+            buffer = ensureRemaining(channel, buffer, 4);
+            buffer.putInt(chunk.length);
+            buffer = put(channel, buffer, chunk);
+        }
+        for (long[] column : new long[][] {locations, epochSeconds}) {
+            for (long value : column) {
+                buffer = ensureRemaining(channel, buffer, 8);
+                buffer.putLong(value);
+            }
+        }
+        for (int[] column : new int[][] {idHashes, senderCodes, conversationCodes, nanos, offsetSeconds}) {
+            for (int value : column) {
+                buffer = ensureRemaining(channel, buffer, 4);
+                buffer.putInt(value);
+            }
+        }
+        flush(channel, buffer);
+    }
+
+    // Reads what write() produced from a buffer positioned at its start, e.g. a mapped file
+    static CompactEmailRecords read(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        int dictionarySize = buffer.getInt();
+        int chunkCount = buffer.getInt();
+        long dataBytes = buffer.getLong();
+
+        String[] dictionary = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            int length = buffer.getInt();
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        List<byte[]> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            byte[] chunk = new byte[buffer.getInt()];
+            buffer.get(chunk);
+            chunks.add(chunk);
+        }
+        long[] locations = new long[size];
+        long[] epochSeconds = new long[size];
+        for (long[] column : new long[][] {locations, epochSeconds}) {
+            buffer.asLongBuffer().get(column);
+            buffer.position(buffer.position() + size * 8);
+        }
+        int[][] intColumns = new int[5][size];
+        for (int[] column : intColumns) {
+            buffer.asIntBuffer().get(column);
+            buffer.position(buffer.position() + size * 4);
+        }
+        return new CompactEmailRecords(size, chunks, locations, intColumns[0], intColumns[1], intColumns[2],
+            epochSeconds, intColumns[3], intColumns[4], dictionary, dataBytes);
+    }
+
+    private static ByteBuffer put(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        int written = 0;
+        while (written < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer);
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, length);
+            written += length;
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer ensureRemaining(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+        return buffer;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private OffsetDateTime receivedDateTime(int index) {
+        if (epochSeconds[index] == NO_DATE) {
+            return null;
+        }
+        ZoneOffset offset = ZoneOffset.ofTotalSeconds(offsetSeconds[index]);
+        return OffsetDateTime.of(LocalDateTime.ofEpochSecond(epochSeconds[index], nanos[index], offset), offset);
+    }
+
+    private boolean sameId(int first, int second) {
+        return new Reader(locations[first]).matches(new Reader(locations[second]).nextBytes());
+    }
+
+    // Walks the length-prefixed strings of one record: varint (length + 1, 0 for null), then UTF-8
+    private class Reader {
+        private final byte[] chunk;
+        private int position;
+
+        private Reader(long location) {
+            this.chunk = chunks.get((int) (location >>> 32));
+            this.position = (int) location;
+        }
+
+        private int nextLength() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = chunk[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value - 1;
+        }
+
+        private String next() {
+            int length = nextLength();
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(chunk, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private byte[] nextBytes() {
+            int length = Math.max(0, nextLength());
+            byte[] value = Arrays.copyOfRange(chunk, position, position + length);
+            position += length;
+            return value;
+        }
+
+        private boolean matches(byte[] expected) {
+            int length = nextLength();
+            return length == expected.length
+                && Arrays.equals(chunk, position, position + length, expected, 0, length);
+        }
+    }
+
+    public static final class Builder {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private byte[] chunk;
+        private int chunkPosition;
+        private long dataBytes;
+        private int size;
+        private long[] locations = new long[1024];
+        private int[] idHashes = new int[1024];
+        private int[] senderCodes = new int[1024];
+        private int[] conversationCodes = new int[1024];
+        private long[] epochSeconds = new long[1024];
+        private int[] nanos = new int[1024];
+        private int[] offsetSeconds = new int[1024];
+
+        public Builder() {
+        }
+
+        // Continues after existing records, such as a snapshot, without materializing them
+        public Builder(CompactEmailRecords base) {
+            int capacity = Math.max(1024, base.size + base.size / 4);
+            chunks.addAll(base.chunks);
+            dictionary.addAll(Arrays.asList(base.dictionary));
+            for (int i = 0; i < base.dictionary.length; i++) {
+                codes.putIfAbsent(base.dictionary[i], i);
+            }
+            dataBytes = base.dataBytes;
+            size = base.size;
+            locations = Arrays.copyOf(base.locations, capacity);
+            idHashes = Arrays.copyOf(base.idHashes, capacity);
+            senderCodes = Arrays.copyOf(base.senderCodes, capacity);
+            conversationCodes = Arrays.copyOf(base.conversationCodes, capacity);
+            epochSeconds = Arrays.copyOf(base.epochSeconds, capacity);
+            nanos = Arrays.copyOf(base.nanos, capacity);
+            offsetSeconds = Arrays.copyOf(base.offsetSeconds, capacity);
+        }
+
+        public Builder add(EmailRecord email) {
+            if (size == locations.length) {
+                grow();
+            }
+            byte[][] values = {
+                bytes(email.getId()), bytes(email.getSubject()),
+                bytes(email.getInternetMessageId()), bytes(email.getReferences())
+            };
+            int length = 0;
+            for (byte[] value : values) {
+                length += 5 + (value != null ? value.length : 0);
+            }
+            if (chunk == null || chunkPosition + length > chunk.length) {
+                chunk = new byte[Math.max(CHUNK_SIZE, length)];
+                chunks.add(chunk);
+                chunkPosition = 0;
+            }
+            locations[size] = ((long) (chunks.size() - 1) << 32) | chunkPosition;
+            int start = chunkPosition;
+            for (byte[] value : values) {
+                writeLength(value != null ? value.length + 1 : 0);
+                if (value != null) {
+                    System.arraycopy(value, 0, chunk, chunkPosition, value.length);
+                    chunkPosition += value.length;
+                }
+            }
+            dataBytes += chunkPosition - start;
+
+            idHashes[size] = email.getId() != null ? email.getId().hashCode() : 0;
+            senderCodes[size] = code(email.getFrom());
+            conversationCodes[size] = code(email.getConversationId());
+            OffsetDateTime received = email.getReceivedDateTime();
+            if (received != null) {
+                epochSeconds[size] = received.toEpochSecond();
+                nanos[size] = received.getNano();
+                offsetSeconds[size] = received.getOffset().getTotalSeconds();
+            } else {
+                epochSeconds[size] = NO_DATE;
+            }
+            size++;
+            return this;
+        }
+
+        public CompactEmailRecords build() {
+            if (chunk != null && chunkPosition < chunk.length / 2) {
+                // Trim the last, mostly empty chunk
+                chunks.set(chunks.size() - 1, Arrays.copyOf(chunk, chunkPosition));
+            }
+            chunk = null;
+            return new CompactEmailRecords(this);
+        }
+
+        private int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+
+        private void writeLength(int value) {
+            while ((value & ~0x7f) != 0) {
+                chunk[chunkPosition++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            chunk[chunkPosition++] = (byte) value;
+        }
+
+        private void grow() {
+            int capacity = locations.length * 2;
+            locations = Arrays.copyOf(locations, capacity);
+            idHashes = Arrays.copyOf(idHashes, capacity);
+            senderCodes = Arrays.copyOf(senderCodes, capacity);
+            conversationCodes = Arrays.copyOf(conversationCodes, capacity);
+            epochSeconds = Arrays.copyOf(epochSeconds, capacity);
+            nanos = Arrays.copyOf(nanos, capacity);
+            offsetSeconds = Arrays.copyOf(offsetSeconds, capacity);
+        }
+
+        private static byte[] bytes(String value) {
+            return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import com.microsoft.graph.http.GraphServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Downloads the MIME content of synced messages on a bounded worker pool, streaming each message
+// straight into the content store. Queued message IDs are journaled ("+id" when queued, "-id" when
+// stored) so downloads left over from an interrupted run are picked up by the next one.
+public class ContentFetchService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ContentFetchService.class);
+    // Downloads queued per worker before enqueue blocks and the metadata sync waits for content
+    private static final int QUEUED_PER_WORKER = 250;
+
+    @FunctionalInterface
+    public interface MimeDownloader {
+        void download(String messageId, GraphService.ContentConsumer consumer) throws Exception;
+    }
+
+    private final MimeDownloader downloader;
+    private final EmailContentStore contentStore;
+    private final Path journalPath;
+    private final ExecutorService executor;
+    private final Semaphore queuePermits;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Object journalLock = new Object();
+    private final Object idleLock = new Object();
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private Set<String> pending;
+    private FileChannel journalChannel;
+    private Writer journal;
+
+    public ContentFetchService(GraphService graphService, EmailContentStore contentStore, Path journalPath, int maxConcurrentFetches) {
+        this(graphService::downloadMimeContent, contentStore, journalPath, maxConcurrentFetches);
+    }
+
+    public ContentFetchService(MimeDownloader downloader, EmailContentStore contentStore, Path journalPath, int maxConcurrentFetches) {
+        this.downloader = downloader;
+        this.contentStore = contentStore;
+        this.journalPath = journalPath;
+        int workers = Math.max(1, maxConcurrentFetches);
+        this.queuePermits = new Semaphore(workers * QUEUED_PER_WORKER);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "content-fetch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Requeues downloads recorded in the journal by a previous run that did not complete
+    public int resumePending() throws IOException, InterruptedException {
+        List<String> resumed;
+        synchronized (journalLock) {
+            openJournal();
+            resumed = new ArrayList<>(pending);
+        }
+        if (!resumed.isEmpty()) {
+            logger.info("Resuming {} pending content downloads from {}", resumed.size(), journalPath);
+        }
+        for (String messageId : resumed) {
+            submit(messageId);
+        }
+        return resumed.size();
+    }
+
+    // Journals the batch before queueing it, so callers can advance the sync watermark afterwards
+    public void enqueue(List<EmailRecord> emails) throws IOException, InterruptedException {
+        enqueue(emails, journal(emails));
+    }
+
+    // Journals the IDs of a batch before its records are saved, so a crash or interrupt between the
+    // save and enqueue leaves them to the next run. Returns the IDs that were not pending already.
+    public Set<String> journal(List<EmailRecord> emails) throws IOException {
+        Set<String> journaled = new LinkedHashSet<>();
+        synchronized (journalLock) {
+            openJournal();
+            for (EmailRecord email : emails) {
+                if (pending.add(email.getId())) {
+                    journal.write('+');
+                    journal.write(email.getId());
+                    journal.write('\n');
+                    journaled.add(email.getId());
+                }
+            }
+            journal.flush();
+            journalChannel.force(false);
+        }
+        return journaled;
+    }
+
+    // Queues the downloads of newly saved emails. IDs journaled for emails that turned out to be
+    // stored already, such as the one at the inclusive watermark, are dropped from the journal.
+    public void enqueue(List<EmailRecord> newEmails, Set<String> journaled) throws IOException, InterruptedException {
+        Set<String> messageIds = new LinkedHashSet<>();
+        for (EmailRecord email : newEmails) {
+            if (journaled.contains(email.getId())) {
+                messageIds.add(email.getId());
+            }
+        }
+        for (String messageId : journaled) {
+            if (!messageIds.contains(messageId)) {
+                markDone(messageId);
+            }
+        }
+        logger.debug("Queued content downloads for {} of {} emails", messageIds.size(), newEmails.size());
+        for (String messageId : messageIds) {
+            submit(messageId);
+        }
+    }
+
+    private void submit(String messageId) throws InterruptedException {
+        if (!inFlight.add(messageId)) {
+            return;
+        }
+        try {
+            queuePermits.acquire();
+        } catch (InterruptedException e) {
+            // Not queued, so awaitIdle must not wait for it; it stays in the journal for the next run
+            finished(messageId);
+            throw e;
+        }
+        executor.execute(() -> {
+            try {
+                fetch(messageId);
+            } finally {
+                queuePermits.release();
+                finished(messageId);
+            }
+        });
+    }
+
+    private void finished(String messageId) {
+        inFlight.remove(messageId);
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+    }
+
+    private void fetch(String messageId) {
+        try {
+            downloader.download(messageId, content -> contentStore.writeContent(messageId, content));
+            markDone(messageId);
+            fetched.incrementAndGet();
+            logger.debug("Stored content for message ID {}", messageId);
+        } catch (GraphServiceException e) {
+            failed.incrementAndGet();
+            if (e.getResponseCode() == 404) {
+                // Deleted since it was synced; retrying would never succeed
+                logger.warn("Message ID {} no longer exists, skipping its content", messageId);
+                dropPending(messageId);
+            } else {
+                logger.error("Failed to download content for message ID {}: {}", messageId, e.getMessage());
+            }
+        } catch (Exception e) {
+            // Left in the journal, so the download is retried on the next run
+            failed.incrementAndGet();
+            logger.error("Failed to download content for message ID {}: {}", messageId, e.getMessage());
+        }
+    }
+
+    private void dropPending(String messageId) {
+        try {
+            markDone(messageId);
+        } catch (IOException e) {
+            logger.warn("Failed to update content journal {}: {}", journalPath, e.getMessage());
+        }
+    }
+
+    private void markDone(String messageId) throws IOException {
+        synchronized (journalLock) {
+            if (pending.remove(messageId)) {
+                // Not forced: losing a completion record only costs a repeated download
+                journal.write('-');
+                journal.write(messageId);
+                journal.write('\n');
+                journal.flush();
+            }
+        }
+    }
+
+    // Blocks until every queued download has finished, then truncates the journal if nothing is left
+    public void awaitIdle() throws IOException, InterruptedException {
+        synchronized (idleLock) {
+            while (!inFlight.isEmpty()) {
+                idleLock.wait(1000);
+            }
+        }
+        synchronized (journalLock) {
+            if (journal != null && pending.isEmpty()) {
+                journalChannel.truncate(0);
+            }
+        }
+        logger.info("Content downloads finished: {} stored, {} failed", fetched.getAndSet(0), failed.getAndSet(0));
+    }
+
+    private void openJournal() throws IOException {
+        if (journal != null) {
+            return;
+        }
+        pending = readJournal(journalPath);
+
+        // Rewrite the journal with only the outstanding entries before appending to it
+        Path tempPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        List<String> lines = new ArrayList<>(pending.size());
+        for (String messageId : pending) {
+            lines.add("+" + messageId);
+        }
+        Files.write(tempPath, lines, StandardCharsets.UTF_8);
+        Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journalChannel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        journal = Channels.newWriter(journalChannel, StandardCharsets.UTF_8);
+    }
+
+    static Set<String> readJournal(Path journalPath) throws IOException {
+        Set<String> pending = new LinkedHashSet<>();
+        String contents;
+        try {
+            contents = new String(Files.readAllBytes(journalPath), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return pending;
+        }
+        int start = 0;
+        int end;
+        // A torn last line from a crash has no newline and is ignored; its batch is synced again
+        while ((end = contents.indexOf('\n', start)) >= 0) {
+            if (end - start > 1) {
+                String messageId = contents.substring(start + 1, end);
+                if (contents.charAt(start) == '+') {
+                    pending.add(messageId);
+                } else if (contents.charAt(start) == '-') {
+                    pending.remove(messageId);
+                }
+            }
+            start = end + 1;
+        }
+        return pending;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Timed out waiting for content downloads to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (journalLock) {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close content journal {}: {}", journalPath, e.getMessage());
+                }
+                journal = null;
+            }
+        }
+    }
+}
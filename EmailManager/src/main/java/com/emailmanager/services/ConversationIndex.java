@@ -0,0 +1,195 @@
+package com.emailmanager.services;
+
+import com.emailmanager.utils.EmailCsvCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Secondary index from conversationId to the byte offsets of its rows in the emails CSV.
+// The on-disk part is a sorted array of (hash, offset) pairs that is memory-mapped and binary
+// searched; rows appended since it was written are kept in an in-memory tail and rebuilt from
+// the end of the CSV on startup.
+public class ConversationIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationIndex.class);
+    private static final int MAGIC = 0x43495831;
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+    private static final int ENTRY_SIZE = 16;
+
+    private final Path csvFilePath;
+    private final Path indexFilePath;
+    private final Map<String, List<Long>> tail = new HashMap<>();
+    private MappedByteBuffer entries;
+    private int entryCount;
+    private long coveredLength;
+    private boolean loaded;
+
+    public ConversationIndex(Path csvFilePath) {
+        this.csvFilePath = csvFilePath;
+        this.indexFilePath = csvFilePath.resolveSibling(csvFilePath.getFileName() + ".convidx");
+    }
+
+    public synchronized void open() throws IOException {
+        ensureLoaded();
+    }
+
+    public synchronized List<Long> lookup(String conversationId) throws IOException {
+        ensureLoaded();
+        List<Long> offsets = new ArrayList<>();
+        if (entries != null && entryCount > 0) {
+            long hash = hash(conversationId);
+            int index = firstEntryWithHash(hash);
+            while (index < entryCount && entries.getLong(HEADER_SIZE + index * ENTRY_SIZE) == hash) {
+                offsets.add(entries.getLong(HEADER_SIZE + index * ENTRY_SIZE + 8));
+                index++;
+            }
+        }
+        offsets.addAll(tail.getOrDefault(conversationId, List.of()));
+        return offsets;
+    }
+
+    public synchronized void add(String conversationId, long offset) throws IOException {
+        ensureLoaded();
+        tail.computeIfAbsent(nullToEmpty(conversationId), c -> new ArrayList<>()).add(offset);
+    }
+
+    // Must be called before the CSV is replaced, so a crash in between forces a rebuild
+    public synchronized void invalidate() throws IOException {
+        entries = null;
+        entryCount = 0;
+        coveredLength = 0;
+        tail.clear();
+        loaded = false;
+        Files.deleteIfExists(indexFilePath);
+    }
+
+    public synchronized void write(List<String> conversationIds, List<Long> offsets, long csvLength) throws IOException {
+        int count = conversationIds.size();
+        long[][] pairs = new long[count][];
+        for (int i = 0; i < count; i++) {
+            pairs[i] = new long[] {hash(nullToEmpty(conversationIds.get(i))), offsets.get(i)};
+        }
+        Arrays.sort(pairs, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+
+        Path tempPath = indexFilePath.resolveSibling(indexFilePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC).putLong(csvLength).putInt(count);
+            for (long[] pair : pairs) {
+                if (buffer.remaining() < ENTRY_SIZE) {
+                    flush(channel, buffer);
+                }
+                buffer.putLong(pair[0]).putLong(pair[1]);
+            }
+            flush(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(tempPath, indexFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        tail.clear();
+        map();
+        loaded = true;
+        logger.info("Wrote conversation index {} with {} entries", indexFilePath, count);
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        long csvLength = Files.exists(csvFilePath) ? Files.size(csvFilePath) : 0;
+        if (!Files.exists(indexFilePath) || !map() || coveredLength > csvLength) {
+            rebuild();
+            return;
+        }
+
+        // Index the rows appended after the index file was written
+        if (coveredLength < csvLength) {
+            EmailCsvCodec.scan(csvFilePath, coveredLength, (offset, email) ->
+                tail.computeIfAbsent(nullToEmpty(email.getConversationId()), c -> new ArrayList<>()).add(offset));
+        }
+        loaded = true;
+    }
+
+    private void rebuild() throws IOException {
+        logger.info("Rebuilding conversation index {}", indexFilePath);
+        List<String> conversationIds = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        long csvLength = 0;
+        if (Files.exists(csvFilePath)) {
+            csvLength = EmailCsvCodec.scan(csvFilePath, 0, (offset, email) -> {
+                conversationIds.add(email.getConversationId());
+                offsets.add(offset);
+            });
+        }
+        write(conversationIds, offsets, csvLength);
+    }
+
+    private boolean map() throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFilePath, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC) {
+                return false;
+            }
+            int count = mapped.getInt(12);
+            if (channel.size() != HEADER_SIZE + (long) count * ENTRY_SIZE) {
+                return false;
+            }
+            entries = mapped;
+            coveredLength = mapped.getLong(4);
+            entryCount = count;
+            return true;
+        }
+    }
+
+    private int firstEntryWithHash(long hash) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.getLong(HEADER_SIZE + mid * ENTRY_SIZE) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // 64-bit FNV-1a; collisions are filtered out by the caller comparing the stored conversationId
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
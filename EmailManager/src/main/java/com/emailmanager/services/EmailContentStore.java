@@ -0,0 +1,307 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Stores one .eml file per message, sharded into two levels of directories by a hash of the
+// Graph ID (storage/ab/cd/<sha256>.eml[.gz]). Graph IDs are long base64 strings that may contain
+// '/', and a single flat directory gets slow at mailbox scale. Files written by earlier versions
+// directly under storage/<id>.eml are still read.
+public class EmailContentStore {
+    private static final Logger logger = LoggerFactory.getLogger(EmailContentStore.class);
+    private static final String EML_EXTENSION = ".eml";
+    private static final String GZIP_EXTENSION = ".eml.gz";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path storagePath;
+    private final boolean compress;
+    private final Set<Path> createdShards = ConcurrentHashMap.newKeySet();
+    private final List<ContentListener> listeners = new CopyOnWriteArrayList<>();
+
+    @FunctionalInterface
+    public interface ContentListener {
+        void onContentStored(String emailId);
+    }
+
+    public EmailContentStore(Path storagePath) {
+        this(storagePath, false);
+    }
+
+    public EmailContentStore(Path storagePath, boolean compress) {
+        this.storagePath = storagePath;
+        this.compress = compress;
+        try {
+            Files.createDirectories(storagePath);
+        } catch (IOException e) {
+            logger.warn("Failed to create storage directory: {}", e.getMessage());
+        }
+    }
+
+    public void addListener(ContentListener listener) {
+        listeners.add(listener);
+    }
+
+    public void saveEmailContent(EmailRecord email) {
+        try {
+            writeContent(email.getId(), createEmlContent(email).getBytes(StandardCharsets.UTF_8));
+            notifyStored(email.getId());
+            logger.debug("Saved email content for ID {}", email.getId());
+        } catch (IOException e) {
+            logger.error("Failed to save email content for ID {}: {}", email.getId(), e.getMessage());
+        }
+    }
+
+    // Writes the content of a whole batch; failures are logged per message and counted
+    public int saveEmailContents(List<EmailRecord> emails) {
+        int saved = 0;
+        for (EmailRecord email : emails) {
+            try {
+                writeContent(email.getId(), createEmlContent(email).getBytes(StandardCharsets.UTF_8));
+                notifyStored(email.getId());
+                saved++;
+            } catch (IOException e) {
+                logger.error("Failed to save email content for ID {}: {}", email.getId(), e.getMessage());
+            }
+        }
+        logger.debug("Saved email content for {} of {} emails", saved, emails.size());
+        return saved;
+    }
+
+    public String getEmailContent(String emailId) throws IOException {
+        byte[] content = readContent(emailId);
+        if (content == null) {
+            throw new IOException("Email content not found for ID: " + emailId);
+        }
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    public boolean hasContent(String emailId) {
+        String baseName = hash(emailId);
+        Path shard = shardPath(baseName);
+        return Files.exists(shard.resolve(baseName + GZIP_EXTENSION))
+            || Files.exists(shard.resolve(baseName + EML_EXTENSION))
+            || legacyContentExists(emailId);
+    }
+
+    // Size of the stored content file, or -1 if there is none. Replacing the header stub with the
+    // downloaded MIME changes it, so it identifies which content an index entry was built from.
+    public long getContentSize(String emailId) throws IOException {
+        String baseName = hash(emailId);
+        Path shard = shardPath(baseName);
+        Path preferred = shard.resolve(baseName + (compress ? GZIP_EXTENSION : EML_EXTENSION));
+        Path other = shard.resolve(baseName + (compress ? EML_EXTENSION : GZIP_EXTENSION));
+        for (Path path : new Path[] {preferred, other}) {
+            try {
+                return Files.size(path);
+            } catch (NoSuchFileException e) {
+                // Try the next location
+            }
+        }
+        try {
+            return Files.size(legacyPath(emailId));
+        } catch (NoSuchFileException | InvalidPathException e) {
+            return -1;
+        }
+    }
+
+    private boolean legacyContentExists(String emailId) {
+        try {
+            return Files.exists(legacyPath(emailId));
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    // Streams content into the store; the file only becomes visible once it is complete
+    public void writeContent(String emailId, InputStream content) throws IOException {
+        store(emailId, content);
+        notifyStored(emailId);
+    }
+
+    // Drops a copy in the other format, left from before compressContent changed, so it can never
+    // be read in place of the content just written
+    private void store(String emailId, InputStream content) throws IOException {
+        String baseName = hash(emailId);
+        Path shard = shardPath(baseName);
+        Path target = shard.resolve(baseName + (compress ? GZIP_EXTENSION : EML_EXTENSION));
+        ensureShard(shard);
+        Path tempPath = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = openOutput(tempPath)) {
+            content.transferTo(out);
+        }
+        Files.move(tempPath, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(shard.resolve(baseName + (compress ? EML_EXTENSION : GZIP_EXTENSION)));
+    }
+
+    private void notifyStored(String emailId) {
+        for (ContentListener listener : listeners) {
+            listener.onContentStored(emailId);
+        }
+    }
+
+    // Opens the stored content for streaming reads, decompressing it if needed; like readContent
+    // it tries the configured format first
+    public InputStream openContent(String emailId) throws IOException {
+        String baseName = hash(emailId);
+        Path shard = shardPath(baseName);
+        InputStream in = compress
+            ? openCompressed(shard.resolve(baseName + GZIP_EXTENSION))
+            : openPlain(shard.resolve(baseName + EML_EXTENSION));
+        if (in == null) {
+            in = compress
+                ? openPlain(shard.resolve(baseName + EML_EXTENSION))
+                : openCompressed(shard.resolve(baseName + GZIP_EXTENSION));
+        }
+        if (in != null) {
+            return in;
+        }
+        try {
+            return Files.newInputStream(legacyPath(emailId));
+        } catch (NoSuchFileException | InvalidPathException e) {
+            throw new IOException("Email content not found for ID: " + emailId);
+        }
+    }
+
+    private void writeContent(String emailId, byte[] content) throws IOException {
+        store(emailId, new ByteArrayInputStream(content));
+    }
+
+    private OutputStream openOutput(Path path) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        return compress ? new GZIPOutputStream(out, 8192) : out;
+    }
+
+    // Tries the possible locations directly (preferred format first) instead of checking existence
+    private byte[] readContent(String emailId) throws IOException {
+        String baseName = hash(emailId);
+        Path shard = shardPath(baseName);
+        byte[] content = compress
+            ? readCompressed(shard.resolve(baseName + GZIP_EXTENSION))
+            : readPlain(shard.resolve(baseName + EML_EXTENSION));
+        if (content == null) {
+            content = compress
+                ? readPlain(shard.resolve(baseName + EML_EXTENSION))
+                : readCompressed(shard.resolve(baseName + GZIP_EXTENSION));
+        }
+        if (content == null) {
+            try {
+                content = readPlain(legacyPath(emailId));
+            } catch (InvalidPathException e) {
+                // IDs that are not valid file names were never stored in the flat layout
+            }
+        }
+        return content;
+    }
+
+    private static InputStream openPlain(Path path) throws IOException {
+        try {
+            return Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static InputStream openCompressed(Path path) throws IOException {
+        try {
+            return new GZIPInputStream(Files.newInputStream(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readPlain(Path path) throws IOException {
+        try {
+            return Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readCompressed(Path path) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            return readAll(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        in.transferTo(out);
+        return out.toByteArray();
+    }
+
+    private void ensureShard(Path shard) throws IOException {
+        if (!createdShards.contains(shard)) {
+            Files.createDirectories(shard);
+            createdShards.add(shard);
+        }
+    }
+
+    private Path shardPath(String baseName) {
+        return storagePath.resolve(baseName.substring(0, 2)).resolve(baseName.substring(2, 4));
+    }
+
+    private Path legacyPath(String emailId) {
+        return storagePath.resolve(emailId + EML_EXTENSION);
+    }
+
+    private static String hash(String emailId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(emailId.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    private static String createEmlContent(EmailRecord email) {
+        // Create a simple .eml file with basic email information
+        return String.format(
+            "From: %s\r\n" +
+            "Subject: %s\r\n" +
+            "Date: %s\r\n" +
+            "Message-ID: %s\r\n" +
+            "Conversation-ID: %s\r\n" +
+            "References: %s\r\n" +
+            "Type: %s\r\n",
+            email.getFrom(),
+            email.getSubject(),
+            email.getReceivedDateTime(),
+            email.getInternetMessageId(),
+            email.getConversationId(),
+            email.getReferences() != null ? email.getReferences() : "",
+            email.getMessageType()
+        );
+    }
+
+    public Path getStoragePath() {
+        return storagePath;
+    }
+}
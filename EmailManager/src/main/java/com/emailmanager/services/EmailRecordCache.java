@@ -0,0 +1,101 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Read-through cache of parsed CSV partitions, shared by the storage services of all mailboxes.
+// An entry is only served while the partition's write generation and the file's size and
+// modification time are unchanged; least recently used partitions are evicted past the cap.
+public class EmailRecordCache {
+    private static final Logger logger = LoggerFactory.getLogger(EmailRecordCache.class);
+
+    private final long maxBytes;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public static class Entry {
+        private final CompactEmailRecords emails;
+        private final long generation;
+        private final long fileSize;
+        private final long lastModified;
+        private final long estimatedBytes;
+
+        Entry(List<EmailRecord> emails, long generation, long fileSize, long lastModified) {
+            this.emails = CompactEmailRecords.of(emails);
+            this.generation = generation;
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.estimatedBytes = this.emails.estimatedBytes();
+        }
+
+        public List<EmailRecord> getEmails() {
+            return emails;
+        }
+
+        // Each call materializes a new EmailRecord; the cache only holds the compact form
+        public EmailRecord findById(String id) {
+            return emails.findById(id);
+        }
+    }
+
+    public EmailRecordCache(long maxMegabytes) {
+        this.maxBytes = maxMegabytes * 1024 * 1024;
+    }
+
+    public synchronized Entry get(Path csvFilePath, long generation) throws IOException {
+        Entry entry = entries.get(csvFilePath);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.generation != generation
+                || !Files.exists(csvFilePath)
+                || Files.size(csvFilePath) != entry.fileSize
+                || Files.getLastModifiedTime(csvFilePath).toMillis() != entry.lastModified) {
+            remove(csvFilePath);
+            return null;
+        }
+        return entry;
+    }
+
+    public synchronized Entry put(Path csvFilePath, long generation, List<EmailRecord> emails,
+                                  long fileSize, long lastModified) {
+        remove(csvFilePath);
+        Entry entry = new Entry(emails, generation, fileSize, lastModified);
+        if (entry.estimatedBytes > maxBytes) {
+            // Larger than the whole cache: serve it this once without keeping it
+            logger.debug("Not caching {} ({} bytes exceeds cache limit)", csvFilePath, entry.estimatedBytes);
+            return entry;
+        }
+
+        entries.put(csvFilePath, entry);
+        totalBytes += entry.estimatedBytes;
+        evict();
+        return entry;
+    }
+
+    public synchronized void remove(Path csvFilePath) {
+        Entry removed = entries.remove(csvFilePath);
+        if (removed != null) {
+            totalBytes -= removed.estimatedBytes;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Path, Entry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Path, Entry> coldest = iterator.next();
+            totalBytes -= coldest.getValue().estimatedBytes;
+            iterator.remove();
+            logger.debug("Evicted cold partition {} from record cache", coldest.getKey());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public interface EmailStore extends AutoCloseable {
+    @FunctionalInterface
+    interface SaveListener {
+        void onEmailsSaved(List<EmailRecord> newEmails);
+    }
+
+    // Stores the emails not already present (by ID) together with their .eml content, returning them
+    List<EmailRecord> saveEmails(List<EmailRecord> emails) throws IOException;
+
+    // Stores the records not already present (by ID) without writing .eml content, returning them
+    List<EmailRecord> appendRecords(List<EmailRecord> emails) throws IOException;
+
+    List<EmailRecord> loadEmails() throws IOException;
+
+    default int count() throws IOException {
+        return loadEmails().size();
+    }
+
+    // A window of emails in storage order (0-based offset), for listings that must not load everything
+    default List<EmailRecord> listEmails(int offset, int limit) throws IOException {
+        List<EmailRecord> emails = loadEmails();
+        int from = Math.min(offset, emails.size());
+        return new ArrayList<>(emails.subList(from, (int) Math.min(emails.size(), (long) from + limit)));
+    }
+
+    EmailRecord findEmailById(String emailId) throws IOException;
+
+    List<EmailRecord> getConversationThread(String conversationId) throws IOException;
+
+    OffsetDateTime getLatestReceivedDateTime() throws IOException;
+
+    String getEmailContent(String emailId) throws IOException;
+
+    EmailContentStore getContentStore();
+
+    // Called after each save with the emails that were not already stored
+    void addSaveListener(SaveListener listener);
+
+    // Main data file; per-store state such as the sync watermark is kept next to it
+    Path getDataFilePath();
+
+    default List<EmailRecord> findEmailsFrom(String sender) throws IOException {
+        return loadEmails().stream()
+            .filter(email -> sender.equalsIgnoreCase(email.getFrom()))
+            .collect(Collectors.toList());
+    }
+
+    // Emails received in [from, to), oldest first; a null bound leaves that side open
+    default List<EmailRecord> findEmailsBetween(OffsetDateTime from, OffsetDateTime to) throws IOException {
+        return loadEmails().stream()
+            .filter(email -> isBetween(email.getReceivedDateTime(), from, to))
+            .sorted(EmailStorageService.BY_RECEIVED_DATE)
+            .collect(Collectors.toList());
+    }
+
+    static boolean isBetween(OffsetDateTime received, OffsetDateTime from, OffsetDateTime to) {
+        return received != null
+            && (from == null || !received.isBefore(from))
+            && (to == null || received.isBefore(to));
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,68 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public final class EmailStoreFactory {
+    private static final Logger logger = LoggerFactory.getLogger(EmailStoreFactory.class);
+    private static final String CSV_FILE_NAME = "emails.csv";
+    private static final String BINARY_DIRECTORY_NAME = "emails.bin";
+    private static final String PERIODS_DIRECTORY_NAME = "periods";
+    private static final String SPLIT_COMPLETE_MARKER = "split-complete";
+    private static final String CONVERSION_COMPLETE_MARKER = "conversion-complete";
+
+    private EmailStoreFactory() {
+    }
+
+    // Opens the store selected by storageFormat ("csv" or "binary") and, for CSV, partitionPeriod
+    // in the given directory
+    public static EmailStore create(Path baseDirectory, EmailConfig config, EmailRecordCache recordCache) throws IOException {
+        if (!"binary".equalsIgnoreCase(config.getStorageFormat())) {
+            String partitionPeriod = config.getPartitionPeriod();
+            if (partitionPeriod == null || "none".equalsIgnoreCase(partitionPeriod)) {
+                return new EmailStorageService(baseDirectory, CSV_FILE_NAME, config, recordCache);
+            }
+            return createPartitioned(baseDirectory, TimePartitionedEmailStore.Period.fromConfig(partitionPeriod),
+                config, recordCache);
+        }
+
+        BinaryEmailStore store = new BinaryEmailStore(baseDirectory.resolve(BINARY_DIRECTORY_NAME),
+            new EmailContentStore(baseDirectory.resolve("storage"), config.isCompressContent()));
+
+        // Switching an existing archive to the binary format converts its CSV once. As with the split
+        // below, the marker is only written once the conversion has finished, so an interrupted one
+        // is rerun; records already converted are skipped as duplicates.
+        Path csvFilePath = baseDirectory.resolve(CSV_FILE_NAME);
+        Path conversionMarker = baseDirectory.resolve(BINARY_DIRECTORY_NAME).resolve(CONVERSION_COMPLETE_MARKER);
+        if (Files.exists(csvFilePath) && !Files.exists(conversionMarker)) {
+            logger.info("Converting existing CSV {} to the binary store", csvFilePath);
+            BinaryEmailStore.convertFromCsv(csvFilePath, store);
+            Files.createFile(conversionMarker);
+        }
+        return store;
+    }
+
+    private static EmailStore createPartitioned(Path baseDirectory, TimePartitionedEmailStore.Period period,
+                                                EmailConfig config, EmailRecordCache recordCache) throws IOException {
+        TimePartitionedEmailStore store = new TimePartitionedEmailStore(baseDirectory.resolve(PERIODS_DIRECTORY_NAME),
+            period, new EmailContentStore(baseDirectory.resolve("storage"), config.isCompressContent()), config, recordCache,
+            new StorageMetrics(String.valueOf(baseDirectory.getFileName())));
+
+        // Switching an existing archive to partitioned storage splits its CSV once. The marker is only
+        // written when the split has finished, so an interrupted split is rerun from the start; rows
+        // already copied are skipped as duplicates.
+        Path csvFilePath = baseDirectory.resolve(CSV_FILE_NAME);
+        Path splitMarker = baseDirectory.resolve(PERIODS_DIRECTORY_NAME).resolve(SPLIT_COMPLETE_MARKER);
+        if (Files.exists(csvFilePath) && !Files.exists(splitMarker)) {
+            logger.info("Splitting existing CSV {} into partitions", csvFilePath);
+            TimePartitionedEmailStore.convertFromCsv(csvFilePath, store);
+            Files.createFile(splitMarker);
+        }
+        return store;
+    }
+}
@@ -0,0 +1,485 @@
+package com.emailmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Local stand-in for the parts of Microsoft Graph this app calls: message paging with
+// @odata.nextLink, delta queries, $value, reply and $batch, with artificial latency and periodic
+// 429 responses. Every mailbox holds the same synthetic messages, generated from their index on
+// each request, so millions of messages cost no memory. Point EmailConfig.graphEndpoint at
+// getEndpoint() to sync against it.
+public class FakeGraphServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(FakeGraphServer.class);
+    private static final String SERVICE_ROOT = "/v1.0";
+    private static final OffsetDateTime FIRST_RECEIVED = OffsetDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final long MESSAGE_INTERVAL_SECONDS = 60;
+    private static final int MESSAGES_PER_CONVERSATION = 5;
+    private static final int DEFAULT_PAGE_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 20;
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final int HANDLER_THREADS = 64;
+    private static final Pattern RECEIVED_FILTER = Pattern.compile("receivedDateTime\\s+(ge|gt)\\s+(\\S+)");
+
+    static {
+        // Without TCP_NODELAY, small responses stall on delayed ACKs and cap each connection near 25 requests/s.
+        // Read once when the JDK's HTTP server is first used, so it must be set before any server is created.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final int throttleEvery;
+    private volatile int messagesPerMailbox;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong replyCount = new AtomicLong();
+
+    // throttleEvery > 0 answers every Nth request, or $batch step, with 429 and Retry-After
+    public FakeGraphServer(int port, int messagesPerMailbox, long latencyMillis, int throttleEvery) throws IOException {
+        this.messagesPerMailbox = messagesPerMailbox;
+        this.latencyMillis = latencyMillis;
+        this.throttleEvery = throttleEvery;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(HANDLER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "fake-graph-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(SERVICE_ROOT, this::handle);
+    }
+
+    // Usage: FakeGraphServer [port] [messagesPerMailbox] [latencyMillis] [throttleEvery]
+    public static void main(String[] args) throws IOException {
+        FakeGraphServer server = new FakeGraphServer(
+            args.length > 0 ? Integer.parseInt(args[0]) : 8089,
+            args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+            args.length > 2 ? Long.parseLong(args[2]) : 0,
+            args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        server.start();
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Fake Graph endpoint {} serving {} messages per mailbox", getEndpoint(), messagesPerMailbox);
+    }
+
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + SERVICE_ROOT;
+    }
+
+    // Grows (or shrinks) every mailbox, e.g. to simulate new mail arriving during a soak test
+    public void setMessagesPerMailbox(int messagesPerMailbox) {
+        this.messagesPerMailbox = messagesPerMailbox;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    public long getReplyCount() {
+        return replyCount.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String path = exchange.getRequestURI().getRawPath().substring(SERVICE_ROOT.length());
+            byte[] body = readBody(exchange.getRequestBody());
+            Response response;
+            if ("POST".equals(exchange.getRequestMethod()) && "/$batch".equals(path)) {
+                response = isThrottled() ? throttled() : batch(body);
+            } else {
+                response = isThrottled() ? throttled()
+                    : dispatch(exchange.getRequestMethod(), path, exchange.getRequestURI().getRawQuery());
+            }
+            send(exchange, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Fake Graph request {} failed: {}", exchange.getRequestURI(), e.getMessage());
+            send(exchange, error(500, "InternalServerError", e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean isThrottled() {
+        long count = requestCount.incrementAndGet();
+        if (throttleEvery > 0 && count % throttleEvery == 0) {
+            throttledCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private Response dispatch(String method, String rawPath, String rawQuery) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : rawPath.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(decode(segment));
+            }
+        }
+        Map<String, String> query = parseQuery(rawQuery);
+        if (segments.size() < 3 || !"users".equals(segments.get(0))) {
+            return error(404, "ResourceNotFound", "Unsupported path " + rawPath);
+        }
+        String user = segments.get(1);
+        List<String> rest = segments.subList(2, segments.size());
+
+        if ("GET".equals(method) && rest.size() == 1 && "messages".equals(rest.get(0))) {
+            return listMessages(user, query);
+        }
+        if ("GET".equals(method) && isDeltaPath(rest)) {
+            return delta(user, rawPath, query);
+        }
+        if (rest.size() < 2 || !"messages".equals(rest.get(0))) {
+            return error(404, "ResourceNotFound", "Unsupported path " + rawPath);
+        }
+        int index = messageIndex(user, rest.get(1));
+        if (index < 0) {
+            return error(404, "ErrorItemNotFound", "The specified object was not found in the store.");
+        }
+        if ("GET".equals(method) && rest.size() == 2) {
+            return Response.json(200, message(user, index));
+        }
+        if ("GET".equals(method) && rest.size() == 3 && "$value".equals(rest.get(2))) {
+            return Response.text(200, mimeContent(user, index));
+        }
+        if ("POST".equals(method) && rest.size() == 3 && isOperation(rest.get(2), "reply")) {
+            replyCount.incrementAndGet();
+            return Response.json(202, null);
+        }
+        return error(405, "MethodNotAllowed", method + " is not supported on " + rawPath);
+    }
+
+    private static boolean isDeltaPath(List<String> rest) {
+        // users/{id}/messages/delta or users/{id}/mailFolders/{folder}/messages/delta
+        return (rest.size() == 2 && "messages".equals(rest.get(0)) && isOperation(rest.get(1), "delta"))
+            || (rest.size() == 4 && "mailFolders".equals(rest.get(0))
+                && "messages".equals(rest.get(2)) && isOperation(rest.get(3), "delta"));
+    }
+
+    // The SDK addresses actions and functions by their namespaced name
+    private static boolean isOperation(String segment, String name) {
+        return name.equals(segment) || ("microsoft.graph." + name).equals(segment);
+    }
+
+    private Response listMessages(String user, Map<String, String> query) {
+        int count = messagesPerMailbox;
+        int pageSize = pageSize(query);
+        int start = query.containsKey("$skiptoken")
+            ? Integer.parseInt(query.get("$skiptoken"))
+            : firstIndexMatching(query.get("$filter"));
+        int end = Math.min(count, start + pageSize);
+
+        ObjectNode page = messagePage(user, start, end);
+        if (end < count) {
+            page.put("@odata.nextLink", getEndpoint() + "/users/" + encode(user)
+                + "/messages?$top=" + pageSize + "&$skiptoken=" + end);
+        }
+        return Response.json(200, page);
+    }
+
+    // The delta token is the mailbox size when the previous round finished; messages are never
+    // changed or removed, so everything after it is new
+    private Response delta(String user, String rawPath, Map<String, String> query) {
+        int count = messagesPerMailbox;
+        int pageSize = pageSize(query);
+        int start = query.containsKey("$skiptoken") ? Integer.parseInt(query.get("$skiptoken"))
+            : query.containsKey("$deltatoken") ? Integer.parseInt(query.get("$deltatoken")) : 0;
+        int end = Math.min(count, start + pageSize);
+
+        ObjectNode page = messagePage(user, start, end);
+        String link = getEndpoint() + rawPath + "?$top=" + pageSize;
+        if (end < count) {
+            page.put("@odata.nextLink", link + "&$skiptoken=" + end);
+        } else {
+            page.put("@odata.deltaLink", link + "&$deltatoken=" + end);
+        }
+        return Response.json(200, page);
+    }
+
+    private ObjectNode messagePage(String user, int start, int end) {
+        ObjectNode page = objectMapper.createObjectNode();
+        ArrayNode value = page.putArray("value");
+        for (int index = Math.max(start, 0); index < end; index++) {
+            value.add(message(user, index));
+        }
+        return page;
+    }
+
+    private static int pageSize(Map<String, String> query) {
+        int top = query.containsKey("$top") ? Integer.parseInt(query.get("$top")) : DEFAULT_PAGE_SIZE;
+        return Math.max(1, Math.min(top, MAX_PAGE_SIZE));
+    }
+
+    // Messages are received in index order, so a receivedDateTime bound maps straight to an index
+    private static int firstIndexMatching(String filter) {
+        if (filter == null) {
+            return 0;
+        }
+        Matcher matcher = RECEIVED_FILTER.matcher(filter);
+        if (!matcher.find()) {
+            return 0;
+        }
+        long seconds = Duration.between(FIRST_RECEIVED, OffsetDateTime.parse(matcher.group(2))).getSeconds();
+        long index = "ge".equals(matcher.group(1))
+            ? Math.floorDiv(seconds + MESSAGE_INTERVAL_SECONDS - 1, MESSAGE_INTERVAL_SECONDS)
+            : Math.floorDiv(seconds, MESSAGE_INTERVAL_SECONDS) + 1;
+        return (int) Math.max(0, Math.min(index, Integer.MAX_VALUE));
+    }
+
+    private Response batch(byte[] body) throws IOException {
+        JsonNode requests = objectMapper.readTree(body).path("requests");
+        if (requests.size() > MAX_BATCH_SIZE) {
+            return error(400, "BadRequest", "A maximum of " + MAX_BATCH_SIZE + " requests is allowed in a batch");
+        }
+        ObjectNode result = objectMapper.createObjectNode();
+        ArrayNode responses = result.putArray("responses");
+        for (JsonNode request : requests) {
+            // Steps for a non-Graph host keep their absolute URL, so reduce every URL to the path
+            String url = request.path("url").asText();
+            URI uri = URI.create(url.startsWith("http") ? url : SERVICE_ROOT + (url.startsWith("/") ? "" : "/") + url);
+            String path = uri.getRawPath().startsWith(SERVICE_ROOT)
+                ? uri.getRawPath().substring(SERVICE_ROOT.length()) : uri.getRawPath();
+
+            Response response = isThrottled() ? throttled()
+                : dispatch(request.path("method").asText("GET"), path, uri.getRawQuery());
+            ObjectNode step = responses.addObject();
+            step.put("id", request.path("id").asText());
+            step.put("status", response.status);
+            ObjectNode headers = step.putObject("headers");
+            headers.put("Content-Type", response.contentType);
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                headers.put(header.getKey(), header.getValue());
+            }
+            if (response.json != null) {
+                step.set("body", response.json);
+            } else if (response.text != null) {
+                step.put("body", response.text);
+            }
+        }
+        return Response.json(200, result);
+    }
+
+    private Response throttled() {
+        Response response = error(429, "TooManyRequests", "Application is over its MailboxConcurrency limit.");
+        response.headers.put("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        return response;
+    }
+
+    private Response error(int status, String code, String message) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ObjectNode error = body.putObject("error");
+        error.put("code", code);
+        error.put("message", message);
+        return Response.json(status, body);
+    }
+
+    private ObjectNode message(String user, int index) {
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("id", messageId(user, index));
+        message.put("subject", subject(index));
+        message.put("receivedDateTime", DateTimeFormatter.ISO_INSTANT.format(receivedDateTime(index)));
+        ObjectNode emailAddress = message.putObject("from").putObject("emailAddress");
+        emailAddress.put("name", "Sender " + index % 500);
+        emailAddress.put("address", sender(index));
+        message.put("internetMessageId", internetMessageId(user, index));
+        message.put("conversationId", "conv-" + Integer.toHexString(user.hashCode()) + "-"
+            + index / MESSAGES_PER_CONVERSATION);
+        ArrayNode headers = message.putArray("internetMessageHeaders");
+        ObjectNode messageIdHeader = headers.addObject();
+        messageIdHeader.put("name", "Message-ID");
+        messageIdHeader.put("value", internetMessageId(user, index));
+        String references = references(user, index);
+        if (!references.isEmpty()) {
+            ObjectNode referencesHeader = headers.addObject();
+            referencesHeader.put("name", "References");
+            referencesHeader.put("value", references);
+        }
+        return message;
+    }
+
+    private String mimeContent(String user, int index) {
+        StringBuilder content = new StringBuilder()
+            .append("From: ").append(sender(index)).append("\r\n")
+            .append("To: ").append(user).append("\r\n")
+            .append("Subject: ").append(subject(index)).append("\r\n")
+            .append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(receivedDateTime(index))).append("\r\n")
+            .append("Message-ID: ").append(internetMessageId(user, index)).append("\r\n");
+        String references = references(user, index);
+        if (!references.isEmpty()) {
+            content.append("References: ").append(references).append("\r\n");
+        }
+        return content.append("Content-Type: text/plain; charset=utf-8\r\n\r\n")
+            .append("Synthetic message ").append(index).append(" for load testing.\r\n")
+            .toString();
+    }
+
+    private static String subject(int index) {
+        return (index % MESSAGES_PER_CONVERSATION == 0 ? "" : "RE: ")
+            + "Synthetic thread " + index / MESSAGES_PER_CONVERSATION;
+    }
+
+    private static String sender(int index) {
+        return "sender" + index % 500 + "@example.com";
+    }
+
+    private static OffsetDateTime receivedDateTime(int index) {
+        return FIRST_RECEIVED.plusSeconds(index * MESSAGE_INTERVAL_SECONDS);
+    }
+
+    private static String messageId(String user, int index) {
+        return "fake-" + Integer.toHexString(user.hashCode()) + "-" + index;
+    }
+
+    // -1 if the ID does not belong to the mailbox or is past its end
+    private int messageIndex(String user, String id) {
+        String prefix = "fake-" + Integer.toHexString(user.hashCode()) + "-";
+        if (!id.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(id.substring(prefix.length()));
+            return index >= 0 && index < messagesPerMailbox ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String internetMessageId(String user, int index) {
+        return "<" + index + "." + Integer.toHexString(user.hashCode()) + "@fake.example.com>";
+    }
+
+    private static String references(String user, int index) {
+        StringBuilder references = new StringBuilder();
+        for (int i = index - index % MESSAGES_PER_CONVERSATION; i < index; i++) {
+            if (references.length() > 0) {
+                references.append(' ');
+            }
+            references.append(internetMessageId(user, i));
+        }
+        return references.toString();
+    }
+
+    private void send(HttpExchange exchange, Response response) throws IOException {
+        byte[] bytes = response.json != null ? objectMapper.writeValueAsBytes(response.json)
+            : response.text != null ? response.text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        exchange.getResponseHeaders().set("Content-Type", response.contentType);
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+        }
+        exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        }
+    }
+
+    private static byte[] readBody(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                query.put(decode(pair.substring(0, separator)), decode(pair.substring(separator + 1)));
+            }
+        }
+        return query;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Fake Graph endpoint stopped after {} requests ({} throttled, {} replies)",
+            requestCount.get(), throttledCount.get(), replyCount.get());
+    }
+
+    private static class Response {
+        private final int status;
+        private final String contentType;
+        private final JsonNode json;
+        private final String text;
+        private final Map<String, String> headers = new HashMap<>();
+
+        private Response(int status, String contentType, JsonNode json, String text) {
+            this.status = status;
+            this.contentType = contentType;
+            this.json = json;
+            this.text = text;
+        }
+
+        private static Response json(int status, JsonNode body) {
+            return new Response(status, "application/json", body, null);
+        }
+
+        private static Response text(int status, String body) {
+            return new Response(status, "text/plain", null, body);
+        }
+    }
+}
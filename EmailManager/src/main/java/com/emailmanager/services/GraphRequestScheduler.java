@@ -0,0 +1,189 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.utils.TokenBucket;
+import com.microsoft.graph.http.GraphServiceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GraphRequestScheduler implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(GraphRequestScheduler.class);
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+
+    private final double tenantRequestsPerSecond;
+    private final double mailboxRequestsPerSecond;
+    private final int maxRetries;
+    private final Map<String, TokenBucket> tenantBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> mailboxBuckets = new ConcurrentHashMap<>();
+    private final ExecutorService asyncExecutor;
+
+    public GraphRequestScheduler(EmailConfig config) {
+        this(config.getTenantRequestsPerSecond(), config.getMailboxRequestsPerSecond(), config.getMaxRetries());
+    }
+
+    public GraphRequestScheduler(double tenantRequestsPerSecond, double mailboxRequestsPerSecond, int maxRetries) {
+        this.tenantRequestsPerSecond = tenantRequestsPerSecond;
+        this.mailboxRequestsPerSecond = mailboxRequestsPerSecond;
+        this.maxRetries = maxRetries;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.asyncExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "graph-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // For idempotent requests (GETs) only: a 503 or 504 may arrive after the request was executed,
+    // and it is sent again
+    public <T> T execute(String tenantId, String mailbox, Callable<T> request) throws Exception {
+        TokenBucket tenantBucket = tenantBucket(tenantId);
+        TokenBucket mailboxBucket = mailboxBucket(mailbox);
+
+        for (int attempt = 0; ; attempt++) {
+            tenantBucket.acquire();
+            mailboxBucket.acquire();
+            try {
+                T result = request.call();
+                tenantBucket.recover();
+                mailboxBucket.recover();
+                return result;
+            } catch (GraphServiceException e) {
+                if (!isRetryable(e.getResponseCode()) || attempt >= maxRetries) {
+                    throw e;
+                }
+
+                long delayMillis = getRetryDelayMillis(e, attempt);
+                logger.warn("Graph returned {} for mailbox {}, retrying in {} ms (attempt {} of {})",
+                    e.getResponseCode(), mailbox, delayMillis, attempt + 1, maxRetries);
+
+                // Throttling applies to the whole mailbox (and for 429 usually the tenant), so every
+                // request sharing the bucket backs off rather than just this one
+                mailboxBucket.throttle(delayMillis);
+                if (e.getResponseCode() == 429) {
+                    tenantBucket.throttle(delayMillis);
+                }
+                retryWaitTimer(mailbox).record(delayMillis, TimeUnit.MILLISECONDS);
+                Thread.sleep(delayMillis);
+            }
+        }
+    }
+
+    // Rate limited like execute, but sent exactly once, for requests such as replies that must not
+    // be repeated. A 429 still makes the mailbox (and tenant) back off before their next request.
+    public <T> T executeOnce(String tenantId, String mailbox, Callable<T> request) throws Exception {
+        TokenBucket tenantBucket = tenantBucket(tenantId);
+        TokenBucket mailboxBucket = mailboxBucket(mailbox);
+        tenantBucket.acquire();
+        mailboxBucket.acquire();
+        try {
+            T result = request.call();
+            tenantBucket.recover();
+            mailboxBucket.recover();
+            return result;
+        } catch (GraphServiceException e) {
+            if (isRetryable(e.getResponseCode())) {
+                long delayMillis = getRetryDelayMillis(e, 0);
+                mailboxBucket.throttle(delayMillis);
+                if (e.getResponseCode() == 429) {
+                    tenantBucket.throttle(delayMillis);
+                }
+            }
+            throw e;
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(String tenantId, String mailbox, Callable<T> request) {
+        return supplyAsync(() -> execute(tenantId, mailbox, request));
+    }
+
+    public <T> CompletableFuture<T> submitOnce(String tenantId, String mailbox, Callable<T> request) {
+        return supplyAsync(() -> executeOnce(tenantId, mailbox, request));
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Callable<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, asyncExecutor);
+    }
+
+    private TokenBucket tenantBucket(String tenantId) {
+        return tenantBuckets.computeIfAbsent(tenantId, t -> new TokenBucket(tenantRequestsPerSecond));
+    }
+
+    private TokenBucket mailboxBucket(String mailbox) {
+        return mailboxBuckets.computeIfAbsent(mailbox, m -> new TokenBucket(mailboxRequestsPerSecond));
+    }
+
+    // 429 responses, by mailbox and whether an HTTP request or a single $batch step was throttled
+    static Counter throttledCounter(String mailbox, String kind) {
+        return Counter.builder("graph.throttled")
+            .tag("mailbox", mailbox)
+            .tag("kind", kind)
+            .register(Metrics.globalRegistry);
+    }
+
+    // Time spent backing off before retrying throttled or failed requests
+    static Timer retryWaitTimer(String mailbox) {
+        return Timer.builder("graph.retry.wait")
+            .tag("mailbox", mailbox)
+            .register(Metrics.globalRegistry);
+    }
+
+    private static boolean isRetryable(int responseCode) {
+        return responseCode == 429 || responseCode == 503 || responseCode == 504;
+    }
+
+    private static long getRetryDelayMillis(GraphServiceException e, int attempt) {
+        long retryAfterMillis = getRetryAfterMillis(e.getResponseHeaders());
+        long backoffMillis = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        long delayMillis = Math.max(retryAfterMillis, backoffMillis);
+
+        // Jitter spreads out retries from mailboxes that were throttled at the same moment
+        return delayMillis + ThreadLocalRandom.current().nextLong(delayMillis / 4 + 1);
+    }
+
+    // Retry-After of a failed request in milliseconds, or 0 if it has none
+    static long getRetryAfterMillis(List<String> headers) {
+        if (headers == null) {
+            return 0;
+        }
+        for (String header : headers) {
+            int separator = header.indexOf(':');
+            if (separator > 0 && "Retry-After".equalsIgnoreCase(header.substring(0, separator).trim())) {
+                String value = header.substring(separator + 1).replaceAll("[\\[\\]\\s]", "");
+                try {
+                    return Long.parseLong(value) * 1000;
+                } catch (NumberFormatException ignored) {
+                    // HTTP-date values are not used by Graph; fall back to exponential backoff
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        asyncExecutor.shutdownNow();
+    }
+}
@@ -2,9 +2,22 @@ package com.emailmanager.services;
 
 import com.azure.identity.ClientSecretCredential;
 import com.azure.identity.ClientSecretCredentialBuilder;
+import com.azure.identity.TokenCachePersistenceOptions;
 import com.emailmanager.models.EmailConfig;
 import com.emailmanager.models.EmailRecord;
+import com.emailmanager.models.ReplyRequest;
+import com.emailmanager.models.ReplyResult;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.microsoft.graph.authentication.TokenCredentialAuthProvider;
+import com.microsoft.graph.content.BatchRequestContent;
+import com.microsoft.graph.content.BatchResponseContent;
+import com.microsoft.graph.content.BatchResponseStep;
+import com.microsoft.graph.http.GraphServiceException;
+import com.microsoft.graph.http.HttpMethod;
+import com.microsoft.graph.httpcore.AuthenticationHandler;
+import com.microsoft.graph.httpcore.HttpClients;
+import com.microsoft.graph.httpcore.RedirectHandler;
 import com.microsoft.graph.models.BodyType;
 import com.microsoft.graph.models.ItemBody;
 import com.microsoft.graph.models.Message;
@@ -12,65 +25,452 @@ import com.microsoft.graph.models.MessageReplyParameterSet;
 import com.microsoft.graph.requests.GraphServiceClient;
 import com.microsoft.graph.requests.MessageCollectionPage;
 import com.microsoft.graph.requests.MessageCollectionRequest;
+import com.microsoft.graph.requests.MessageCollectionRequestBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class GraphService {
     private static final Logger logger = LoggerFactory.getLogger(GraphService.class);
-    private final GraphServiceClient graphClient;
+    private final Supplier<GraphServiceClient> graphClient;
+    private final GraphRequestScheduler scheduler;
+    private final String tenantId;
     private final String userEmail;
+    private final Timer pageLatency;
+    private final Counter messagesReceived;
+    private final Counter throttledBatchSteps;
+    private final Timer retryWait;
     private static final List<String> SCOPES = List.of("https://graph.microsoft.com/.default");
+    // Messages requested per Graph page (the service default is only 10)
+    private static final int PAGE_SIZE = 100;
+    // Graph accepts at most 20 requests per $batch, and Outlook runs at most 4 requests per mailbox at once
+    private static final int MAX_BATCH_SIZE = 20;
+    private static final int MAX_BATCHES_IN_FLIGHT = 4;
+    private static final int MAX_THROTTLED_RETRIES = 5;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    @FunctionalInterface
+    public interface EmailBatchConsumer {
+        void accept(List<EmailRecord> batch) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ContentConsumer {
+        void accept(InputStream content) throws IOException;
+    }
 
     public GraphService(EmailConfig config) {
-        this.userEmail = config.getUserEmail();
-        ClientSecretCredential credential = new ClientSecretCredentialBuilder()
+        this(lazyClient(config, config.getTenantId()), config.getTenantId(), config.getUserEmail(),
+            new GraphRequestScheduler(config));
+    }
+
+    // Mailboxes in the same tenant share one client, and with it the token cache and connection pool
+    public GraphService(Supplier<GraphServiceClient> graphClient, String tenantId, String userEmail, GraphRequestScheduler scheduler) {
+        this.graphClient = graphClient;
+        this.tenantId = tenantId;
+        this.userEmail = userEmail;
+        this.scheduler = scheduler;
+        this.pageLatency = Timer.builder("graph.page.latency")
+            .description("Time to fetch one page of messages, per attempt")
+            .tag("mailbox", userEmail)
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+        this.messagesReceived = Counter.builder("graph.messages.received")
+            .tag("mailbox", userEmail)
+            .register(Metrics.globalRegistry);
+        this.throttledBatchSteps = GraphRequestScheduler.throttledCounter(userEmail, "batch-step");
+        this.retryWait = GraphRequestScheduler.retryWaitTimer(userEmail);
+    }
+
+    // Building a client loads the Azure identity and HTTP stacks, which took about a second of
+    // startup, so it is only done when the first request is made
+    public static Supplier<GraphServiceClient> lazyClient(EmailConfig config, String tenantId) {
+        return new Supplier<>() {
+            private GraphServiceClient client;
+
+            @Override
+            public synchronized GraphServiceClient get() {
+                if (client == null) {
+                    client = createClient(config, tenantId);
+                }
+                return client;
+            }
+        };
+    }
+
+    public static GraphServiceClient createClient(EmailConfig config, String tenantId) {
+        ClientSecretCredentialBuilder credentialBuilder = new ClientSecretCredentialBuilder()
             .clientId(config.getClientId())
             .clientSecret(config.getClientSecret())
-            .tenantId(config.getTenantId())
-            .build();
+            .tenantId(tenantId);
+        if (config.isPersistTokenCache()) {
+            // A restart reuses the cached access token instead of requesting a new one
+            credentialBuilder.tokenCachePersistenceOptions(new TokenCachePersistenceOptions()
+                .setName("emailmanager")
+                .setUnencryptedStorageAllowed(config.isAllowUnencryptedTokenCache()));
+        }
+        ClientSecretCredential credential = credentialBuilder.build();
 
         TokenCredentialAuthProvider authProvider = new TokenCredentialAuthProvider(SCOPES, credential);
-        this.graphClient = GraphServiceClient.builder()
-            .authenticationProvider(authProvider)
+        // The SDK's default chain without its RetryHandler: it would resend POSTs such as replies on a
+        // 503 or 504, and retry 429s underneath GraphRequestScheduler, which retries GETs itself
+        OkHttpClient httpClient = HttpClients.createFromInterceptors(new Interceptor[] {
+                new AuthenticationHandler(authProvider), new RedirectHandler()})
+            .newBuilder()
+            .addInterceptor(GraphService::countThrottled)
+            .build();
+        GraphServiceClient client = GraphServiceClient.builder()
+            .httpClient(httpClient)
             .buildClient();
+        if (config.getGraphEndpoint() != null && !config.getGraphEndpoint().isBlank()) {
+            // Tokens are only attached for Microsoft Graph hosts, so a local endpoint is called without one
+            client.setServiceRoot(config.getGraphEndpoint());
+        }
+        return client;
+    }
+
+    private static Response countThrottled(Interceptor.Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        if (response.code() == 429) {
+            List<String> segments = chain.request().url().pathSegments();
+            int users = segments.indexOf("users");
+            String mailbox = users >= 0 && users + 1 < segments.size() ? segments.get(users + 1) : "batch";
+            GraphRequestScheduler.throttledCounter(mailbox, "http").increment();
+        }
+        return response;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
     }
 
     public List<EmailRecord> getEmailsAsync() throws Exception {
-        logger.info("Fetching emails from Microsoft Graph API");
+        return getEmailsSince(null);
+    }
+
+    public List<EmailRecord> getEmailsSince(OffsetDateTime watermark) throws Exception {
         List<EmailRecord> emails = new ArrayList<>();
-        MessageCollectionRequest request = graphClient.users(userEmail)
+        fetchEmailsSince(watermark, PAGE_SIZE, emails::addAll);
+        return emails;
+    }
+
+    public int fetchEmailsSince(OffsetDateTime watermark, int batchSize, EmailBatchConsumer consumer) throws Exception {
+        logger.info("Fetching emails from Microsoft Graph API received since {}", watermark);
+        MessageCollectionRequest request = graphClient.get().users(userEmail)
             .messages()
             .buildRequest()
-            .select("id,subject,receivedDateTime,from,internetMessageId,conversationId,internetMessageHeaders");
+            .select("id,subject,receivedDateTime,from,internetMessageId,conversationId,internetMessageHeaders")
+            .orderBy("receivedDateTime")
+            .top(PAGE_SIZE);
+
+        if (watermark != null) {
+            // Inclusive bound: emails sharing the watermark timestamp are deduplicated by the storage layer
+            request = request.filter("receivedDateTime ge " + DateTimeFormatter.ISO_INSTANT.format(watermark));
+        }
 
-        MessageCollectionPage messages = request.get();
+        int total = 0;
+        List<EmailRecord> batch = new ArrayList<>(batchSize);
+        // Every page request goes through the scheduler, so a throttled page is retried on its own
+        // and the sync resumes from the last completed page instead of starting over
+        MessageCollectionRequest firstPage = request;
+        MessageCollectionPage messages = scheduler.execute(tenantId, userEmail,
+            () -> pageLatency.recordCallable(firstPage::get));
         while (messages != null) {
-            for (Message message : messages.getCurrentPage()) {
-                EmailRecord email = new EmailRecord(
-                    message.id,
-                    message.subject,
-                    message.receivedDateTime,
-                    message.from.emailAddress.address,
-                    message.internetMessageId,
-                    message.conversationId,
-                    getReferencesHeader(message)
-                );
-                emails.add(email);
+            // Prefetch the next page while the current one is mapped and handed to the consumer
+            MessageCollectionRequestBuilder nextPageBuilder = messages.getNextPage();
+            CompletableFuture<MessageCollectionPage> nextPage = nextPageBuilder != null
+                ? scheduler.submit(tenantId, userEmail,
+                    () -> pageLatency.recordCallable(() -> nextPageBuilder.buildRequest().get()))
+                : null;
+
+            messagesReceived.increment(messages.getCurrentPage().size());
+            try {
+                for (Message message : messages.getCurrentPage()) {
+                    batch.add(toEmailRecord(message));
+                    if (batch.size() >= batchSize) {
+                        consumer.accept(batch);
+                        total += batch.size();
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            } catch (Exception e) {
+                if (nextPage != null) {
+                    nextPage.cancel(true);
+                }
+                throw e;
             }
 
-            messages = messages.getNextPage() != null ? messages.getNextPage().buildRequest().get() : null;
+            messages = nextPage != null ? awaitPage(nextPage) : null;
         }
 
-        logger.info("Retrieved {} emails", emails.size());
-        return emails;
+        if (!batch.isEmpty()) {
+            consumer.accept(batch);
+            total += batch.size();
+        }
+
+        logger.info("Retrieved {} emails", total);
+        return total;
+    }
+
+    private MessageCollectionPage awaitPage(CompletableFuture<MessageCollectionPage> page) throws Exception {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private EmailRecord toEmailRecord(Message message) {
+        return new EmailRecord(
+            message.id,
+            message.subject,
+            message.receivedDateTime,
+            message.from.emailAddress.address,
+            message.internetMessageId,
+            message.conversationId,
+            getReferencesHeader(message)
+        );
+    }
+
+    // Streams the raw MIME ($value) of a message to the consumer without buffering it in memory
+    public void downloadMimeContent(String messageId, ContentConsumer consumer) throws Exception {
+        scheduler.execute(tenantId, userEmail, () -> {
+            try (InputStream content = graphClient.get().users(userEmail)
+                    .messages(messageId)
+                    .content()
+                    .buildRequest()
+                    .get()) {
+                if (content == null) {
+                    throw new IOException("No MIME content returned for message ID: " + messageId);
+                }
+                consumer.accept(content);
+            }
+            return null;
+        });
     }
 
     public void replyToEmail(String messageId, String replyContent) throws Exception {
         logger.info("Sending reply to message ID: {}", messageId);
         
+        MessageReplyParameterSet replyParams = createReplyParameters(replyContent);
+
+        // Not retried: a reply that timed out may still have been sent
+        scheduler.executeOnce(tenantId, userEmail, () -> {
+            graphClient.get().users(userEmail)
+                .messages(messageId)
+                .reply(replyParams)
+                .buildRequest()
+                .post();
+            return null;
+        });
+
+        logger.info("Reply sent successfully");
+    }
+
+    // Sends replies as Graph $batch requests of up to 20, with a few batches in flight at once.
+    // Results are returned in request order; throttled replies are resent in a later batch. If the
+    // thread is interrupted, the results so far are returned with the interrupt status set, and
+    // replies that were never submitted are reported as not sent.
+    public List<ReplyResult> replyToEmails(List<ReplyRequest> replies) {
+        logger.info("Sending {} replies in batches of {}", replies.size(), MAX_BATCH_SIZE);
+        Map<String, ReplyResult> results = new HashMap<>();
+        List<ReplyRequest> remaining = replies;
+        for (int attempt = 0; !remaining.isEmpty(); attempt++) {
+            List<ReplyRequest> throttled = new ArrayList<>();
+            long retryAfterMillis;
+            try {
+                retryAfterMillis = sendReplyBatches(remaining, results, throttled);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (throttled.isEmpty()) {
+                break;
+            }
+            if (attempt >= MAX_THROTTLED_RETRIES) {
+                for (ReplyRequest reply : throttled) {
+                    results.put(reply.getId(), new ReplyResult(reply.getId(), reply.getMessageId(), 429,
+                        "Still throttled after " + MAX_THROTTLED_RETRIES + " retries"));
+                }
+                break;
+            }
+            logger.warn("{} replies throttled, resending in {} ms", throttled.size(), retryAfterMillis);
+            throttledBatchSteps.increment(throttled.size());
+            retryWait.record(retryAfterMillis, TimeUnit.MILLISECONDS);
+            try {
+                Thread.sleep(retryAfterMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = throttled;
+        }
+
+        List<ReplyResult> ordered = new ArrayList<>(replies.size());
+        int sent = 0;
+        for (ReplyRequest reply : replies) {
+            ReplyResult result = results.get(reply.getId());
+            if (result == null) {
+                // Only left without a result when interrupted before it was submitted or resent
+                result = new ReplyResult(reply.getId(), reply.getMessageId(), ReplyResult.STATUS_NOT_SENT,
+                    "Interrupted before sending");
+            }
+            ordered.add(result);
+            if (result.isSuccess()) {
+                sent++;
+            }
+        }
+        logger.info("Sent {} of {} replies", sent, replies.size());
+        return ordered;
+    }
+
+    // Returns the longest Retry-After among throttled steps, which are added to the throttled list.
+    // When interrupted, the replies of batches still in flight are recorded as unknown.
+    private long sendReplyBatches(List<ReplyRequest> replies, Map<String, ReplyResult> results,
+                                  List<ReplyRequest> throttled) throws InterruptedException {
+        long retryAfterMillis = DEFAULT_RETRY_AFTER_MILLIS;
+        Deque<ReplyBatch> inFlight = new ArrayDeque<>();
+        try {
+            for (int start = 0; start < replies.size() || !inFlight.isEmpty(); ) {
+                // Keep a fixed number of batches in flight; wait for the oldest before submitting more
+                if (start < replies.size() && inFlight.size() < MAX_BATCHES_IN_FLIGHT) {
+                    int end = Math.min(start + MAX_BATCH_SIZE, replies.size());
+                    inFlight.add(submitReplyBatch(replies.subList(start, end)));
+                    start = end;
+                    continue;
+                }
+                retryAfterMillis = Math.max(retryAfterMillis, collectReplyBatch(inFlight.peek(), results, throttled));
+                inFlight.poll();
+            }
+        } catch (InterruptedException e) {
+            for (ReplyBatch batch : inFlight) {
+                for (ReplyRequest reply : batch.repliesByStepId.values()) {
+                    results.put(reply.getId(), new ReplyResult(reply.getId(), reply.getMessageId(),
+                        ReplyResult.STATUS_UNKNOWN, "Interrupted while waiting for the batch response"));
+                }
+            }
+            throw e;
+        }
+        return retryAfterMillis;
+    }
+
+    private ReplyBatch submitReplyBatch(List<ReplyRequest> replies) {
+        BatchRequestContent content = new BatchRequestContent();
+        Map<String, ReplyRequest> repliesByStepId = new HashMap<>();
+        for (ReplyRequest reply : replies) {
+            MessageReplyParameterSet replyParams = createReplyParameters(reply.getReplyContent());
+            String stepId = content.addBatchRequestStep(
+                graphClient.get().users(userEmail)
+                    .messages(reply.getMessageId())
+                    .reply(replyParams)
+                    .buildRequest(),
+                HttpMethod.POST,
+                replyParams);
+            repliesByStepId.put(stepId, reply);
+        }
+        // Sent once: a batch that failed with a 5xx may already have been executed on the server
+        return new ReplyBatch(repliesByStepId,
+            scheduler.submitOnce(tenantId, userEmail, () -> graphClient.get().batch().buildRequest().post(content)));
+    }
+
+    private long collectReplyBatch(ReplyBatch batch, Map<String, ReplyResult> results, List<ReplyRequest> throttled)
+            throws InterruptedException {
+        BatchResponseContent response;
+        try {
+            response = batch.response.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            int status = cause instanceof GraphServiceException ? ((GraphServiceException) cause).getResponseCode() : 0;
+            if (status == 429) {
+                // The whole batch was throttled before any step ran
+                throttled.addAll(batch.repliesByStepId.values());
+                long retryAfterMillis = GraphRequestScheduler.getRetryAfterMillis(
+                    ((GraphServiceException) cause).getResponseHeaders());
+                return retryAfterMillis > 0 ? retryAfterMillis : DEFAULT_RETRY_AFTER_MILLIS;
+            }
+            // Other 4xx responses reject the batch unexecuted; after a 5xx or a transport failure
+            // the replies in this batch may or may not have been sent
+            logger.error("Reply batch failed: {}", cause.getMessage());
+            int resultStatus = status >= 400 && status < 500 ? status : ReplyResult.STATUS_UNKNOWN;
+            for (ReplyRequest reply : batch.repliesByStepId.values()) {
+                results.put(reply.getId(), new ReplyResult(reply.getId(), reply.getMessageId(),
+                    resultStatus, cause.getMessage()));
+            }
+            return 0;
+        }
+
+        long retryAfterMillis = 0;
+        for (Map.Entry<String, ReplyRequest> entry : batch.repliesByStepId.entrySet()) {
+            ReplyRequest reply = entry.getValue();
+            BatchResponseStep<JsonElement> step = response != null ? response.getResponseById(entry.getKey()) : null;
+            if (step == null) {
+                results.put(reply.getId(), new ReplyResult(reply.getId(), reply.getMessageId(),
+                    ReplyResult.STATUS_UNKNOWN, "No response for batch step"));
+            } else if (step.status == 429) {
+                // Throttled steps were not executed and are safe to send again
+                throttled.add(reply);
+                retryAfterMillis = Math.max(retryAfterMillis, getRetryAfterMillis(step));
+            } else {
+                results.put(reply.getId(), new ReplyResult(reply.getId(), reply.getMessageId(),
+                    step.status, step.status >= 200 && step.status < 300 ? null : getErrorMessage(step)));
+            }
+        }
+        return retryAfterMillis;
+    }
+
+    private static long getRetryAfterMillis(BatchResponseStep<JsonElement> step) {
+        if (step.headers != null) {
+            for (Map.Entry<String, String> header : step.headers.entrySet()) {
+                if ("Retry-After".equalsIgnoreCase(header.getKey())) {
+                    try {
+                        return Long.parseLong(header.getValue().trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return DEFAULT_RETRY_AFTER_MILLIS;
+    }
+
+    private static String getErrorMessage(BatchResponseStep<JsonElement> step) {
+        if (step.body != null && step.body.isJsonObject()) {
+            JsonObject body = step.body.getAsJsonObject();
+            if (body.has("error") && body.get("error").isJsonObject()) {
+                JsonObject error = body.getAsJsonObject("error");
+                if (error.has("message")) {
+                    return error.get("message").getAsString();
+                }
+            }
+        }
+        return "HTTP " + step.status;
+    }
+
+    private static MessageReplyParameterSet createReplyParameters(String replyContent) {
         MessageReplyParameterSet replyParams = new MessageReplyParameterSet();
         Message reply = new Message();
         ItemBody body = new ItemBody();
@@ -78,14 +478,17 @@ public class GraphService {
         body.contentType = BodyType.TEXT;
         reply.body = body;
         replyParams.message = reply;
+        return replyParams;
+    }
 
-        graphClient.users(userEmail)
-            .messages(messageId)
-            .reply(replyParams)
-            .buildRequest()
-            .post();
+    private static class ReplyBatch {
+        private final Map<String, ReplyRequest> repliesByStepId;
+        private final CompletableFuture<BatchResponseContent> response;
 
-        logger.info("Reply sent successfully");
+        private ReplyBatch(Map<String, ReplyRequest> repliesByStepId, CompletableFuture<BatchResponseContent> response) {
+            this.repliesByStepId = repliesByStepId;
+            this.response = response;
+        }
     }
 
     private String getReferencesHeader(Message message) {
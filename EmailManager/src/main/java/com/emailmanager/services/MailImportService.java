@@ -0,0 +1,382 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.utils.MimeHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Bulk import of exported mail: .eml files (one message each) and mbox files (any other regular
+// file that starts with a "From " line), found by walking the given paths. Messages are read in file order on the calling thread
+// and collected into batches; the headers of each batch are parsed and the raw messages written
+// to the content store on a worker pool, then the records are appended to the store in one call
+// rather than going through saveEmails, which would replace the content with header stubs.
+// Only one batch is held in memory at a time. Graph IDs do not exist for these messages, so the
+// ID is derived from the Message-ID and the conversation from the first message it references;
+// importing the same archive again adds nothing.
+public class MailImportService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MailImportService.class);
+    static final String ID_PREFIX = "import-";
+    private static final int DEFAULT_BATCH_SIZE = 5000;
+    // Flushes a batch early when its messages get this large, so big attachments bound memory too
+    private static final long MAX_BATCH_BYTES = 256L * 1024 * 1024;
+    // Larger messages are skipped; well above the send limits of common mail servers
+    static final long MAX_MESSAGE_BYTES = 150L * 1024 * 1024;
+
+    private final EmailStore emailStore;
+    private final EmailContentStore contentStore;
+    private final ExecutorService workers;
+    private final int batchSize;
+
+    public static class ImportResult {
+        private final int read;
+        private final int imported;
+        private final int skipped;
+
+        ImportResult(int read, int imported, int skipped) {
+            this.read = read;
+            this.imported = imported;
+            this.skipped = skipped;
+        }
+
+        public int getRead() {
+            return read;
+        }
+
+        public int getImported() {
+            return imported;
+        }
+
+        // Messages without any usable header, or larger than MAX_MESSAGE_BYTES
+        public int getSkipped() {
+            return skipped;
+        }
+
+        @Override
+        public String toString() {
+            return "Read " + read + " messages, imported " + imported + " new, skipped " + skipped + " unreadable or oversized";
+        }
+    }
+
+    public MailImportService(EmailStore emailStore, int threads) {
+        this(emailStore, threads, DEFAULT_BATCH_SIZE);
+    }
+
+    MailImportService(EmailStore emailStore, int threads, int batchSize) {
+        this.emailStore = emailStore;
+        this.contentStore = emailStore.getContentStore();
+        this.batchSize = batchSize;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "mail-import-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ImportResult importPaths(List<Path> paths) throws IOException {
+        Batch batch = new Batch();
+        for (Path path : paths) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(path)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".eml")) {
+                    if (Files.size(file) > MAX_MESSAGE_BYTES) {
+                        logger.warn("Skipping {}: larger than {} bytes", file, MAX_MESSAGE_BYTES);
+                        batch.skip(1);
+                        continue;
+                    }
+                    batch.add(Files.readAllBytes(file));
+                } else {
+                    try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                        if (!startsWithFromLine(in)) {
+                            logger.info("Skipping {}: neither an .eml file nor an mbox", file);
+                            continue;
+                        }
+                        int oversized = readMbox(in, batch::add);
+                        if (oversized > 0) {
+                            logger.warn("Skipped {} messages of {} larger than {} bytes", oversized, file, MAX_MESSAGE_BYTES);
+                            batch.skip(oversized);
+                        }
+                    }
+                }
+                logger.debug("Read {}", file);
+            }
+        }
+        batch.flush();
+        ImportResult result = new ImportResult(batch.read, batch.imported, batch.skipped);
+        logger.info("Import finished: {}", result);
+        return result;
+    }
+
+    private class Batch {
+        private final List<byte[]> messages = new ArrayList<>();
+        private long bytes;
+        private int read;
+        private int imported;
+        private int skipped;
+
+        void add(byte[] message) throws IOException {
+            messages.add(message);
+            bytes += message.length;
+            read++;
+            if (messages.size() >= batchSize || bytes >= MAX_BATCH_BYTES) {
+                flush();
+            }
+        }
+
+        void skip(int count) {
+            read += count;
+            skipped += count;
+        }
+
+        void flush() throws IOException {
+            if (messages.isEmpty()) {
+                return;
+            }
+            List<Future<EmailRecord>> parsing = new ArrayList<>(messages.size());
+            for (byte[] message : messages) {
+                parsing.add(workers.submit(() -> toEmailRecord(message)));
+            }
+            // The same message can appear twice in an archive; only its first copy is written
+            Map<String, byte[]> contents = new LinkedHashMap<>();
+            List<EmailRecord> records = new ArrayList<>(messages.size());
+            for (int i = 0; i < parsing.size(); i++) {
+                EmailRecord record = await(parsing.get(i));
+                if (record == null) {
+                    skipped++;
+                } else if (contents.putIfAbsent(record.getId(), messages.get(i)) == null) {
+                    records.add(record);
+                }
+            }
+
+            // Content is written first, so a crash leaves at most .eml files whose records are
+            // appended when the import is run again
+            List<Future<Void>> writes = new ArrayList<>(contents.size());
+            for (Map.Entry<String, byte[]> content : contents.entrySet()) {
+                writes.add(workers.submit(() -> {
+                    if (!contentStore.hasContent(content.getKey())) {
+                        contentStore.writeContent(content.getKey(), new ByteArrayInputStream(content.getValue()));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> write : writes) {
+                await(write);
+            }
+
+            int added = emailStore.appendRecords(records).size();
+            imported += added;
+            logger.info("Imported {} of {} messages ({} read so far)", added, messages.size(), read);
+            messages.clear();
+            bytes = 0;
+        }
+    }
+
+    static EmailRecord toEmailRecord(byte[] message) {
+        MimeHeaders headers = MimeHeaders.parse(message);
+        String messageId = headers.getMessageIds("Message-ID");
+        String from = headers.getAddress("From");
+        String subject = headers.getDecoded("Subject");
+        if (messageId == null && from == null && subject == null) {
+            return null;
+        }
+        String references = headers.getMessageIds("References");
+        if (references == null) {
+            references = headers.getMessageIds("In-Reply-To");
+        }
+
+        // Without a Message-ID the content itself identifies the message
+        String id = ID_PREFIX + (messageId != null ? hash(messageId.getBytes(StandardCharsets.UTF_8)) : hash(message));
+        String root = references != null ? references.split(" ")[0] : messageId;
+        String conversationId = root != null ? ID_PREFIX + hash(root.getBytes(StandardCharsets.UTF_8)) : id;
+        return new EmailRecord(id, subject, headers.getDate("Date"), from, messageId, conversationId,
+            references != null ? references : "");
+    }
+
+    // Peeks at the start of the stream, which must support mark
+    private static boolean startsWithFromLine(InputStream in) throws IOException {
+        in.mark(5);
+        byte[] start = in.readNBytes(5);
+        in.reset();
+        return startsWith(start, 0, "From ");
+    }
+
+    static int readMbox(InputStream in, MessageSink sink) throws IOException {
+        return readMbox(in, MAX_MESSAGE_BYTES, sink);
+    }
+
+    // Splits an mbox on "From " lines that start the file or follow an empty line, and undoes the
+    // ">From " quoting of mboxrd. Messages larger than maxMessageBytes are dropped as they are read
+    // and only counted; returns that count.
+    static int readMbox(InputStream in, long maxMessageBytes, MessageSink sink) throws IOException {
+        ByteArrayOutputStream message = new ByteArrayOutputStream();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        boolean inMessage = false;
+        boolean oversized = false;
+        int oversizedCount = 0;
+        boolean previousBlank = true;
+        int length = 0;
+        int position = 0;
+        while (true) {
+            // Collect one line, including its newline, into line
+            line.reset();
+            boolean complete = false;
+            while (!complete) {
+                if (position == length) {
+                    length = in.read(buffer);
+                    position = 0;
+                    if (length <= 0) {
+                        length = 0;
+                        break;
+                    }
+                }
+                int end = position;
+                while (end < length && buffer[end] != '\n') {
+                    end++;
+                }
+                complete = end < length;
+                int next = complete ? end + 1 : end;
+                // A line longer than any message we keep only needs its start
+                if (line.size() <= maxMessageBytes) {
+                    line.write(buffer, position, next - position);
+                }
+                position = next;
+            }
+            if (line.size() == 0) {
+                break;
+            }
+
+            byte[] bytes = line.toByteArray();
+            if (previousBlank && startsWith(bytes, 0, "From ")) {
+                if (oversized) {
+                    oversizedCount++;
+                } else if (inMessage) {
+                    sink.add(trimSeparatorNewline(message.toByteArray()));
+                }
+                message.reset();
+                inMessage = true;
+                oversized = false;
+                previousBlank = false;
+                continue;
+            }
+            previousBlank = isBlank(bytes);
+            if (!inMessage) {
+                continue;
+            }
+            int quotes = 0;
+            while (quotes < bytes.length && bytes[quotes] == '>') {
+                quotes++;
+            }
+            int start = quotes > 0 && startsWith(bytes, quotes, "From ") ? 1 : 0;
+            if (!oversized && message.size() + bytes.length - start > maxMessageBytes) {
+                oversized = true;
+                message.reset();
+            }
+            if (!oversized) {
+                message.write(bytes, start, bytes.length - start);
+            }
+        }
+        if (oversized) {
+            oversizedCount++;
+        } else if (inMessage) {
+            sink.add(trimSeparatorNewline(message.toByteArray()));
+        }
+        return oversizedCount;
+    }
+
+    @FunctionalInterface
+    interface MessageSink {
+        void add(byte[] message) throws IOException;
+    }
+
+    private static boolean isBlank(byte[] line) {
+        return line.length == 1 || (line.length == 2 && line[0] == '\r');
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, String prefix) {
+        if (bytes.length - offset < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (bytes[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The empty line before the next "From " line belongs to the mbox format, not the message
+    private static byte[] trimSeparatorNewline(byte[] message) {
+        int length = message.length;
+        if (length >= 2 && message[length - 1] == '\n' && message[length - 2] == '\n') {
+            length--;
+        } else if (length >= 4 && message[length - 1] == '\n' && message[length - 2] == '\r'
+                && message[length - 3] == '\n') {
+            length -= 2;
+        }
+        return length == message.length ? message : Arrays.copyOf(message, length);
+    }
+
+    private static String hash(byte[] value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value);
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Failed to import message", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
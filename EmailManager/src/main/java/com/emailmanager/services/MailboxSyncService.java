@@ -0,0 +1,216 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.MailboxConfig;
+import com.emailmanager.models.MailboxSyncResult;
+import com.microsoft.graph.requests.GraphServiceClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class MailboxSyncService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MailboxSyncService.class);
+    private final EmailConfig config;
+    private final Path partitionsPath;
+    private final EmailRecordCache recordCache;
+    private final ExecutorService executor;
+    private final GraphRequestScheduler scheduler;
+    private final Map<String, Supplier<GraphServiceClient>> clientsByTenant = new ConcurrentHashMap<>();
+    private final Map<String, TenantQueue> queuesByTenant = new ConcurrentHashMap<>();
+    // Sync pipelines are kept per mailbox so their storage indexes stay warm between runs
+    private final Map<String, SyncService> syncServices = new ConcurrentHashMap<>();
+    private final Map<String, EmailStore> emailStores = new ConcurrentHashMap<>();
+    private final List<EmailStore.SaveListener> saveListeners = new CopyOnWriteArrayList<>();
+
+    public MailboxSyncService(EmailConfig config) {
+        this(config, Paths.get("emails", "mailboxes"), new EmailRecordCache(config.getCacheMaxMegabytes()));
+    }
+
+    public MailboxSyncService(EmailConfig config, Path partitionsPath, EmailRecordCache recordCache) {
+        this.config = config;
+        this.partitionsPath = partitionsPath;
+        this.recordCache = recordCache;
+        this.scheduler = new GraphRequestScheduler(config);
+
+        // The pool size is the global cap on mailboxes syncing at once
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, config.getMaxConcurrentSyncs()), r -> {
+            Thread thread = new Thread(r, "mailbox-sync-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Syncs of one tenant beyond maxConcurrentSyncsPerTenant wait here rather than in a pool
+    // thread, so a tenant with many mailboxes cannot hold every worker while other tenants wait
+    private class TenantQueue {
+        private final Semaphore permits = new Semaphore(Math.max(1, config.getMaxConcurrentSyncsPerTenant()));
+        private final Deque<Runnable> waiting = new ArrayDeque<>();
+
+        synchronized void submit(Runnable task) {
+            waiting.add(task);
+            dispatch();
+        }
+
+        // Hands waiting syncs to the pool while the tenant has free permits
+        synchronized void dispatch() {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                Runnable task = waiting.poll();
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        release();
+                    }
+                });
+            }
+        }
+
+        void release() {
+            permits.release();
+            dispatch();
+        }
+    }
+
+    public List<MailboxSyncResult> syncAll(List<MailboxConfig> mailboxes) {
+        logger.info("Syncing {} mailboxes with up to {} concurrent syncs", mailboxes.size(), config.getMaxConcurrentSyncs());
+        List<Future<MailboxSyncResult>> futures = new ArrayList<>();
+        for (MailboxConfig mailbox : mailboxes) {
+            CompletableFuture<MailboxSyncResult> future = new CompletableFuture<>();
+            tenantQueue(mailbox).submit(() -> future.complete(runSync(mailbox)));
+            futures.add(future);
+        }
+
+        List<MailboxSyncResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new MailboxSyncResult(mailboxes.get(i).getUserEmail(), 0, 0, "Interrupted"));
+            } catch (ExecutionException e) {
+                results.add(new MailboxSyncResult(mailboxes.get(i).getUserEmail(), 0, 0, e.getCause().getMessage()));
+            }
+        }
+        return results;
+    }
+
+    // Syncs on the calling thread, such as a sync daemon thread, waiting there for a tenant permit
+    public MailboxSyncResult syncMailbox(MailboxConfig mailbox) {
+        TenantQueue queue = tenantQueue(mailbox);
+        try {
+            queue.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new MailboxSyncResult(mailbox.getUserEmail(), 0, 0, "Interrupted");
+        }
+        try {
+            return runSync(mailbox);
+        } finally {
+            queue.release();
+        }
+    }
+
+    private MailboxSyncResult runSync(MailboxConfig mailbox) {
+        long start = System.currentTimeMillis();
+        try {
+            int downloaded = getSyncService(mailbox).syncNewEmails();
+            long duration = System.currentTimeMillis() - start;
+            logger.info("Synced {} emails for mailbox {} in {} ms", downloaded, mailbox.getUserEmail(), duration);
+            return new MailboxSyncResult(mailbox.getUserEmail(), downloaded, duration, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new MailboxSyncResult(mailbox.getUserEmail(), 0, System.currentTimeMillis() - start, "Interrupted");
+        } catch (Exception e) {
+            logger.error("Error syncing mailbox {}: ", mailbox.getUserEmail(), e);
+            return new MailboxSyncResult(mailbox.getUserEmail(), 0, System.currentTimeMillis() - start, e.getMessage());
+        }
+    }
+
+    private TenantQueue tenantQueue(MailboxConfig mailbox) {
+        return queuesByTenant.computeIfAbsent(getTenantId(mailbox), t -> new TenantQueue());
+    }
+
+    public EmailStore getEmailStore(String userEmail) {
+        return emailStores.computeIfAbsent(partitionName(userEmail), name -> {
+            try {
+                EmailStore emailStore = EmailStoreFactory.create(partitionsPath.resolve(name), config, recordCache);
+                for (EmailStore.SaveListener listener : saveListeners) {
+                    emailStore.addSaveListener(listener);
+                }
+                return emailStore;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // Registered on every mailbox store, including ones opened later
+    public void addSaveListener(EmailStore.SaveListener listener) {
+        saveListeners.add(listener);
+        for (EmailStore emailStore : emailStores.values()) {
+            emailStore.addSaveListener(listener);
+        }
+    }
+
+    private SyncService getSyncService(MailboxConfig mailbox) {
+        return syncServices.computeIfAbsent(partitionName(mailbox.getUserEmail()), name -> {
+            String tenantId = getTenantId(mailbox);
+            Supplier<GraphServiceClient> client = clientsByTenant.computeIfAbsent(tenantId,
+                t -> GraphService.lazyClient(config, t));
+            return new SyncService(new GraphService(client, tenantId, mailbox.getUserEmail(), scheduler),
+                getEmailStore(mailbox.getUserEmail()), config.getMaxConcurrentContentFetches());
+        });
+    }
+
+    private String getTenantId(MailboxConfig mailbox) {
+        return mailbox.getTenantId() != null && !mailbox.getTenantId().isEmpty()
+            ? mailbox.getTenantId()
+            : config.getTenantId();
+    }
+
+    // Each mailbox is written into its own directory under the partitions path
+    private static String partitionName(String userEmail) {
+        return userEmail.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9@._-]", "_");
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Timed out waiting for mailbox syncs to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SyncService syncService : syncServices.values()) {
+            syncService.close();
+        }
+        scheduler.close();
+        for (EmailStore emailStore : emailStores.values()) {
+            emailStore.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.models.ThreadNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Reply trees built from internetMessageId and the References header, following the JWZ threading
+// algorithm (https://www.jwz.org/doc/threading.html). Containers are kept between calls and every
+// new message only touches the containers of its own references, so the table is maintained
+// incrementally and a message that arrives before its parent is re-linked once the parent shows up.
+// Empty containers are pruned when a view is built, not in the table, so later messages can still
+// attach to them. Messages from several mailboxes can be added; the first copy of a message wins.
+public class MessageThreader {
+    private static final Logger logger = LoggerFactory.getLogger(MessageThreader.class);
+    private static final Comparator<ThreadNode> BY_DATE = Comparator.comparing(MessageThreader::earliestDate,
+        Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final Map<String, Container> containers = new HashMap<>();
+    private int messageCount;
+
+    public synchronized void addAll(List<EmailRecord> emails) {
+        for (EmailRecord email : emails) {
+            add(email);
+        }
+    }
+
+    public synchronized void add(EmailRecord email) {
+        Container container = containers.computeIfAbsent(key(email), k -> new Container());
+        if (container.email != null) {
+            return;
+        }
+        container.email = email;
+        messageCount++;
+
+        // Link the references chain, keeping links established by earlier messages
+        Container previous = null;
+        for (String reference : parseReferences(email.getReferences())) {
+            Container referenced = containers.computeIfAbsent(reference, k -> new Container());
+            if (previous != null && referenced != previous && referenced.parent == null
+                    && !isAncestor(referenced, previous)) {
+                link(previous, referenced);
+            }
+            previous = referenced;
+        }
+
+        // The message's own References are authoritative for its parent
+        unlink(container);
+        if (previous != null && previous != container && !isAncestor(container, previous)) {
+            link(previous, container);
+        }
+    }
+
+    public synchronized int getMessageCount() {
+        return messageCount;
+    }
+
+    // The whole reply tree containing the message, or null if the message is unknown
+    public synchronized ThreadNode getThread(EmailRecord email) {
+        Container container = containers.get(key(email));
+        if (container == null) {
+            return null;
+        }
+        while (container.parent != null) {
+            container = container.parent;
+        }
+        List<ThreadNode> roots = build(container);
+        return roots.isEmpty() ? null : roots.get(0);
+    }
+
+    // Every thread, oldest first
+    public synchronized List<ThreadNode> getThreads() {
+        List<ThreadNode> threads = new ArrayList<>();
+        for (Container container : containers.values()) {
+            if (container.parent == null) {
+                threads.addAll(build(container));
+            }
+        }
+        threads.sort(BY_DATE);
+        logger.info("Built {} threads from {} messages", threads.size(), messageCount);
+        return threads;
+    }
+
+    // Builds the pruned view of a container: empty containers are dropped or replaced by their
+    // children, except at the root, where a placeholder keeps siblings of a missing parent together
+    private List<ThreadNode> build(Container container) {
+        List<ThreadNode> children = new ArrayList<>();
+        for (Container child : container.children) {
+            children.addAll(build(child));
+        }
+        children.sort(BY_DATE);
+
+        List<ThreadNode> result = new ArrayList<>();
+        if (container.email != null || (container.parent == null && children.size() > 1)) {
+            ThreadNode node = new ThreadNode(container.email);
+            node.getChildren().addAll(children);
+            result.add(node);
+        } else {
+            result.addAll(children);
+        }
+        return result;
+    }
+
+    private static void link(Container parent, Container child) {
+        child.parent = parent;
+        parent.children.add(child);
+    }
+
+    private static void unlink(Container child) {
+        if (child.parent != null) {
+            child.parent.children.remove(child);
+            child.parent = null;
+        }
+    }
+
+    // True if ancestor is descendant itself or one of its parents
+    private static boolean isAncestor(Container ancestor, Container descendant) {
+        for (Container current = descendant; current != null; current = current.parent) {
+            if (current == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String key(EmailRecord email) {
+        String messageId = normalize(email.getInternetMessageId());
+        // Without a Message-ID nothing can refer to the message, so it only needs a unique key
+        return messageId.isEmpty() ? "graph:" + email.getId() : messageId;
+    }
+
+    static List<String> parseReferences(String references) {
+        List<String> ids = new ArrayList<>();
+        if (references == null || references.isBlank()) {
+            return ids;
+        }
+        int start = references.indexOf('<');
+        if (start < 0) {
+            for (String part : references.trim().split("\\s+")) {
+                ids.add(part);
+            }
+            return ids;
+        }
+        while (start >= 0) {
+            int end = references.indexOf('>', start);
+            if (end < 0) {
+                break;
+            }
+            String id = references.substring(start + 1, end).trim();
+            if (!id.isEmpty()) {
+                ids.add(id);
+            }
+            start = references.indexOf('<', end);
+        }
+        return ids;
+    }
+
+    private static String normalize(String messageId) {
+        if (messageId == null) {
+            return "";
+        }
+        String trimmed = messageId.trim();
+        if (trimmed.startsWith("<") && trimmed.endsWith(">")) {
+            trimmed = trimmed.substring(1, trimmed.length() - 1).trim();
+        }
+        return trimmed;
+    }
+
+    private static OffsetDateTime earliestDate(ThreadNode node) {
+        if (node.getEmail() != null) {
+            return node.getEmail().getReceivedDateTime();
+        }
+        OffsetDateTime earliest = null;
+        for (ThreadNode child : node.getChildren()) {
+            OffsetDateTime date = earliestDate(child);
+            if (date != null && (earliest == null || date.isBefore(earliest))) {
+                earliest = date;
+            }
+        }
+        return earliest;
+    }
+
+    private static class Container {
+        private final List<Container> children = new ArrayList<>();
+        private EmailRecord email;
+        private Container parent;
+    }
+}
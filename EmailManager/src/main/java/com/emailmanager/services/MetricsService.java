@@ -0,0 +1,78 @@
+package com.emailmanager.services;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Publishes the meters recorded on Micrometer's global registry through JMX (domain "metrics") and,
+// if a port is given, a Prometheus text endpoint at http://localhost:<port>/metrics. Services
+// record on the global registry, so without a MetricsService their meters are no-ops.
+public class MetricsService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsService.class);
+
+    private final JmxMeterRegistry jmxRegistry;
+    private final PrometheusMeterRegistry prometheusRegistry;
+    private final HttpServer server;
+
+    public MetricsService(int prometheusPort) throws IOException {
+        this.jmxRegistry = new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM);
+        this.prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        Metrics.addRegistry(jmxRegistry);
+        Metrics.addRegistry(prometheusRegistry);
+
+        if (prometheusPort > 0) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), prometheusPort), 0);
+            server.createContext("/metrics", this::scrape);
+            server.start();
+            logger.info("Prometheus metrics available at http://localhost:{}/metrics", server.getAddress().getPort());
+        } else {
+            server = null;
+        }
+    }
+
+    public String scrape() {
+        return prometheusRegistry.scrape();
+    }
+
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : 0;
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        Metrics.removeRegistry(jmxRegistry);
+        Metrics.removeRegistry(prometheusRegistry);
+        jmxRegistry.close();
+        prometheusRegistry.close();
+    }
+}
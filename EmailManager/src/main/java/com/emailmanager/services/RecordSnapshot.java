@@ -0,0 +1,108 @@
+package com.emailmanager.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Binary copy of the parsed records of the emails CSV in their compact form, so a restart maps the
+// columns back instead of parsing every row. Like the row index it covers the CSV up to a length;
+// rows appended after it are parsed on load, and it is dropped before the CSV is replaced.
+public class RecordSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(RecordSnapshot.class);
+    private static final int MAGIC = 0x52534E31;
+    private static final int HEADER_SIZE = 4 + 8;
+
+    private final Path csvFilePath;
+    private final Path snapshotFilePath;
+    // Bumped by invalidate(), so a snapshot written from records read before it is discarded
+    private long epoch;
+
+    public static class Loaded {
+        private final CompactEmailRecords records;
+        private final long coveredLength;
+
+        Loaded(CompactEmailRecords records, long coveredLength) {
+            this.records = records;
+            this.coveredLength = coveredLength;
+        }
+
+        public CompactEmailRecords getRecords() {
+            return records;
+        }
+
+        public long getCoveredLength() {
+            return coveredLength;
+        }
+    }
+
+    public RecordSnapshot(Path csvFilePath) {
+        this.csvFilePath = csvFilePath;
+        this.snapshotFilePath = csvFilePath.resolveSibling(csvFilePath.getFileName() + ".snapshot");
+    }
+
+    // The snapshot, or null if there is none or it does not fit the current CSV
+    public synchronized Loaded load() throws IOException {
+        if (!Files.exists(snapshotFilePath) || !Files.exists(csvFilePath)) {
+            return null;
+        }
+        long csvLength = Files.size(csvFilePath);
+        try (FileChannel channel = FileChannel.open(snapshotFilePath, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long coveredLength = mapped.getLong(4);
+            if (mapped.getInt(0) != MAGIC || coveredLength > csvLength) {
+                logger.info("Ignoring outdated record snapshot {}", snapshotFilePath);
+                return null;
+            }
+            mapped.position(HEADER_SIZE);
+            return new Loaded(CompactEmailRecords.read(mapped), coveredLength);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable record snapshot {}: {}", snapshotFilePath, e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized long epoch() {
+        return epoch;
+    }
+
+    // Writes records parsed from the first coveredLength bytes of the CSV; the expensive part runs
+    // without the lock, and nothing is replaced if the snapshot was invalidated since epoch()
+    public void write(CompactEmailRecords records, long coveredLength, long expectedEpoch) throws IOException {
+        Path tempPath = snapshotFilePath.resolveSibling(snapshotFilePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putLong(coveredLength).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            records.write(channel);
+            channel.force(false);
+        }
+        synchronized (this) {
+            // One mapping covers at most 2 GB; larger archives are parsed as before
+            if (epoch != expectedEpoch || Files.size(tempPath) > Integer.MAX_VALUE) {
+                Files.deleteIfExists(tempPath);
+                return;
+            }
+            Files.move(tempPath, snapshotFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        logger.info("Wrote record snapshot {} with {} emails", snapshotFilePath, records.size());
+    }
+
+    // Must be called before the CSV is replaced, so a crash in between forces a full parse
+    public synchronized void invalidate() throws IOException {
+        epoch++;
+        Files.deleteIfExists(snapshotFilePath);
+    }
+}
@@ -0,0 +1,231 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.QueuedReply;
+import com.emailmanager.models.ReplyRequest;
+import com.emailmanager.models.ReplyResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Persistent queue for bulk replies. Every state change is appended to a JSON-lines file and forced
+// to disk, and replies are marked SENDING before they are handed to Graph. Replies still SENDING
+// when the queue is reopened become UNCERTAIN and are never resent automatically, so a crash can
+// neither lose a queued reply nor send it twice without the user deciding to.
+public class ReplyQueueService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ReplyQueueService.class);
+    // Replies marked SENDING at a time: four $batch requests of 20
+    private static final int SEND_CHUNK_SIZE = 80;
+
+    public interface ReplySender {
+        List<ReplyResult> send(List<ReplyRequest> replies) throws Exception;
+    }
+
+    private final ReplySender sender;
+    private final Path queuePath;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, QueuedReply> replies = new LinkedHashMap<>();
+    private FileChannel channel;
+
+    public ReplyQueueService(GraphService graphService, Path queuePath) {
+        this(graphService::replyToEmails, queuePath);
+    }
+
+    public ReplyQueueService(ReplySender sender, Path queuePath) {
+        this.sender = sender;
+        this.queuePath = queuePath;
+    }
+
+    public synchronized QueuedReply enqueue(String messageId, String replyContent) throws IOException {
+        open();
+        QueuedReply reply = new QueuedReply(UUID.randomUUID().toString(), messageId, replyContent,
+            QueuedReply.Status.PENDING, null);
+        replies.put(reply.getId(), reply);
+        append(List.of(reply));
+        return reply;
+    }
+
+    // Sends every pending reply and returns the per-message results. An interrupted sender returns
+    // the results it has, so only replies it could not account for become uncertain.
+    public List<ReplyResult> processPending() throws Exception {
+        List<ReplyResult> results = new ArrayList<>();
+        List<QueuedReply> chunk;
+        while (!(chunk = markSending()).isEmpty()) {
+            List<ReplyResult> chunkResults;
+            try {
+                chunkResults = sender.send(new ArrayList<>(chunk));
+            } catch (Exception e) {
+                markUncertain(chunk, e.getMessage());
+                throw e;
+            }
+            // Cleared before recording, since an interrupted thread would close the queue file
+            boolean interrupted = Thread.interrupted();
+            recordResults(chunk, chunkResults);
+            results.addAll(chunkResults);
+            if (interrupted) {
+                throw new InterruptedException("Interrupted while sending replies");
+            }
+        }
+        return results;
+    }
+
+    private synchronized List<QueuedReply> markSending() throws IOException {
+        open();
+        List<QueuedReply> chunk = new ArrayList<>();
+        for (QueuedReply reply : replies.values()) {
+            if (reply.getStatus() == QueuedReply.Status.PENDING) {
+                reply.setStatus(QueuedReply.Status.SENDING);
+                chunk.add(reply);
+                if (chunk.size() >= SEND_CHUNK_SIZE) {
+                    break;
+                }
+            }
+        }
+        append(chunk);
+        return chunk;
+    }
+
+    private synchronized void recordResults(List<QueuedReply> chunk, List<ReplyResult> results) throws IOException {
+        for (int i = 0; i < chunk.size(); i++) {
+            QueuedReply reply = chunk.get(i);
+            ReplyResult result = results.get(i);
+            if (result.isSuccess()) {
+                reply.setStatus(QueuedReply.Status.SENT);
+                reply.setError(null);
+            } else {
+                reply.setStatus(result.isUncertain() ? QueuedReply.Status.UNCERTAIN : QueuedReply.Status.FAILED);
+                reply.setError(result.getError());
+            }
+        }
+        append(chunk);
+    }
+
+    private synchronized void markUncertain(List<QueuedReply> chunk, String error) throws IOException {
+        for (QueuedReply reply : chunk) {
+            reply.setStatus(QueuedReply.Status.UNCERTAIN);
+            reply.setError(error);
+        }
+        append(chunk);
+    }
+
+    public synchronized List<QueuedReply> getReplies(QueuedReply.Status status) throws IOException {
+        open();
+        List<QueuedReply> matching = new ArrayList<>();
+        for (QueuedReply reply : replies.values()) {
+            if (reply.getStatus() == status) {
+                matching.add(reply);
+            }
+        }
+        return matching;
+    }
+
+    // Puts a failed or uncertain reply back in the queue once the user has decided to resend it
+    public synchronized boolean requeue(String replyId) throws IOException {
+        open();
+        QueuedReply reply = replies.get(replyId);
+        if (reply == null
+                || (reply.getStatus() != QueuedReply.Status.FAILED && reply.getStatus() != QueuedReply.Status.UNCERTAIN)) {
+            return false;
+        }
+        reply.setStatus(QueuedReply.Status.PENDING);
+        reply.setError(null);
+        append(List.of(reply));
+        return true;
+    }
+
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        load();
+
+        // Rewrite the queue without sent replies before appending to it
+        Path tempPath = queuePath.resolveSibling(queuePath.getFileName() + ".tmp");
+        List<String> lines = new ArrayList<>();
+        for (QueuedReply reply : replies.values()) {
+            lines.add(mapper.writeValueAsString(reply));
+        }
+        Files.write(tempPath, lines, StandardCharsets.UTF_8);
+        Files.move(tempPath, queuePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(queuePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void load() throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(queuePath, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        for (String line : lines) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            QueuedReply reply;
+            try {
+                reply = mapper.readValue(line, QueuedReply.class);
+            } catch (JsonProcessingException e) {
+                // A torn last line from a crash; the state change it recorded was not acted on
+                logger.warn("Skipping unreadable reply queue entry in {}", queuePath);
+                continue;
+            }
+            // The last line for a reply holds its current state
+            replies.put(reply.getId(), reply);
+        }
+
+        int uncertain = 0;
+        for (QueuedReply reply : replies.values()) {
+            if (reply.getStatus() == QueuedReply.Status.SENDING) {
+                reply.setStatus(QueuedReply.Status.UNCERTAIN);
+                reply.setError("Interrupted while sending");
+                uncertain++;
+            }
+        }
+        replies.values().removeIf(reply -> reply.getStatus() == QueuedReply.Status.SENT);
+        if (uncertain > 0) {
+            logger.warn("{} replies were interrupted while sending and may or may not have been sent", uncertain);
+        }
+    }
+
+    private void append(List<QueuedReply> changed) throws IOException {
+        if (changed.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (QueuedReply reply : changed) {
+            lines.append(mapper.writeValueAsString(reply)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close reply queue {}: {}", queuePath, e.getMessage());
+            }
+            channel = null;
+        }
+    }
+}
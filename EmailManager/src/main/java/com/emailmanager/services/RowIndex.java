@@ -0,0 +1,161 @@
+package com.emailmanager.services;
+
+import com.emailmanager.utils.EmailCsvCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Byte offset of every row in the emails CSV, in file order, so a window of rows can be read
+// without parsing the rows before it. Like the conversation index, the on-disk part is
+// memory-mapped and rows appended since it was written are kept in an in-memory tail.
+public class RowIndex {
+    private static final Logger logger = LoggerFactory.getLogger(RowIndex.class);
+    private static final int MAGIC = 0x52495831;
+    private static final int HEADER_SIZE = 4 + 8 + 4;
+
+    private final Path csvFilePath;
+    private final Path indexFilePath;
+    private MappedByteBuffer entries;
+    private int entryCount;
+    private long coveredLength;
+    private long[] tail = new long[64];
+    private int tailCount;
+    private boolean loaded;
+
+    public RowIndex(Path csvFilePath) {
+        this.csvFilePath = csvFilePath;
+        this.indexFilePath = csvFilePath.resolveSibling(csvFilePath.getFileName() + ".rowidx");
+    }
+
+    public synchronized void open() throws IOException {
+        ensureLoaded();
+    }
+
+    public synchronized int count() throws IOException {
+        ensureLoaded();
+        return entryCount + tailCount;
+    }
+
+    public synchronized long offsetAt(int row) throws IOException {
+        ensureLoaded();
+        if (row < entryCount) {
+            return entries.getLong(HEADER_SIZE + row * 8);
+        }
+        return tail[row - entryCount];
+    }
+
+    public synchronized void add(long offset) throws IOException {
+        ensureLoaded();
+        addToTail(offset);
+    }
+
+    // Must be called before the CSV is replaced, so a crash in between forces a rebuild
+    public synchronized void invalidate() throws IOException {
+        entries = null;
+        entryCount = 0;
+        coveredLength = 0;
+        tailCount = 0;
+        loaded = false;
+        Files.deleteIfExists(indexFilePath);
+    }
+
+    public synchronized void write(long[] offsets, int count, long csvLength) throws IOException {
+        Path tempPath = indexFilePath.resolveSibling(indexFilePath.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC).putLong(csvLength).putInt(count);
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 8) {
+                    flush(channel, buffer);
+                }
+                buffer.putLong(offsets[i]);
+            }
+            flush(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(tempPath, indexFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        tailCount = 0;
+        map();
+        loaded = true;
+        logger.info("Wrote row index {} with {} entries", indexFilePath, count);
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        long csvLength = Files.exists(csvFilePath) ? Files.size(csvFilePath) : 0;
+        if (!Files.exists(indexFilePath) || !map() || coveredLength > csvLength) {
+            rebuild();
+            return;
+        }
+
+        // Index the rows appended after the index file was written
+        if (coveredLength < csvLength) {
+            EmailCsvCodec.scan(csvFilePath, coveredLength, (offset, email) -> addToTail(offset));
+        }
+        loaded = true;
+    }
+
+    private void rebuild() throws IOException {
+        logger.info("Rebuilding row index {}", indexFilePath);
+        long[][] offsets = {new long[1024]};
+        int[] count = new int[1];
+        long csvLength = 0;
+        if (Files.exists(csvFilePath)) {
+            csvLength = EmailCsvCodec.scan(csvFilePath, 0, (offset, email) -> {
+                if (count[0] == offsets[0].length) {
+                    offsets[0] = Arrays.copyOf(offsets[0], count[0] * 2);
+                }
+                offsets[0][count[0]++] = offset;
+            });
+        }
+        write(offsets[0], count[0], csvLength);
+    }
+
+    private void addToTail(long offset) {
+        if (tailCount == tail.length) {
+            tail = Arrays.copyOf(tail, tailCount * 2);
+        }
+        tail[tailCount++] = offset;
+    }
+
+    private boolean map() throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFilePath, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) != MAGIC) {
+                return false;
+            }
+            int count = mapped.getInt(12);
+            if (channel.size() != HEADER_SIZE + (long) count * 8) {
+                return false;
+            }
+            entries = mapped;
+            coveredLength = mapped.getLong(4);
+            entryCount = count;
+            return true;
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,559 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+// Inverted index over the stored .eml content, which carries the From and Subject headers as well
+// as the body. Every content write (the header stub at save time, the full MIME once downloaded)
+// adds a document for its email ID. New documents are buffered in memory and flushed as immutable
+// memory-mapped segments, and a background thread merges adjacent segments of similar size so a
+// query only probes a logarithmic number of them.
+public class SearchIndex implements EmailContentStore.ContentListener, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+    private static final int FLUSH_THRESHOLD = 2000;
+    // Only the start of large messages is indexed; the rest is mostly attachments
+    private static final int MAX_INDEXED_BYTES = 64 * 1024;
+    private static final int MIN_TERM_LENGTH = 2;
+    // Longer tokens are almost always base64 or encoded URLs
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final long MAX_MERGED_SEGMENT_BYTES = 1L << 30;
+    private static final int DOC_CHUNK_BYTES = 64 * 1024;
+
+    private final Path directory;
+    private final Path manifestPath;
+    private final EmailContentStore contentStore;
+    private final List<SearchSegment> segments = new ArrayList<>();
+    private final Map<String, Postings> bufferedPostings = new HashMap<>();
+    private final List<String> bufferedIds = new ArrayList<>();
+    private final List<Long> bufferedContentSizes = new ArrayList<>();
+    private final FileChannel docOffsets;
+    private final FileChannel docData;
+    // Size of the content each document was built from, so a replaced stub can be told apart
+    private final FileChannel docContentSizes;
+    private final ExecutorService mergeExecutor = EmailStorageService.newCompactionExecutor();
+    private int committedDocs;
+    private long docDataLength;
+    private int nextSegmentNumber;
+    private boolean mergeScheduled;
+
+    public SearchIndex(Path directory, EmailContentStore contentStore) throws IOException {
+        this.directory = directory;
+        this.manifestPath = directory.resolve("manifest");
+        this.contentStore = contentStore;
+        Files.createDirectories(directory);
+
+        List<String> live = readManifest();
+        // Document table entries past the committed count belong to an interrupted flush
+        this.docOffsets = FileChannel.open(directory.resolve("docs.idx"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.docData = FileChannel.open(directory.resolve("docs.dat"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.docContentSizes = FileChannel.open(directory.resolve("docs.size"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        docOffsets.truncate((long) committedDocs * 8);
+        docData.truncate(docDataLength);
+        padContentSizes();
+
+        Set<String> liveSet = new HashSet<>(live);
+        for (String name : live) {
+            segments.add(new SearchSegment(directory.resolve(name)));
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(name) + 1);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.idx")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!liveSet.contains(name)) {
+                    Files.deleteIfExists(file);
+                    nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(name) + 1);
+                }
+            }
+        }
+        logger.info("Opened search index {} with {} documents in {} segments", directory, committedDocs, segments.size());
+    }
+
+    @Override
+    public void onContentStored(String emailId) {
+        try {
+            long contentSize = contentStore.getContentSize(emailId);
+            addDocument(emailId, readIndexedContent(emailId), contentSize);
+        } catch (IOException e) {
+            logger.warn("Failed to index content for ID {}: {}", emailId, e.getMessage());
+        }
+    }
+
+    public void addDocument(String emailId, String text) throws IOException {
+        addDocument(emailId, text, -1);
+    }
+
+    private void addDocument(String emailId, String text, long contentSize) throws IOException {
+        // Tokenizing happens outside the lock, so concurrent writers only serialize on the buffer
+        Set<String> terms = tokenize(text);
+        synchronized (this) {
+            int doc = committedDocs + bufferedIds.size();
+            bufferedIds.add(emailId);
+            bufferedContentSizes.add(contentSize);
+            for (String term : terms) {
+                bufferedPostings.computeIfAbsent(term, t -> new Postings()).add(doc);
+            }
+            if (bufferedIds.size() >= FLUSH_THRESHOLD) {
+                flush();
+            }
+        }
+    }
+
+    // Indexes stored emails whose current content has no document yet, such as an archive that
+    // predates the index, or downloaded content whose document was still buffered when the
+    // application stopped while the header stub's document was already flushed
+    public int indexMissing(EmailStore emailStore) throws IOException {
+        Map<String, Long> indexed = indexedContentSizes();
+        int added = 0;
+        for (EmailRecord email : emailStore.loadEmails()) {
+            Long indexedSize = indexed.get(email.getId());
+            if (indexedSize == null || isStale(email.getId(), indexedSize)) {
+                onContentStored(email.getId());
+                added++;
+            }
+        }
+        if (added > 0) {
+            flush();
+            logger.info("Indexed {} emails missing from the search index", added);
+        }
+        return added;
+    }
+
+    // Documents from before content sizes were recorded, or added without content, count as current
+    private boolean isStale(String emailId, long indexedSize) throws IOException {
+        if (indexedSize < 0) {
+            return false;
+        }
+        long contentSize = contentStore.getContentSize(emailId);
+        return contentSize >= 0 && contentSize != indexedSize;
+    }
+
+    // Returns the IDs of emails containing every term of the query, most recently indexed first
+    public synchronized List<String> search(String query, int limit) throws IOException {
+        Set<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int[] matches = null;
+        for (String term : terms) {
+            int[] docs = postings(term);
+            matches = matches == null ? docs : intersect(matches, docs);
+            if (matches.length == 0) {
+                break;
+            }
+        }
+
+        // The same email can have several documents (header stub and full content)
+        Set<String> emailIds = new LinkedHashSet<>();
+        for (int i = matches.length - 1; i >= 0 && emailIds.size() < limit; i--) {
+            emailIds.add(emailId(matches[i]));
+        }
+        return new ArrayList<>(emailIds);
+    }
+
+    public synchronized int getDocumentCount() {
+        return committedDocs + bufferedIds.size();
+    }
+
+    public synchronized void flush() throws IOException {
+        if (bufferedIds.isEmpty()) {
+            return;
+        }
+
+        // Document table first, so a segment never refers to documents that are not durable
+        ByteBuffer offsets = ByteBuffer.allocate(bufferedIds.size() * 8);
+        List<byte[]> encodedIds = new ArrayList<>(bufferedIds.size());
+        long dataPosition = docDataLength;
+        for (String emailId : bufferedIds) {
+            byte[] encoded = emailId.getBytes(StandardCharsets.UTF_8);
+            encodedIds.add(encoded);
+            offsets.putLong(dataPosition);
+            dataPosition += 4 + encoded.length;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) (dataPosition - docDataLength));
+        for (byte[] encoded : encodedIds) {
+            data.putInt(encoded.length).put(encoded);
+        }
+        ByteBuffer contentSizes = ByteBuffer.allocate(bufferedIds.size() * 8);
+        for (long contentSize : bufferedContentSizes) {
+            contentSizes.putLong(contentSize);
+        }
+        writeFully(docOffsets, offsets, (long) committedDocs * 8);
+        writeFully(docData, data, docDataLength);
+        writeFully(docContentSizes, contentSizes, (long) committedDocs * 8);
+        docOffsets.force(false);
+        docData.force(false);
+        docContentSizes.force(false);
+
+        String name = nextSegmentName();
+        byte[][] terms = new byte[bufferedPostings.size()][];
+        Postings[] postings = new Postings[terms.length];
+        Map<byte[], Postings> byTerm = new HashMap<>();
+        int index = 0;
+        for (Map.Entry<String, Postings> entry : bufferedPostings.entrySet()) {
+            terms[index] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byTerm.put(terms[index], entry.getValue());
+            index++;
+        }
+        Arrays.sort(terms, Arrays::compareUnsigned);
+        for (int i = 0; i < terms.length; i++) {
+            postings[i] = byTerm.get(terms[i]);
+        }
+        try (SearchSegment.Writer writer = new SearchSegment.Writer(directory.resolve(name), committedDocs, bufferedIds.size())) {
+            for (int i = 0; i < terms.length; i++) {
+                writer.add(terms[i], postings[i].docs, postings[i].size);
+            }
+        }
+
+        segments.add(new SearchSegment(directory.resolve(name)));
+        committedDocs += bufferedIds.size();
+        docDataLength = dataPosition;
+        bufferedIds.clear();
+        bufferedContentSizes.clear();
+        bufferedPostings.clear();
+        writeManifest();
+        scheduleMerge();
+    }
+
+    private void scheduleMerge() {
+        if (!mergeScheduled && mergeCandidate() >= 0) {
+            mergeScheduled = true;
+            mergeExecutor.submit(this::mergeSegments);
+        }
+    }
+
+    // Index of the older of the newest two adjacent segments of similar size, or -1
+    private int mergeCandidate() {
+        for (int index = segments.size() - 2; index >= 0; index--) {
+            SearchSegment older = segments.get(index);
+            SearchSegment newer = segments.get(index + 1);
+            if (older.getDocCount() <= newer.getDocCount() * 2
+                    && older.getSize() + newer.getSize() <= MAX_MERGED_SEGMENT_BYTES) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    // Runs on the merge thread. Segments are immutable, so the merged file is written without
+    // holding the lock, and flushes and searches carry on against the old pair until the swap.
+    private void mergeSegments() {
+        try {
+            while (true) {
+                SearchSegment older;
+                SearchSegment newer;
+                String name;
+                synchronized (this) {
+                    int index = mergeCandidate();
+                    if (index < 0) {
+                        mergeScheduled = false;
+                        return;
+                    }
+                    older = segments.get(index);
+                    newer = segments.get(index + 1);
+                    name = nextSegmentName();
+                }
+
+                writeMergedSegment(directory.resolve(name), older, newer);
+
+                synchronized (this) {
+                    int index = segments.indexOf(older);
+                    if (index < 0 || index + 1 >= segments.size() || segments.get(index + 1) != newer) {
+                        Files.deleteIfExists(directory.resolve(name));
+                        continue;
+                    }
+                    segments.set(index, new SearchSegment(directory.resolve(name)));
+                    segments.remove(index + 1);
+                    writeManifest();
+                    // Mappings of the old files stay valid until they are garbage collected
+                    Files.deleteIfExists(older.getPath());
+                    Files.deleteIfExists(newer.getPath());
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Failed to merge segments of search index {}: ", directory, e);
+            synchronized (this) {
+                mergeScheduled = false;
+            }
+        }
+    }
+
+    private static void writeMergedSegment(Path path, SearchSegment older, SearchSegment newer) throws IOException {
+        try (SearchSegment.Writer writer = new SearchSegment.Writer(path,
+                older.getFirstDoc(), older.getDocCount() + newer.getDocCount())) {
+            int i = 0;
+            int j = 0;
+            while (i < older.getTermCount() || j < newer.getTermCount()) {
+                byte[] olderTerm = i < older.getTermCount() ? older.termAt(i) : null;
+                byte[] newerTerm = j < newer.getTermCount() ? newer.termAt(j) : null;
+                int cmp = olderTerm == null ? 1 : newerTerm == null ? -1 : Arrays.compareUnsigned(olderTerm, newerTerm);
+                if (cmp < 0) {
+                    int[] docs = older.postingsAt(i++);
+                    writer.add(olderTerm, docs, docs.length);
+                } else if (cmp > 0) {
+                    int[] docs = newer.postingsAt(j++);
+                    writer.add(newerTerm, docs, docs.length);
+                } else {
+                    // The older segment covers lower document numbers, so concatenation stays sorted
+                    int[] first = older.postingsAt(i++);
+                    int[] second = newer.postingsAt(j++);
+                    int[] docs = Arrays.copyOf(first, first.length + second.length);
+                    System.arraycopy(second, 0, docs, first.length, second.length);
+                    writer.add(olderTerm, docs, docs.length);
+                }
+            }
+        }
+    }
+
+    private int[] postings(String term) {
+        byte[] encoded = term.getBytes(StandardCharsets.UTF_8);
+        int[][] parts = new int[segments.size() + 1][];
+        int total = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            parts[i] = segments.get(i).postings(encoded);
+            total += parts[i].length;
+        }
+        Postings buffered = bufferedPostings.get(term);
+        parts[segments.size()] = buffered != null ? Arrays.copyOf(buffered.docs, buffered.size) : new int[0];
+        total += parts[segments.size()].length;
+
+        // Segments are kept in document order, so the concatenation is sorted
+        int[] docs = new int[total];
+        int position = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, docs, position, part.length);
+            position += part.length;
+        }
+        return docs;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private String emailId(int doc) throws IOException {
+        if (doc >= committedDocs) {
+            return bufferedIds.get(doc - committedDocs);
+        }
+        ByteBuffer offset = ByteBuffer.allocate(8);
+        readFully(docOffsets, offset, (long) doc * 8);
+        long position = offset.getLong(0);
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(docData, length, position);
+        ByteBuffer encoded = ByteBuffer.allocate(length.getInt(0));
+        readFully(docData, encoded, position + 4);
+        return new String(encoded.array(), StandardCharsets.UTF_8);
+    }
+
+    // Content size of the latest document of every indexed email. Reads the document table in
+    // chunks, since it can outgrow any single buffer.
+    private synchronized Map<String, Long> indexedContentSizes() throws IOException {
+        Map<String, Long> contentSizes = new HashMap<>();
+        ByteBuffer chunk = ByteBuffer.allocate(DOC_CHUNK_BYTES);
+        ByteBuffer sizeChunk = ByteBuffer.allocate(DOC_CHUNK_BYTES);
+        sizeChunk.limit(0);
+        long sizePosition = 0;
+        long position = 0;
+        while (position < docDataLength) {
+            chunk.clear();
+            chunk.limit((int) Math.min(chunk.capacity(), docDataLength - position));
+            readFully(docData, chunk, position);
+            chunk.flip();
+            while (chunk.remaining() >= 4 && chunk.remaining() - 4 >= chunk.getInt(chunk.position())) {
+                byte[] encoded = new byte[chunk.getInt()];
+                chunk.get(encoded);
+                if (!sizeChunk.hasRemaining()) {
+                    sizeChunk.clear();
+                    sizeChunk.limit((int) Math.min(sizeChunk.capacity(), (long) committedDocs * 8 - sizePosition));
+                    readFully(docContentSizes, sizeChunk, sizePosition);
+                    sizePosition += sizeChunk.limit();
+                    sizeChunk.flip();
+                }
+                contentSizes.put(new String(encoded, StandardCharsets.UTF_8), sizeChunk.getLong());
+            }
+            if (chunk.position() == 0) {
+                if (chunk.limit() < chunk.capacity() || chunk.remaining() < 4) {
+                    break;
+                }
+                // A single entry larger than the chunk
+                chunk = ByteBuffer.allocate(4 + chunk.getInt(0));
+                continue;
+            }
+            position += chunk.position();
+        }
+        for (int i = 0; i < bufferedIds.size(); i++) {
+            contentSizes.put(bufferedIds.get(i), bufferedContentSizes.get(i));
+        }
+        return contentSizes;
+    }
+
+    private String readIndexedContent(String emailId) throws IOException {
+        try (InputStream in = contentStore.openContent(emailId)) {
+            return new String(in.readNBytes(MAX_INDEXED_BYTES), StandardCharsets.UTF_8);
+        }
+    }
+
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new HashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                if (token.length() >= MIN_TERM_LENGTH && token.length() <= MAX_TERM_LENGTH) {
+                    terms.add(token.toString());
+                }
+                token.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    private List<String> readManifest() throws IOException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifestPath, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
+        }
+        // First line: committed document count and document table length; then one segment per line
+        String[] counts = lines.get(0).trim().split(" ");
+        committedDocs = Integer.parseInt(counts[0]);
+        docDataLength = Long.parseLong(counts[1]);
+        List<String> names = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (!line.isBlank()) {
+                names.add(line.trim());
+            }
+        }
+        return names;
+    }
+
+    private void writeManifest() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(committedDocs + " " + docDataLength);
+        for (SearchSegment segment : segments) {
+            lines.add(segment.getPath().getFileName().toString());
+        }
+        Path tempPath = manifestPath.resolveSibling("manifest.tmp");
+        Files.write(tempPath, lines, StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        }
+        Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String nextSegmentName() {
+        return String.format("segment-%06d.idx", nextSegmentNumber++);
+    }
+
+    private static int segmentNumber(String name) {
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - ".idx".length()));
+    }
+
+    // Tables written before content sizes were recorded get an unknown size for every document
+    private void padContentSizes() throws IOException {
+        long expected = (long) committedDocs * 8;
+        long existing = docContentSizes.size() / 8 * 8;
+        if (existing < expected) {
+            ByteBuffer unknown = ByteBuffer.allocate((int) (expected - existing));
+            while (unknown.hasRemaining()) {
+                unknown.putLong(-1);
+            }
+            writeFully(docContentSizes, unknown, existing);
+            docContentSizes.force(false);
+        }
+        docContentSizes.truncate(expected);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of search document table");
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("Failed to flush search index {}: {}", directory, e.getMessage());
+        }
+        // Outside the lock, since a running merge needs it to swap in its segment
+        EmailStorageService.shutdownCompactionExecutor(mergeExecutor);
+        try {
+            docOffsets.close();
+            docData.close();
+            docContentSizes.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close search index {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        private void add(int doc) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+}
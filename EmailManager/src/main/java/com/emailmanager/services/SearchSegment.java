@@ -0,0 +1,229 @@
+package com.emailmanager.services;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// One immutable, memory-mapped segment of the search index. Documents in a segment form the
+// contiguous range [firstDoc, firstDoc + docCount), and postings are delta-encoded varints.
+// Layout: header | postings | term heap | sorted term entries.
+class SearchSegment {
+    private static final int MAGIC = 0x53495831;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+    // termOffset, termLength, postingsOffset, postingsLength, docFreq
+    private static final int ENTRY_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int firstDoc;
+    private final int docCount;
+    private final int termCount;
+    private final long heapOffset;
+    private final long entriesOffset;
+    private final long size;
+
+    SearchSegment(Path path) throws IOException {
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.size = channel.size();
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a search segment: " + path);
+        }
+        this.firstDoc = buffer.getInt(4);
+        this.docCount = buffer.getInt(8);
+        this.termCount = buffer.getInt(12);
+        this.heapOffset = buffer.getLong(16);
+        this.entriesOffset = buffer.getLong(24);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int getFirstDoc() {
+        return firstDoc;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    int getTermCount() {
+        return termCount;
+    }
+
+    // Returns the ascending document numbers containing the term, or an empty array
+    int[] postings(byte[] term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTerm(mid, term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return postingsAt(mid);
+            }
+        }
+        return new int[0];
+    }
+
+    byte[] termAt(int index) {
+        int entry = entryPosition(index);
+        byte[] term = new byte[buffer.getInt(entry + 4)];
+        int offset = (int) heapOffset + buffer.getInt(entry);
+        for (int i = 0; i < term.length; i++) {
+            term[i] = buffer.get(offset + i);
+        }
+        return term;
+    }
+
+    int[] postingsAt(int index) {
+        int entry = entryPosition(index);
+        long position = buffer.getLong(entry + 8);
+        int docFreq = buffer.getInt(entry + 20);
+        int[] docs = new int[docFreq];
+        int pos = (int) position;
+        int doc = 0;
+        for (int i = 0; i < docFreq; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(pos++);
+                delta |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            doc += delta;
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    private int compareTerm(int index, byte[] term) {
+        int entry = entryPosition(index);
+        int offset = (int) heapOffset + buffer.getInt(entry);
+        int length = buffer.getInt(entry + 4);
+        int common = Math.min(length, term.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(buffer.get(offset + i) & 0xff, term[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, term.length);
+    }
+
+    private int entryPosition(int index) {
+        return (int) (entriesOffset + (long) index * ENTRY_SIZE);
+    }
+
+    // Writes terms in ascending unsigned byte order; postings are streamed so merges of large
+    // segments do not need to hold them in memory
+    static class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final OutputStream out;
+        private final int firstDoc;
+        private final int docCount;
+        private final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        private int[] termOffsets = new int[1024];
+        private int[] termLengths = new int[1024];
+        private long[] postingsOffsets = new long[1024];
+        private int[] postingsLengths = new int[1024];
+        private int[] docFreqs = new int[1024];
+        private int termCount;
+        private long position = HEADER_SIZE;
+        private byte[] lastTerm;
+
+        Writer(Path path, int firstDoc, int docCount) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+            this.channel.position(HEADER_SIZE);
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            this.firstDoc = firstDoc;
+            this.docCount = docCount;
+        }
+
+        void add(byte[] term, int[] docs, int length) throws IOException {
+            if (lastTerm != null && Arrays.compareUnsigned(lastTerm, term) >= 0) {
+                throw new IllegalArgumentException("Terms must be added in ascending order");
+            }
+            lastTerm = term;
+            if (termCount == termOffsets.length) {
+                int capacity = termCount * 2;
+                termOffsets = Arrays.copyOf(termOffsets, capacity);
+                termLengths = Arrays.copyOf(termLengths, capacity);
+                postingsOffsets = Arrays.copyOf(postingsOffsets, capacity);
+                postingsLengths = Arrays.copyOf(postingsLengths, capacity);
+                docFreqs = Arrays.copyOf(docFreqs, capacity);
+            }
+            termOffsets[termCount] = heap.size();
+            termLengths[termCount] = term.length;
+            heap.write(term);
+            postingsOffsets[termCount] = position;
+            docFreqs[termCount] = length;
+
+            long start = position;
+            int previous = 0;
+            for (int i = 0; i < length; i++) {
+                int delta = docs[i] - previous;
+                previous = docs[i];
+                while ((delta & ~0x7f) != 0) {
+                    out.write((delta & 0x7f) | 0x80);
+                    delta >>>= 7;
+                    position++;
+                }
+                out.write(delta);
+                position++;
+            }
+            postingsLengths[termCount] = (int) (position - start);
+            termCount++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long heapOffset = position;
+                heap.writeTo(out);
+                long entriesOffset = heapOffset + heap.size();
+                if (entriesOffset + (long) termCount * ENTRY_SIZE > Integer.MAX_VALUE) {
+                    throw new IOException("Search segment exceeds 2 GB");
+                }
+                ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+                for (int i = 0; i < termCount; i++) {
+                    entry.clear();
+                    entry.putInt(termOffsets[i]).putInt(termLengths[i]).putLong(postingsOffsets[i])
+                        .putInt(postingsLengths[i]).putInt(docFreqs[i]);
+                    out.write(entry.array());
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(firstDoc).putInt(docCount).putInt(termCount)
+                    .putLong(heapOffset).putLong(entriesOffset).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.emailmanager.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+// Meters of the CSV store, tagged with the store (one per mailbox directory) rather than the file,
+// so time partitions add no series. No percentile histograms: they would multiply every series by
+// the number of buckets.
+public class StorageMetrics {
+    private final Timer parseTimer;
+    private final Timer writeTimer;
+    private final Timer dedupTimer;
+    private final Counter bytesWritten;
+
+    public StorageMetrics(String store) {
+        this.parseTimer = Timer.builder("storage.csv.parse").tag("store", store).register(Metrics.globalRegistry);
+        this.writeTimer = Timer.builder("storage.csv.write").tag("store", store).register(Metrics.globalRegistry);
+        this.dedupTimer = Timer.builder("storage.dedup").tag("store", store).register(Metrics.globalRegistry);
+        this.bytesWritten = Counter.builder("storage.bytes.written").tag("store", store).baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+    }
+
+    public Timer getParseTimer() {
+        return parseTimer;
+    }
+
+    public Timer getWriteTimer() {
+        return writeTimer;
+    }
+
+    public Timer getDedupTimer() {
+        return dedupTimer;
+    }
+
+    public Counter getBytesWritten() {
+        return bytesWritten;
+    }
+}
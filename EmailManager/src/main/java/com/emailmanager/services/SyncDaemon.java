@@ -0,0 +1,67 @@
+package com.emailmanager.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs incremental syncs on a schedule for headless operation. Each task runs with a fixed delay
+// between the end of one run and the start of the next, so a slow sync never overlaps itself.
+// The sync services passed in are reused across runs, keeping their stores and indexes warm.
+public class SyncDaemon implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SyncDaemon.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 120;
+
+    private final ScheduledExecutorService executor;
+
+    @FunctionalInterface
+    public interface SyncTask {
+        int sync() throws Exception;
+    }
+
+    public SyncDaemon(int maxConcurrentSyncs) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(Math.max(1, maxConcurrentSyncs), r ->
+            // Not daemon threads: the scheduled syncs are what keeps the process alive
+            new Thread(r, "sync-daemon-" + threadCount.incrementAndGet()));
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = pool;
+    }
+
+    public void schedule(String name, long intervalSeconds, SyncTask task) {
+        long interval = Math.max(1, intervalSeconds);
+        logger.info("Syncing {} every {} s", name, interval);
+        executor.scheduleWithFixedDelay(() -> run(name, task), 0, interval, TimeUnit.SECONDS);
+    }
+
+    private void run(String name, SyncTask task) {
+        long start = System.currentTimeMillis();
+        try {
+            int downloaded = task.sync();
+            logger.info("Scheduled sync of {} downloaded {} emails in {} ms", name, downloaded,
+                System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // Swallowed so the next scheduled run still happens
+            logger.error("Scheduled sync of {} failed: ", name, e);
+        }
+    }
+
+    // Stops scheduling new runs and waits for running syncs to save their current batch
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for running syncs, interrupting them");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Sync daemon stopped");
+    }
+}
@@ -0,0 +1,101 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Set;
+
+public class SyncService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SyncService.class);
+    // Records handed to the storage layer per save; bounds memory independent of mailbox size
+    private static final int BATCH_SIZE = 500;
+    private final GraphService graphService;
+    private final EmailStore emailStore;
+    private final SyncStateService syncStateService;
+    private final ContentFetchService contentFetchService;
+    private final Timer syncTimer;
+
+    public SyncService(GraphService graphService, EmailStore emailStore) {
+        this(graphService, emailStore, 0);
+    }
+
+    // With maxConcurrentContentFetches > 0 the MIME content of new emails is downloaded alongside the sync
+    public SyncService(GraphService graphService, EmailStore emailStore, int maxConcurrentContentFetches) {
+        this.graphService = graphService;
+        this.emailStore = emailStore;
+        this.syncStateService = new SyncStateService(
+            emailStore.getDataFilePath().resolveSibling("sync-state.json"));
+        this.contentFetchService = maxConcurrentContentFetches > 0
+            ? new ContentFetchService(graphService, emailStore.getContentStore(),
+                emailStore.getDataFilePath().resolveSibling("content-fetch.journal"), maxConcurrentContentFetches)
+            : null;
+        this.syncTimer = Timer.builder("sync.duration")
+            .description("Wall time of one incremental sync, including content downloads")
+            .tag("mailbox", graphService.getUserEmail())
+            .register(Metrics.globalRegistry);
+    }
+
+    // Returns the number of emails that were not stored yet
+    public int syncNewEmails() throws Exception {
+        return syncTimer.recordCallable(this::sync);
+    }
+
+    private int sync() throws Exception {
+        OffsetDateTime watermark = syncStateService.getWatermark();
+        if (watermark == null) {
+            // First incremental sync over an existing archive: start from the newest stored email
+            watermark = emailStore.getLatestReceivedDateTime();
+        }
+        logger.info("Starting incremental sync from watermark {}", watermark);
+        if (contentFetchService != null) {
+            contentFetchService.resumePending();
+        }
+
+        // Pages arrive in receivedDateTime order, so the watermark can advance after every batch
+        int[] added = {0};
+        graphService.fetchEmailsSince(watermark, BATCH_SIZE, batch -> {
+            // Journaled before the save: once saved, an email is no longer new on the next sync
+            Set<String> journaled = contentFetchService != null ? contentFetchService.journal(batch) : null;
+            List<EmailRecord> newEmails = emailStore.saveEmails(batch);
+            added[0] += newEmails.size();
+            if (contentFetchService != null) {
+                // Content downloads run in the background while the next pages are fetched. Only new
+                // emails are fetched: the inclusive watermark returns the newest stored one again.
+                contentFetchService.enqueue(newEmails, journaled);
+            }
+            syncStateService.updateWatermark(latestReceivedDateTime(batch));
+        });
+
+        if (contentFetchService != null) {
+            contentFetchService.awaitIdle();
+        }
+        return added[0];
+    }
+
+    private OffsetDateTime latestReceivedDateTime(List<EmailRecord> emails) {
+        OffsetDateTime latest = null;
+        for (EmailRecord email : emails) {
+            OffsetDateTime received = email.getReceivedDateTime();
+            if (received != null && (latest == null || received.isAfter(latest))) {
+                latest = received;
+            }
+        }
+        return latest;
+    }
+
+    public SyncStateService getSyncStateService() {
+        return syncStateService;
+    }
+
+    @Override
+    public void close() {
+        if (contentFetchService != null) {
+            contentFetchService.close();
+        }
+    }
+}
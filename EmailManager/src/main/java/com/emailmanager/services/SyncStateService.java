@@ -0,0 +1,66 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.SyncState;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+
+public class SyncStateService {
+    private static final Logger logger = LoggerFactory.getLogger(SyncStateService.class);
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path stateFilePath;
+
+    public SyncStateService(Path stateFilePath) {
+        this.stateFilePath = stateFilePath;
+    }
+
+    public synchronized OffsetDateTime getWatermark() throws IOException {
+        SyncState state = loadState();
+        if (state.getWatermark() == null || state.getWatermark().isEmpty()) {
+            return null;
+        }
+        return OffsetDateTime.parse(state.getWatermark(), formatter);
+    }
+
+    public synchronized void updateWatermark(OffsetDateTime watermark) throws IOException {
+        if (watermark == null) {
+            return;
+        }
+        SyncState state = loadState();
+
+        // The watermark only ever moves forward
+        if (state.getWatermark() != null && !state.getWatermark().isEmpty()
+                && !watermark.isAfter(OffsetDateTime.parse(state.getWatermark(), formatter))) {
+            return;
+        }
+        state.setWatermark(watermark.format(formatter));
+        saveState(state);
+        logger.debug("Updated sync watermark to {} in {}", state.getWatermark(), stateFilePath);
+    }
+
+    private SyncState loadState() throws IOException {
+        if (!Files.exists(stateFilePath)) {
+            return new SyncState();
+        }
+        return mapper.readValue(stateFilePath.toFile(), SyncState.class);
+    }
+
+    private void saveState(SyncState state) throws IOException {
+        // Write to a temporary file first so a crash never leaves a truncated state file
+        Path tempPath = stateFilePath.resolveSibling(stateFilePath.getFileName() + ".tmp");
+        mapper.writerWithDefaultPrettyPrinter().writeValue(tempPath.toFile(), state);
+        Files.move(tempPath, stateFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Path getStateFilePath() {
+        return stateFilePath;
+    }
+}
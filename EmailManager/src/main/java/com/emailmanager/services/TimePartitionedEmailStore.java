@@ -0,0 +1,343 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.utils.EmailCsvCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+
+// CSV store split by received date into one partition per period (UTC year, month or day), each an
+// EmailStorageService of its own at <directory>/<period>/emails.csv. The partitions share one
+// content store, compaction thread and set of meters, so the number of periods costs no threads.
+// A save only appends to the partitions its emails fall into, and date-range queries only open
+// the partitions overlapping the range, so past periods are left untouched and their entries in
+// the record cache stay valid. An ID always maps to the same partition, so deduplication within
+// each partition is enough. Emails without a date go to an "undated" partition, kept first.
+public class TimePartitionedEmailStore implements EmailStore {
+    private static final Logger logger = LoggerFactory.getLogger(TimePartitionedEmailStore.class);
+    private static final String CSV_FILE_NAME = "emails.csv";
+    private static final String UNDATED = "undated";
+    private static final int CONVERSION_BATCH_SIZE = 10000;
+    private static final Comparator<String> PARTITION_ORDER =
+        Comparator.comparing((String key) -> !UNDATED.equals(key)).thenComparing(Comparator.naturalOrder());
+
+    public enum Period {
+        YEAR, MONTH, DAY;
+
+        public static Period fromConfig(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+
+        String keyOf(OffsetDateTime received) {
+            LocalDate date = received.withOffsetSameInstant(ZoneOffset.UTC).toLocalDate();
+            switch (this) {
+                case YEAR:
+                    return Year.from(date).toString();
+                case MONTH:
+                    return YearMonth.from(date).toString();
+                default:
+                    return date.toString();
+            }
+        }
+
+        // Start of the period named by a partition key, or null if the key is not of this period
+        OffsetDateTime startOf(String key) {
+            try {
+                switch (this) {
+                    case YEAR:
+                        return Year.parse(key).atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+                    case MONTH:
+                        return YearMonth.parse(key).atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+                    default:
+                        return LocalDate.parse(key).atStartOfDay().atOffset(ZoneOffset.UTC);
+                }
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        OffsetDateTime endOf(OffsetDateTime start) {
+            switch (this) {
+                case YEAR:
+                    return start.plus(1, ChronoUnit.YEARS);
+                case MONTH:
+                    return start.plus(1, ChronoUnit.MONTHS);
+                default:
+                    return start.plus(1, ChronoUnit.DAYS);
+            }
+        }
+    }
+
+    private final Path directory;
+    private final Period period;
+    private final EmailContentStore contentStore;
+    private final EmailConfig config;
+    private final EmailRecordCache recordCache;
+    private final StorageMetrics metrics;
+    // One compaction thread for all partitions, however many periods there are
+    private final ExecutorService compactionExecutor = EmailStorageService.newCompactionExecutor();
+    private final TreeMap<String, EmailStorageService> partitions = new TreeMap<>(PARTITION_ORDER);
+    private final List<SaveListener> saveListeners = new CopyOnWriteArrayList<>();
+
+    public TimePartitionedEmailStore(Path directory, Period period, EmailContentStore contentStore,
+                                     EmailConfig config, EmailRecordCache recordCache, StorageMetrics metrics)
+            throws IOException {
+        this.directory = directory;
+        this.period = period;
+        this.contentStore = contentStore;
+        this.config = config;
+        this.recordCache = recordCache;
+        this.metrics = metrics;
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path partitionDirectory : stream) {
+                String key = partitionDirectory.getFileName().toString();
+                if (!UNDATED.equals(key) && period.startOf(key) == null) {
+                    // Still read, but never pruned from date-range queries
+                    logger.warn("Partition {} does not match partition period {}", partitionDirectory, period);
+                }
+                partitions.put(key, open(key));
+            }
+        }
+        logger.info("Opened {} {} partitions in {}", partitions.size(), period.name().toLowerCase(), directory);
+    }
+
+    @Override
+    public List<EmailRecord> saveEmails(List<EmailRecord> emails) throws IOException {
+        List<EmailRecord> newEmails = appendRecords(emails);
+        if (!newEmails.isEmpty()) {
+            contentStore.saveEmailContents(newEmails);
+            for (SaveListener listener : saveListeners) {
+                listener.onEmailsSaved(newEmails);
+            }
+        }
+        return newEmails;
+    }
+
+    // Stores records without touching .eml content; used by saveEmails and the CSV converter
+    public List<EmailRecord> appendRecords(List<EmailRecord> emails) throws IOException {
+        Map<String, List<EmailRecord>> byPartition = new TreeMap<>(PARTITION_ORDER);
+        for (EmailRecord email : emails) {
+            byPartition.computeIfAbsent(keyOf(email), key -> new ArrayList<>()).add(email);
+        }
+
+        List<EmailRecord> newEmails = new ArrayList<>();
+        for (Map.Entry<String, List<EmailRecord>> entry : byPartition.entrySet()) {
+            newEmails.addAll(partition(entry.getKey()).appendRecords(entry.getValue()));
+        }
+        logger.debug("Saved {} new emails into {} partitions", newEmails.size(), byPartition.size());
+        return newEmails;
+    }
+
+    @Override
+    public List<EmailRecord> loadEmails() throws IOException {
+        List<EmailRecord> emails = new ArrayList<>();
+        for (EmailStorageService partition : snapshot(false)) {
+            emails.addAll(partition.loadEmails());
+        }
+        return emails;
+    }
+
+    @Override
+    public int count() throws IOException {
+        int count = 0;
+        for (EmailStorageService partition : snapshot(false)) {
+            count += partition.count();
+        }
+        return count;
+    }
+
+    @Override
+    public List<EmailRecord> listEmails(int offset, int limit) throws IOException {
+        List<EmailRecord> emails = new ArrayList<>();
+        int skip = offset;
+        for (EmailStorageService partition : snapshot(false)) {
+            if (emails.size() >= limit) {
+                break;
+            }
+            int count = partition.count();
+            if (skip >= count) {
+                skip -= count;
+                continue;
+            }
+            emails.addAll(partition.listEmails(skip, limit - emails.size()));
+            skip = 0;
+        }
+        return emails;
+    }
+
+    @Override
+    public EmailRecord findEmailById(String emailId) throws IOException {
+        // The ID says nothing about the date, so partitions are tried newest first
+        for (EmailStorageService partition : snapshot(true)) {
+            EmailRecord email = partition.findEmailById(emailId);
+            if (email != null) {
+                return email;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<EmailRecord> getConversationThread(String conversationId) throws IOException {
+        // Conversations can span periods; each partition answers from its conversation index
+        List<EmailRecord> thread = new ArrayList<>();
+        for (EmailStorageService partition : snapshot(false)) {
+            thread.addAll(partition.getConversationThread(conversationId));
+        }
+        thread.sort(EmailStorageService.BY_RECEIVED_DATE);
+        return thread;
+    }
+
+    @Override
+    public List<EmailRecord> findEmailsFrom(String sender) throws IOException {
+        List<EmailRecord> emails = new ArrayList<>();
+        for (EmailStorageService partition : snapshot(false)) {
+            emails.addAll(partition.findEmailsFrom(sender));
+        }
+        return emails;
+    }
+
+    @Override
+    public List<EmailRecord> findEmailsBetween(OffsetDateTime from, OffsetDateTime to) throws IOException {
+        List<EmailRecord> emails = new ArrayList<>();
+        int opened = 0;
+        List<String> keys;
+        synchronized (partitions) {
+            keys = new ArrayList<>(partitions.keySet());
+        }
+        for (String key : keys) {
+            if (overlaps(key, from, to)) {
+                emails.addAll(partition(key).findEmailsBetween(from, to));
+                opened++;
+            }
+        }
+        emails.sort(EmailStorageService.BY_RECEIVED_DATE);
+        logger.debug("Found {} emails between {} and {} in {} of {} partitions", emails.size(), from, to,
+            opened, keys.size());
+        return emails;
+    }
+
+    private boolean overlaps(String key, OffsetDateTime from, OffsetDateTime to) {
+        if (UNDATED.equals(key)) {
+            return false;
+        }
+        OffsetDateTime start = period.startOf(key);
+        if (start == null) {
+            return true;
+        }
+        return (to == null || start.isBefore(to)) && (from == null || period.endOf(start).isAfter(from));
+    }
+
+    @Override
+    public OffsetDateTime getLatestReceivedDateTime() throws IOException {
+        // Only the newest partition that has any emails needs to be read
+        for (EmailStorageService partition : snapshot(true)) {
+            OffsetDateTime latest = partition.getLatestReceivedDateTime();
+            if (latest != null) {
+                return latest;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getEmailContent(String emailId) throws IOException {
+        return contentStore.getEmailContent(emailId);
+    }
+
+    @Override
+    public EmailContentStore getContentStore() {
+        return contentStore;
+    }
+
+    @Override
+    public void addSaveListener(SaveListener listener) {
+        saveListeners.add(listener);
+    }
+
+    @Override
+    public Path getDataFilePath() {
+        return directory;
+    }
+
+    public List<String> getPartitionKeys() {
+        synchronized (partitions) {
+            return new ArrayList<>(partitions.keySet());
+        }
+    }
+
+    // Streams an existing single CSV into period partitions in bounded batches
+    public static int convertFromCsv(Path csvFilePath, TimePartitionedEmailStore target) throws IOException {
+        List<EmailRecord> batch = new ArrayList<>(CONVERSION_BATCH_SIZE);
+        int[] converted = {0};
+        EmailCsvCodec.scan(csvFilePath, 0, (offset, email) -> {
+            batch.add(email);
+            if (batch.size() == CONVERSION_BATCH_SIZE) {
+                converted[0] += target.appendRecords(batch).size();
+                batch.clear();
+            }
+        });
+        converted[0] += target.appendRecords(batch).size();
+        logger.info("Converted {} emails from {} into partitions under {}", converted[0], csvFilePath, target.directory);
+        return converted[0];
+    }
+
+    @Override
+    public void close() {
+        for (EmailStorageService partition : snapshot(false)) {
+            partition.close();
+        }
+        EmailStorageService.shutdownCompactionExecutor(compactionExecutor);
+    }
+
+    private String keyOf(EmailRecord email) {
+        return email.getReceivedDateTime() != null ? period.keyOf(email.getReceivedDateTime()) : UNDATED;
+    }
+
+    private EmailStorageService partition(String key) {
+        synchronized (partitions) {
+            return partitions.computeIfAbsent(key, this::open);
+        }
+    }
+
+    private EmailStorageService open(String key) {
+        return new EmailStorageService(directory.resolve(key).resolve(CSV_FILE_NAME), contentStore, config, recordCache,
+            metrics, compactionExecutor);
+    }
+
+    // Partitions oldest first, or newest dated first with the undated one last
+    private List<EmailStorageService> snapshot(boolean newestFirst) {
+        synchronized (partitions) {
+            if (!newestFirst) {
+                return new ArrayList<>(partitions.values());
+            }
+            List<EmailStorageService> snapshot = new ArrayList<>(partitions.tailMap(UNDATED, false).descendingMap().values());
+            EmailStorageService undated = partitions.get(UNDATED);
+            if (undated != null) {
+                snapshot.add(undated);
+            }
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package com.emailmanager.utils;
+
+import com.emailmanager.models.EmailRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Hand-written reader/writer for the emails CSV layout. It works directly on UTF-8 bytes: the
+// structural characters (quote, comma, newline) are ASCII, so record boundaries and byte offsets
+// are found without decoding, and only field contents are turned into Strings.
+public final class EmailCsvCodec {
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+    private static final int FIELD_COUNT = 8;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    // Files smaller than this are not worth splitting; chunks stay below the max to bound memory
+    private static final long MIN_PARALLEL_FILE_SIZE = 4L * 1024 * 1024;
+    private static final long MIN_PARALLEL_CHUNK_SIZE = 1024 * 1024;
+    private static final long MAX_PARALLEL_CHUNK_SIZE = 32L * 1024 * 1024;
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private EmailCsvCodec() {
+    }
+
+    public static List<EmailRecord> readAll(Path csvPath) throws IOException {
+        List<EmailRecord> emails = new ArrayList<>();
+        scan(csvPath, 0, (offset, email) -> emails.add(email));
+        return emails;
+    }
+
+    // Streams records starting at a record boundary, reporting the byte offset of each one
+    public static long scan(Path csvPath, long fromOffset, EmailCsvFormat.RecordConsumer consumer) throws IOException {
+        return scan(csvPath, fromOffset, Long.MAX_VALUE, false, consumer);
+    }
+
+    // Streams only the newline-terminated records before toOffset and returns the end of the last
+    // one, so a row being appended concurrently is neither parsed nor counted as covered
+    public static long scanComplete(Path csvPath, long fromOffset, long toOffset,
+                                    EmailCsvFormat.RecordConsumer consumer) throws IOException {
+        return scan(csvPath, fromOffset, toOffset, true, consumer);
+    }
+
+    private static long scan(Path csvPath, long fromOffset, long toOffset, boolean completeOnly,
+                             EmailCsvFormat.RecordConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            channel.position(fromOffset);
+            RecordReader reader = new RecordReader(channel, READ_BUFFER_SIZE, toOffset - fromOffset, completeOnly);
+            long offset = fromOffset;
+            while (reader.next()) {
+                if (reader.recordLength() > 0) {
+                    consumer.accept(offset, reader.decode());
+                }
+                offset += reader.consumed();
+            }
+            return offset;
+        }
+    }
+
+    // Same result as scan from offset 0, but the memory-mapped file is split into chunks that are
+    // decoded on the pool. Records still reach the consumer in file order, on the calling thread.
+    public static long scanParallel(Path csvPath, ForkJoinPool pool, EmailCsvFormat.RecordConsumer consumer) throws IOException {
+        return scanParallel(csvPath, pool, Files.size(csvPath), consumer);
+    }
+
+    // Like scanComplete from offset 0: only newline-terminated records before toOffset
+    public static long scanParallel(Path csvPath, ForkJoinPool pool, long toOffset,
+                                    EmailCsvFormat.RecordConsumer consumer) throws IOException {
+        long size = Math.min(Files.size(csvPath), toOffset);
+        if (pool.getParallelism() < 2 || size < MIN_PARALLEL_FILE_SIZE) {
+            return scanComplete(csvPath, 0, size, consumer);
+        }
+        long chunkSize = Math.max(MIN_PARALLEL_CHUNK_SIZE,
+            Math.min(MAX_PARALLEL_CHUNK_SIZE, size / (pool.getParallelism() * 4L)));
+        return scanParallel(csvPath, pool, chunkSize, size, consumer);
+    }
+
+    static long scanParallel(Path csvPath, ForkJoinPool pool, long chunkSize, long toOffset,
+                             EmailCsvFormat.RecordConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(csvPath, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), toOffset);
+            int chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+
+            // First pass: a chunk may start inside a quoted field, so for each chunk find the first
+            // newline reached after an even and after an odd number of quotes
+            List<ForkJoinTask<ChunkBoundary>> boundaryTasks = new ArrayList<>(chunkCount);
+            for (int i = 0; i < chunkCount; i++) {
+                long start = i * chunkSize;
+                long length = Math.min(chunkSize, size - start);
+                boundaryTasks.add(pool.submit(() -> ChunkBoundary.find(read(channel, start, length), start)));
+            }
+
+            // Quote parity carried over from the previous chunks tells which candidate is a real boundary
+            List<Long> recordStarts = new ArrayList<>(chunkCount + 1);
+            recordStarts.add(0L);
+            boolean inQuotes = false;
+            for (int i = 0; i < chunkCount; i++) {
+                ChunkBoundary boundary = join(boundaryTasks.get(i));
+                long recordStart = inQuotes ? boundary.afterOddNewline : boundary.afterEvenNewline;
+                // A chunk without a boundary (one very long record) merges into the previous range
+                if (i > 0 && recordStart > recordStarts.get(recordStarts.size() - 1) && recordStart < size) {
+                    recordStarts.add(recordStart);
+                }
+                inQuotes ^= boundary.oddQuotes;
+            }
+            recordStarts.add(size);
+
+            // Second pass: decode the ranges, keeping a bounded number in flight and consuming in order
+            int maxInFlight = pool.getParallelism() * 2;
+            Deque<ForkJoinTask<DecodedRange>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            long end = 0;
+            while (next < recordStarts.size() - 1 || !inFlight.isEmpty()) {
+                while (next < recordStarts.size() - 1 && inFlight.size() < maxInFlight) {
+                    long start = recordStarts.get(next);
+                    long rangeEnd = recordStarts.get(next + 1);
+                    inFlight.add(pool.submit(() -> DecodedRange.decode(read(channel, start, rangeEnd - start), start)));
+                    next++;
+                }
+                DecodedRange range = join(inFlight.poll());
+                for (int i = 0; i < range.emails.size(); i++) {
+                    consumer.accept(range.offsets[i], range.emails.get(i));
+                }
+                end = range.end;
+            }
+            return end;
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long start, long length) {
+        try {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            byte[] bytes = new byte[(int) length];
+            mapped.get(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ChunkBoundary {
+        long afterEvenNewline = -1;
+        long afterOddNewline = -1;
+        boolean oddQuotes;
+
+        static ChunkBoundary find(byte[] bytes, long start) {
+            ChunkBoundary boundary = new ChunkBoundary();
+            boolean odd = false;
+            for (int i = 0; i < bytes.length; i++) {
+                byte b = bytes[i];
+                if (b == QUOTE) {
+                    odd = !odd;
+                } else if (b == NEWLINE) {
+                    if (!odd && boundary.afterEvenNewline < 0) {
+                        boundary.afterEvenNewline = start + i + 1;
+                    } else if (odd && boundary.afterOddNewline < 0) {
+                        boundary.afterOddNewline = start + i + 1;
+                    }
+                }
+            }
+            boundary.oddQuotes = odd;
+            return boundary;
+        }
+    }
+
+    private static class DecodedRange {
+        final List<EmailRecord> emails = new ArrayList<>();
+        long[] offsets = new long[64];
+        // Just past the last newline-terminated record
+        long end;
+
+        static DecodedRange decode(byte[] bytes, long start) {
+            DecodedRange range = new DecodedRange();
+            try {
+                RecordReader reader = new RecordReader(bytes);
+                long offset = start;
+                while (reader.next()) {
+                    if (reader.recordLength() > 0) {
+                        if (range.emails.size() == range.offsets.length) {
+                            range.offsets = Arrays.copyOf(range.offsets, range.offsets.length * 2);
+                        }
+                        range.offsets[range.emails.size()] = offset;
+                        range.emails.add(reader.decode());
+                    }
+                    offset += reader.consumed();
+                }
+                range.end = offset;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return range;
+        }
+    }
+
+    public static EmailRecord readRecordAt(FileChannel channel, long offset) throws IOException {
+        channel.position(offset);
+        RecordReader reader = new RecordReader(channel, 4096, Long.MAX_VALUE, false);
+        return reader.next() && reader.recordLength() > 0 ? reader.decode() : null;
+    }
+
+    public static byte[] encode(EmailRecord email) {
+        RowEncoder encoder = new RowEncoder();
+        encoder.field(email.getId());
+        encoder.field(email.getSubject());
+        encoder.field(email.getReceivedDateTime() != null ? email.getReceivedDateTime().format(formatter) : "");
+        encoder.field(email.getFrom());
+        encoder.field(email.getInternetMessageId());
+        encoder.field(email.getConversationId());
+        encoder.field(email.getReferences());
+        encoder.field(email.getMessageType());
+        return encoder.finish();
+    }
+
+    // Fast path for the canonical ISO_OFFSET_DATE_TIME output; anything else goes through the formatter
+    static OffsetDateTime parseDateTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            int length = value.length();
+            if (length >= 17 && value.charAt(4) == '-' && value.charAt(7) == '-' && value.charAt(10) == 'T'
+                    && value.charAt(13) == ':') {
+                int year = digits(value, 0, 4);
+                int month = digits(value, 5, 2);
+                int day = digits(value, 8, 2);
+                int hour = digits(value, 11, 2);
+                int minute = digits(value, 14, 2);
+                int second = 0;
+                int nanos = 0;
+                int position = 16;
+                if (position < length && value.charAt(position) == ':') {
+                    second = digits(value, position + 1, 2);
+                    position += 3;
+                    if (position < length && value.charAt(position) == '.') {
+                        int start = ++position;
+                        while (position < length && Character.isDigit(value.charAt(position))) {
+                            position++;
+                        }
+                        int fractionDigits = position - start;
+                        if (fractionDigits == 0 || fractionDigits > 9) {
+                            return EmailCsvFormat.parseDateTime(value);
+                        }
+                        nanos = digits(value, start, fractionDigits);
+                        for (int i = fractionDigits; i < 9; i++) {
+                            nanos *= 10;
+                        }
+                    }
+                }
+                ZoneOffset offset = parseOffset(value, position);
+                if (offset != null) {
+                    return OffsetDateTime.of(year, month, day, hour, minute, second, nanos, offset);
+                }
+            }
+        } catch (NumberFormatException | DateTimeException e) {
+            // Fall through to the full formatter, which reports the error properly
+        }
+        return EmailCsvFormat.parseDateTime(value);
+    }
+
+    private static ZoneOffset parseOffset(String value, int position) {
+        int remaining = value.length() - position;
+        if (remaining == 1 && value.charAt(position) == 'Z') {
+            return ZoneOffset.UTC;
+        }
+        if (remaining == 6 && value.charAt(position + 3) == ':') {
+            char sign = value.charAt(position);
+            if (sign == '+' || sign == '-') {
+                int hours = digits(value, position + 1, 2);
+                int minutes = digits(value, position + 4, 2);
+                // ZoneOffset caches instances for whole quarter hours
+                return sign == '+' ? ZoneOffset.ofHoursMinutes(hours, minutes) : ZoneOffset.ofHoursMinutes(-hours, -minutes);
+            }
+        }
+        return null;
+    }
+
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(value);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    // Reads whole records into a reusable byte buffer that is refilled from the channel
+    private static class RecordReader {
+        private final FileChannel channel;
+        private byte[] buffer;
+        private ByteBuffer view;
+        private int position;
+        private int limit;
+        private int recordStart;
+        private int recordEnd;
+        private int consumed;
+        private boolean endOfFile;
+        // Bytes the reader may still take from the channel
+        private long readLimit;
+        // Whether a final record without a trailing newline is dropped rather than returned
+        private final boolean completeOnly;
+        private final String[] fields = new String[FIELD_COUNT];
+        private byte[] scratch = new byte[256];
+
+        RecordReader(FileChannel channel, int bufferSize, long readLimit, boolean completeOnly) {
+            this.channel = channel;
+            this.buffer = new byte[bufferSize];
+            this.view = ByteBuffer.wrap(buffer);
+            this.readLimit = readLimit;
+            this.completeOnly = completeOnly;
+        }
+
+        // Over bytes already in memory, such as one range of a parallel scan; the range ends at a
+        // record boundary or at the end of the scan, where only complete records are returned
+        RecordReader(byte[] bytes) {
+            this.channel = null;
+            this.buffer = bytes;
+            this.view = ByteBuffer.wrap(bytes);
+            this.limit = bytes.length;
+            this.endOfFile = true;
+            this.completeOnly = true;
+        }
+
+        boolean next() throws IOException {
+            position += consumed;
+            int scanFrom = position;
+            boolean inQuotes = false;
+            while (true) {
+                for (int i = scanFrom; i < limit; i++) {
+                    byte b = buffer[i];
+                    if (b == QUOTE) {
+                        inQuotes = !inQuotes;
+                    } else if (b == NEWLINE && !inQuotes) {
+                        recordStart = position;
+                        recordEnd = i > position && buffer[i - 1] == CARRIAGE_RETURN ? i - 1 : i;
+                        consumed = i + 1 - position;
+                        return true;
+                    }
+                }
+                scanFrom = limit - position;
+                if (!fill()) {
+                    // Final record without a trailing newline
+                    if (limit > position && !completeOnly) {
+                        recordStart = position;
+                        recordEnd = limit;
+                        consumed = limit - position;
+                        return true;
+                    }
+                    consumed = 0;
+                    return false;
+                }
+                scanFrom += position;
+            }
+        }
+
+        // Moves the partial record to the front of the buffer (growing it if needed) and reads more
+        private boolean fill() throws IOException {
+            if (endOfFile || readLimit <= 0) {
+                return false;
+            }
+            int remaining = limit - position;
+            if (remaining == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                System.arraycopy(buffer, position, buffer, 0, remaining);
+            }
+            view = ByteBuffer.wrap(buffer);
+            position = 0;
+            limit = remaining;
+            view.position(limit);
+            view.limit((int) Math.min(buffer.length, limit + readLimit));
+            int read = channel.read(view);
+            if (read <= 0) {
+                endOfFile = true;
+                return false;
+            }
+            limit += read;
+            readLimit -= read;
+            return true;
+        }
+
+        int recordLength() {
+            return recordEnd - recordStart;
+        }
+
+        long consumed() {
+            return consumed;
+        }
+
+        EmailRecord decode() {
+            Arrays.fill(fields, "");
+            int i = recordStart;
+            int field = 0;
+            while (i <= recordEnd && field < FIELD_COUNT) {
+                if (i < recordEnd && buffer[i] == QUOTE) {
+                    int start = i + 1;
+                    int j = start;
+                    boolean escaped = false;
+                    while (j < recordEnd) {
+                        if (buffer[j] == QUOTE) {
+                            if (j + 1 < recordEnd && buffer[j + 1] == QUOTE) {
+                                escaped = true;
+                                j += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        j++;
+                    }
+                    fields[field++] = escaped ? unescape(start, j) : new String(buffer, start, j - start, StandardCharsets.UTF_8);
+                    i = j + 1;
+                    // Skip anything between the closing quote and the separator
+                    while (i < recordEnd && buffer[i] != COMMA) {
+                        i++;
+                    }
+                } else {
+                    int start = i;
+                    while (i < recordEnd && buffer[i] != COMMA) {
+                        i++;
+                    }
+                    fields[field++] = new String(buffer, start, i - start, StandardCharsets.UTF_8);
+                }
+                i++;
+            }
+
+            // Message type is derived from References by the constructor, so column 7 is not read back
+            return new EmailRecord(fields[0], fields[1], parseDateTime(fields[2]), fields[3],
+                fields[4], fields[5], fields[6]);
+        }
+
+        private String unescape(int start, int end) {
+            if (scratch.length < end - start) {
+                scratch = new byte[end - start];
+            }
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                scratch[length++] = buffer[i];
+                if (buffer[i] == QUOTE) {
+                    i++;
+                }
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Writes every field quoted with embedded quotes doubled, as CSVWriter does by default
+    private static class RowEncoder {
+        private byte[] bytes = new byte[256];
+        private int length;
+        private boolean first = true;
+
+        void field(String value) {
+            byte[] encoded = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(encoded.length * 2 + 3);
+            if (!first) {
+                bytes[length++] = COMMA;
+            }
+            first = false;
+            bytes[length++] = QUOTE;
+            for (byte b : encoded) {
+                if (b == QUOTE) {
+                    bytes[length++] = QUOTE;
+                }
+                bytes[length++] = b;
+            }
+            bytes[length++] = QUOTE;
+        }
+
+        byte[] finish() {
+            ensureCapacity(1);
+            bytes[length++] = NEWLINE;
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+    }
+}
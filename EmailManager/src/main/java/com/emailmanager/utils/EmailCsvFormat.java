@@ -0,0 +1,56 @@
+package com.emailmanager.utils;
+
+import com.emailmanager.models.EmailRecord;
+import com.opencsv.CSVWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Row layout shared by every reader and writer of the emails CSV, matching the
+// @CsvBindByPosition order in EmailRecord
+public final class EmailCsvFormat {
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long offset, EmailRecord email) throws IOException;
+    }
+
+    private EmailCsvFormat() {
+    }
+
+    public static String[] toRow(EmailRecord email) {
+        return new String[] {
+            nullToEmpty(email.getId()),
+            nullToEmpty(email.getSubject()),
+            email.getReceivedDateTime() != null ? email.getReceivedDateTime().format(formatter) : "",
+            nullToEmpty(email.getFrom()),
+            nullToEmpty(email.getInternetMessageId()),
+            nullToEmpty(email.getConversationId()),
+            nullToEmpty(email.getReferences()),
+            nullToEmpty(email.getMessageType())
+        };
+    }
+
+    public static OffsetDateTime parseDateTime(String value) {
+        return value == null || value.isEmpty() ? null : OffsetDateTime.parse(value, formatter);
+    }
+
+    // Encodes one record exactly as StatefulBeanToCsv writes it: every field quoted, "\n" terminated
+    public static byte[] encode(EmailRecord email) {
+        StringWriter out = new StringWriter(256);
+        try (CSVWriter writer = new CSVWriter(out)) {
+            writer.writeNext(toRow(email));
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to a StringWriter cannot fail", e);
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
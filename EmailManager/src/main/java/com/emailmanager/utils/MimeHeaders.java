@@ -0,0 +1,200 @@
+package com.emailmanager.utils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Minimal RFC 5322 header reader for imported messages: only the header block is looked at, folded
+// lines are joined, and RFC 2047 encoded words are decoded on request. Header names are case
+// insensitive; the first occurrence of a header wins.
+public final class MimeHeaders {
+    private static final Pattern ENCODED_WORD = Pattern.compile("=\\?([^?]+)\\?([bBqQ])\\?([^?]*)\\?=");
+    // Whitespace between two adjacent encoded words is not part of the text
+    private static final Pattern BETWEEN_ENCODED_WORDS = Pattern.compile("(\\?=)\\s+(=\\?)");
+    private static final Pattern ADDRESS_IN_BRACKETS = Pattern.compile("<([^<>\\s]+@[^<>\\s]+)>");
+    private static final Pattern BARE_ADDRESS = Pattern.compile("([^\\s<>\"(),;:]+@[^\\s<>\"(),;:]+)");
+    private static final Pattern MESSAGE_ID = Pattern.compile("<[^<>\\s]+>");
+    private static final Pattern COMMENT = Pattern.compile("\\([^()]*\\)");
+    private static final DateTimeFormatter RFC_1123 = DateTimeFormatter.RFC_1123_DATE_TIME;
+    private static final Map<String, String> OBSOLETE_ZONES = Map.of(
+        "UT", "+0000", "Z", "+0000", "EST", "-0500", "EDT", "-0400", "CST", "-0600", "CDT", "-0500",
+        "MST", "-0700", "MDT", "-0600", "PST", "-0800", "PDT", "-0700");
+
+    private final Map<String, String> headers;
+
+    private MimeHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    // Reads the headers up to the first empty line; the header block is taken as ISO-8859-1, so
+    // raw 8-bit bytes survive and can be re-decoded as UTF-8
+    public static MimeHeaders parse(byte[] message) {
+        Map<String, String> headers = new HashMap<>();
+        String name = null;
+        StringBuilder value = new StringBuilder();
+        int position = 0;
+        while (position < message.length) {
+            int end = position;
+            while (end < message.length && message[end] != '\n') {
+                end++;
+            }
+            int lineEnd = end > position && message[end - 1] == '\r' ? end - 1 : end;
+            if (lineEnd == position) {
+                break;
+            }
+            String line = new String(message, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && name != null) {
+                value.append(' ').append(line.trim());
+            } else {
+                put(headers, name, value);
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                    value.setLength(0);
+                    value.append(line.substring(colon + 1).trim());
+                } else {
+                    // Not a header, e.g. an mbox "From " line left at the start of a message
+                    name = null;
+                }
+            }
+            position = end + 1;
+        }
+        put(headers, name, value);
+        return new MimeHeaders(headers);
+    }
+
+    private static void put(Map<String, String> headers, String name, StringBuilder value) {
+        if (name != null) {
+            headers.putIfAbsent(name, toUtf8(value.toString()));
+        }
+    }
+
+    // Undoes the ISO-8859-1 reading when the bytes are valid UTF-8, as 8-bit headers usually are
+    private static String toUtf8(String latin1) {
+        byte[] bytes = latin1.getBytes(StandardCharsets.ISO_8859_1);
+        String utf8 = new String(bytes, StandardCharsets.UTF_8);
+        return utf8.indexOf('\uFFFD') < 0 ? utf8 : latin1;
+    }
+
+    public String get(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    public String getDecoded(String name) {
+        String value = get(name);
+        return value != null ? decodeEncodedWords(value) : null;
+    }
+
+    // The addr-spec of the first mailbox, e.g. "a@example.com" for "A <a@example.com>"
+    public String getAddress(String name) {
+        String value = get(name);
+        if (value == null) {
+            return null;
+        }
+        Matcher bracketed = ADDRESS_IN_BRACKETS.matcher(value);
+        if (bracketed.find()) {
+            return bracketed.group(1);
+        }
+        Matcher bare = BARE_ADDRESS.matcher(value);
+        return bare.find() ? bare.group(1) : decodeEncodedWords(value);
+    }
+
+    // The message IDs in a header such as References, space separated, or null if there are none
+    public String getMessageIds(String name) {
+        String value = get(name);
+        if (value == null) {
+            return null;
+        }
+        StringBuilder ids = new StringBuilder();
+        Matcher matcher = MESSAGE_ID.matcher(value);
+        while (matcher.find()) {
+            if (ids.length() > 0) {
+                ids.append(' ');
+            }
+            ids.append(matcher.group());
+        }
+        return ids.length() > 0 ? ids.toString() : null;
+    }
+
+    public OffsetDateTime getDate(String name) {
+        String value = get(name);
+        return value != null ? parseDate(value) : null;
+    }
+
+    // RFC 5322 dates, tolerating comments such as "(UTC)", a missing day of week and obsolete zone
+    // names; null if the value cannot be read
+    static OffsetDateTime parseDate(String value) {
+        String cleaned = COMMENT.matcher(value).replaceAll(" ").trim().replaceAll("\\s+", " ");
+        int space = cleaned.lastIndexOf(' ');
+        if (space > 0) {
+            String zone = OBSOLETE_ZONES.get(cleaned.substring(space + 1).toUpperCase(Locale.ROOT));
+            if (zone != null) {
+                cleaned = cleaned.substring(0, space + 1) + zone;
+            }
+        }
+        try {
+            return OffsetDateTime.parse(cleaned, RFC_1123);
+        } catch (DateTimeException e) {
+            // Some clients write the day of week wrongly; the date itself is still usable
+            int comma = cleaned.indexOf(',');
+            if (comma > 0) {
+                try {
+                    return OffsetDateTime.parse(cleaned.substring(comma + 1).trim(), RFC_1123);
+                } catch (DateTimeException ignored) {
+                    // Fall through
+                }
+            }
+            return null;
+        }
+    }
+
+    public static String decodeEncodedWords(String value) {
+        if (!value.contains("=?")) {
+            return value;
+        }
+        Matcher matcher = ENCODED_WORD.matcher(BETWEEN_ENCODED_WORDS.matcher(value).replaceAll("$1$2"));
+        StringBuilder decoded = new StringBuilder();
+        while (matcher.find()) {
+            String replacement;
+            try {
+                Charset charset = Charset.forName(matcher.group(1).split("\\*")[0]);
+                byte[] bytes = "B".equalsIgnoreCase(matcher.group(2))
+                    ? Base64.getMimeDecoder().decode(matcher.group(3))
+                    : decodeQ(matcher.group(3));
+                replacement = new String(bytes, charset);
+            } catch (IllegalArgumentException e) {
+                // Unknown charset or bad encoding: keep the word as it was
+                replacement = matcher.group();
+            }
+            matcher.appendReplacement(decoded, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(decoded);
+        return decoded.toString();
+    }
+
+    private static byte[] decodeQ(String text) {
+        byte[] bytes = new byte[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '_') {
+                bytes[length++] = ' ';
+            } else if (c == '=' && i + 2 < text.length()) {
+                bytes[length++] = (byte) Integer.parseInt(text.substring(i + 1, i + 3), 16);
+                i += 2;
+            } else {
+                bytes[length++] = (byte) c;
+            }
+        }
+        return Arrays.copyOf(bytes, length);
+    }
+}
@@ -0,0 +1,67 @@
+package com.emailmanager.utils;
+
+public class TokenBucket {
+    private final double maxRate;
+    private final double minRate;
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+
+    public TokenBucket(double ratePerSecond) {
+        this.maxRate = ratePerSecond;
+        this.minRate = Math.max(ratePerSecond / 32, 0.1);
+        this.rate = ratePerSecond;
+        // Allow a burst of up to one second worth of requests
+        this.tokens = Math.max(1, ratePerSecond);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+        while ((waitNanos = tryAcquire()) > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    // Returns 0 when a token was taken, otherwise the time to wait before trying again
+    private synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now < pausedUntilNanos) {
+            return pausedUntilNanos - now;
+        }
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) ((1 - tokens) / rate * 1_000_000_000L);
+    }
+
+    private void refill(long now) {
+        double capacity = Math.max(1, rate);
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * rate);
+        lastRefillNanos = now;
+    }
+
+    // Multiplicative decrease: called when the service reports throttling
+    public synchronized void throttle(long pauseMillis) {
+        long now = System.nanoTime();
+        refill(now);
+        rate = Math.max(minRate, rate / 2);
+        tokens = 0;
+        pausedUntilNanos = Math.max(pausedUntilNanos, now + pauseMillis * 1_000_000L);
+    }
+
+    // Additive increase: called after successful requests to probe back towards the configured rate
+    public synchronized void recover() {
+        if (rate < maxRate) {
+            refill(System.nanoTime());
+            rate = Math.min(maxRate, rate + maxRate / 100);
+        }
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+}
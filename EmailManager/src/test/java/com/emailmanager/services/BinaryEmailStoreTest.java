@@ -0,0 +1,186 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryEmailStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private final OffsetDateTime now = OffsetDateTime.parse("2024-04-10T12:30:00+02:00");
+
+    private BinaryEmailStore openStore() throws Exception {
+        return new BinaryEmailStore(tempDir.resolve("emails.bin"), new EmailContentStore(tempDir.resolve("storage")));
+    }
+
+    @Test
+    void saveAndReopen() throws Exception {
+        BinaryEmailStore store = openStore();
+        store.saveEmails(Arrays.asList(
+            new EmailRecord("1", "Original", now.minusHours(2), "alice@test.com", "msg1", "conv-1", null),
+            new EmailRecord("2", "Reply 1", now.minusHours(1), "bob@test.com", "msg2", "conv-1", "msg1")
+        ));
+        store.saveEmails(Arrays.asList(
+            new EmailRecord("2", "Reply 1", now.minusHours(1), "bob@test.com", "msg2", "conv-1", "msg1"),
+            new EmailRecord("3", "Other", now, "Alice@test.com", "msg3", "conv-2", null)
+        ));
+        store.close();
+
+        BinaryEmailStore reopened = openStore();
+        List<EmailRecord> emails = reopened.loadEmails();
+        assertEquals(3, emails.size());
+        assertEquals("Reply", reopened.findEmailById("2").getMessageType());
+        assertEquals(now, reopened.findEmailById("3").getReceivedDateTime());
+        assertEquals(now, reopened.getLatestReceivedDateTime());
+
+        List<EmailRecord> thread = reopened.getConversationThread("conv-1");
+        assertEquals(2, thread.size());
+        assertEquals("Original", thread.get(0).getSubject());
+        assertEquals(2, reopened.findEmailsFrom("alice@test.com").size());
+        reopened.close();
+    }
+
+    @Test
+    void compactKeepsAllEmailsInDateOrder() throws Exception {
+        BinaryEmailStore store = openStore();
+        store.saveEmails(Arrays.asList(new EmailRecord("1", "Newer", now, "a@test.com", "msg1", "conv-1", null)));
+        store.saveEmails(Arrays.asList(new EmailRecord("2", "Older", now.minusDays(1), "b@test.com", "msg2", "conv-2", null)));
+
+        store.compact();
+        store.close();
+
+        BinaryEmailStore reopened = openStore();
+        List<EmailRecord> emails = reopened.loadEmails();
+        assertEquals(2, emails.size());
+        assertEquals("Older", emails.get(0).getSubject());
+        assertEquals("Newer", emails.get(1).getSubject());
+        reopened.close();
+    }
+
+    @Test
+    void listEmailsSpansSegments() throws Exception {
+        BinaryEmailStore store = openStore();
+        store.saveEmails(Arrays.asList(
+            new EmailRecord("1", "First", now.minusHours(3), "a@test.com", "msg1", "conv-1", null),
+            new EmailRecord("2", "Second", now.minusHours(2), "a@test.com", "msg2", "conv-1", null)));
+        store.saveEmails(Arrays.asList(
+            new EmailRecord("3", "Third", now.minusHours(1), "a@test.com", "msg3", "conv-1", null),
+            new EmailRecord("4", "Fourth", now, "a@test.com", "msg4", "conv-1", null)));
+
+        assertEquals(4, store.count());
+        List<EmailRecord> page = store.listEmails(1, 2);
+        assertEquals("Second", page.get(0).getSubject());
+        assertEquals("Third", page.get(1).getSubject());
+        assertEquals(1, store.listEmails(3, 10).size());
+        assertTrue(store.listEmails(4, 10).isEmpty());
+        store.close();
+    }
+
+    @Test
+    void mergesSegmentsInTheBackground() throws Exception {
+        BinaryEmailStore store = openStore();
+        for (int i = 0; i < 200; i++) {
+            store.saveEmails(Arrays.asList(new EmailRecord("id-" + i, "Subject " + i, now.plusMinutes(i),
+                "a@test.com", "msg" + i, "conv-" + (i % 3), null)));
+        }
+        store.close();
+
+        // Tiers of similar size leave a logarithmic number of segments
+        long segmentFiles;
+        try (Stream<Path> files = Files.list(tempDir.resolve("emails.bin"))) {
+            segmentFiles = files.filter(f -> f.getFileName().toString().endsWith(".seg")).count();
+        }
+        assertTrue(segmentFiles <= 16, "segments: " + segmentFiles);
+
+        BinaryEmailStore reopened = openStore();
+        assertEquals(200, reopened.count());
+        assertEquals("Subject 0", reopened.listEmails(0, 1).get(0).getSubject());
+        assertEquals("Subject 137", reopened.findEmailById("id-137").getSubject());
+        assertEquals(67, reopened.getConversationThread("conv-1").size());
+        reopened.close();
+    }
+
+    @Test
+    void segmentsStayBelowSizeCap() throws Exception {
+        BinaryEmailStore store = new BinaryEmailStore(tempDir.resolve("emails.bin"),
+            new EmailContentStore(tempDir.resolve("storage")), 4096);
+        for (int i = 0; i < 10; i++) {
+            List<EmailRecord> batch = new ArrayList<>();
+            for (int j = 0; j < 20; j++) {
+                int n = i * 20 + j;
+                batch.add(new EmailRecord("id-" + n, "Subject ü " + n, now.minusMinutes(n), "a@test.com", "msg" + n,
+                    "conv-1", null));
+            }
+            store.saveEmails(batch);
+        }
+        store.compact();
+        store.close();
+
+        List<Path> segmentFiles;
+        try (Stream<Path> files = Files.list(tempDir.resolve("emails.bin"))) {
+            segmentFiles = files.filter(f -> f.getFileName().toString().endsWith(".seg")).collect(Collectors.toList());
+        }
+        assertTrue(segmentFiles.size() > 1);
+        for (Path file : segmentFiles) {
+            assertTrue(Files.size(file) <= 4096, file + ": " + Files.size(file));
+        }
+
+        BinaryEmailStore reopened = openStore();
+        List<EmailRecord> emails = reopened.loadEmails();
+        assertEquals(200, emails.size());
+        assertEquals("Subject ü 199", emails.get(0).getSubject());
+        assertEquals("Subject ü 0", emails.get(199).getSubject());
+        reopened.close();
+    }
+
+    @Test
+    void convertFromCsv() throws Exception {
+        EmailStorageService csvStore = new EmailStorageService(tempDir.resolve("csv"), "emails.csv");
+        csvStore.saveEmails(Arrays.asList(
+            new EmailRecord("1", "First, \"quoted\"", now.minusHours(1), "a@test.com", "msg1", "conv-1", null),
+            new EmailRecord("2", "Second", now, "b@test.com", "msg2", "conv-1", "msg1")
+        ));
+        csvStore.close();
+
+        BinaryEmailStore store = openStore();
+        assertEquals(2, BinaryEmailStore.convertFromCsv(csvStore.getCsvFilePath(), store));
+        assertEquals("First, \"quoted\"", store.findEmailById("1").getSubject());
+        assertEquals(2, store.getConversationThread("conv-1").size());
+        store.close();
+    }
+
+    @Test
+    void resumesInterruptedConversion() throws Exception {
+        EmailStorageService csvStore = new EmailStorageService(tempDir, "emails.csv");
+        csvStore.saveEmails(Arrays.asList(
+            new EmailRecord("1", "First", now.minusHours(2), "a@test.com", "msg1", "conv-1", null),
+            new EmailRecord("2", "Second", now.minusHours(1), "a@test.com", "msg2", "conv-1", null),
+            new EmailRecord("3", "Third", now, "a@test.com", "msg3", "conv-1", null)
+        ));
+        csvStore.close();
+        // A conversion that stopped after its first batch left records but no completion marker
+        BinaryEmailStore partial = openStore();
+        partial.appendRecords(csvStore.loadEmails().subList(0, 1));
+        partial.close();
+
+        EmailConfig config = new EmailConfig();
+        config.setStorageFormat("binary");
+        EmailStore store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+        assertEquals(3, store.count());
+        store.close();
+        assertTrue(Files.exists(tempDir.resolve("emails.bin").resolve("conversion-complete")));
+    }
+}
@@ -0,0 +1,72 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactEmailRecordsTest {
+    private final List<EmailRecord> emails = Arrays.asList(
+        new EmailRecord("1", "Plain subject", OffsetDateTime.parse("2024-03-01T08:00Z"), "a@test.com",
+            "<msg1@test>", "conv-1", null),
+        new EmailRecord("2", "Ünïcödé, \"quotes\"\nand a newline", OffsetDateTime.parse("2024-03-01T09:30:15.123+05:30"),
+            "b@test.com", "<msg2@test>", "conv-1", "<msg1@test>"),
+        new EmailRecord("3", null, null, null, null, null, ""),
+        new EmailRecord("1", "Duplicate ID", OffsetDateTime.parse("2024-03-02T23:59:59.000000001-08:00"),
+            "a@test.com", "<msg4@test>", "conv-2", null)
+    );
+
+    @Test
+    void materializesEqualRecords() {
+        CompactEmailRecords compact = CompactEmailRecords.of(emails);
+
+        assertEquals(emails.size(), compact.size());
+        for (int i = 0; i < emails.size(); i++) {
+            assertRecordEquals(emails.get(i), compact.get(i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> compact.get(emails.size()));
+    }
+
+    @Test
+    void findsFirstRecordById() {
+        CompactEmailRecords compact = CompactEmailRecords.of(emails);
+
+        assertEquals("Plain subject", compact.findById("1").getSubject());
+        assertEquals("2", compact.findById("2").getId());
+        assertNull(compact.findById("missing"));
+        assertNull(compact.findById(null));
+    }
+
+    @Test
+    void spansChunksAndGrowsColumns() {
+        List<EmailRecord> many = new ArrayList<>();
+        String longSubject = "x".repeat(2000);
+        for (int i = 0; i < 3000; i++) {
+            many.add(new EmailRecord("id-" + i, longSubject + i, OffsetDateTime.parse("2024-03-01T08:00Z").plusMinutes(i),
+                "sender" + (i % 7) + "@test.com", "<msg" + i + "@test>", "conv-" + (i / 5), null));
+        }
+        CompactEmailRecords compact = CompactEmailRecords.of(many);
+
+        for (int i = 0; i < many.size(); i += 499) {
+            assertRecordEquals(many.get(i), compact.get(i));
+            assertRecordEquals(many.get(i), compact.findById("id-" + i));
+        }
+        assertTrue(compact.estimatedBytes() > 3000L * 2000);
+    }
+
+    private static void assertRecordEquals(EmailRecord expected, EmailRecord actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getSubject(), actual.getSubject());
+        assertEquals(expected.getReceivedDateTime(), actual.getReceivedDateTime());
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getInternetMessageId(), actual.getInternetMessageId());
+        assertEquals(expected.getConversationId(), actual.getConversationId());
+        assertEquals(expected.getReferences(), actual.getReferences());
+        assertEquals(expected.getMessageType(), actual.getMessageType());
+    }
+}
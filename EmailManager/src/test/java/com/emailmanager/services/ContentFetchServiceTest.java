@@ -0,0 +1,145 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentFetchServiceTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void downloadsContentForEnqueuedEmails() throws Exception {
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"));
+        Path journal = tempDir.resolve("content-fetch.journal");
+
+        try (ContentFetchService service = new ContentFetchService(
+                (id, consumer) -> consumer.accept(mime(id)), contentStore, journal, 4)) {
+            service.enqueue(records(20));
+            service.awaitIdle();
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("MIME " + i, contentStore.getEmailContent(String.valueOf(i)));
+        }
+        assertEquals(0, Files.size(journal));
+    }
+
+    @Test
+    void journalsBatchBeforeItIsSaved() throws Exception {
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"));
+        Path journal = tempDir.resolve("content-fetch.journal");
+
+        // Interrupted between journaling and enqueueing: every ID of the batch is left to the next run
+        try (ContentFetchService service = new ContentFetchService(
+                (id, consumer) -> consumer.accept(mime(id)), contentStore, journal, 2)) {
+            service.journal(records(5));
+        }
+        assertEquals(5, ContentFetchService.readJournal(journal).size());
+
+        // Only the IDs the save reported as new stay queued
+        try (ContentFetchService service = new ContentFetchService(
+                (id, consumer) -> consumer.accept(mime(id)), contentStore, journal, 2)) {
+            List<EmailRecord> batch = records(8);
+            Set<String> journaled = service.journal(batch);
+            assertEquals(3, journaled.size());
+            service.enqueue(batch.subList(6, 8), journaled);
+            service.awaitIdle();
+            assertEquals(5, ContentFetchService.readJournal(journal).size());
+            assertTrue(contentStore.hasContent("7"));
+            assertFalse(contentStore.hasContent("5"));
+        }
+    }
+
+    @Test
+    void resumesFailedDownloadsOnNextRun() throws Exception {
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"));
+        Path journal = tempDir.resolve("content-fetch.journal");
+
+        try (ContentFetchService service = new ContentFetchService((id, consumer) -> {
+                if (id.equals("3")) {
+                    throw new IOException("connection reset");
+                }
+                consumer.accept(mime(id));
+            }, contentStore, journal, 2)) {
+            service.enqueue(records(5));
+            service.awaitIdle();
+        }
+        assertEquals(1, ContentFetchService.readJournal(journal).size());
+        assertFalse(contentStore.hasContent("3"));
+
+        try (ContentFetchService service = new ContentFetchService(
+                (id, consumer) -> consumer.accept(mime(id)), contentStore, journal, 2)) {
+            assertEquals(1, service.resumePending());
+            service.awaitIdle();
+        }
+        assertEquals("MIME 3", contentStore.getEmailContent("3"));
+        assertTrue(ContentFetchService.readJournal(journal).isEmpty());
+    }
+
+    @Test
+    void interruptedEnqueueDoesNotBlockAwaitIdle() throws Exception {
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"));
+        Path journal = tempDir.resolve("content-fetch.journal");
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ContentFetchService service = new ContentFetchService((id, consumer) -> {
+                release.await();
+                consumer.accept(mime(id));
+            }, contentStore, journal, 1)) {
+            // One worker queues 250 downloads; the 251st waits for a permit until interrupted
+            Thread enqueuer = new Thread(() -> {
+                try {
+                    service.enqueue(records(300));
+                } catch (IOException | InterruptedException ignored) {
+                    // Expected
+                }
+            });
+            enqueuer.start();
+            while (enqueuer.getState() != Thread.State.WAITING) {
+                Thread.sleep(10);
+            }
+            enqueuer.interrupt();
+            enqueuer.join();
+            release.countDown();
+
+            assertTimeoutPreemptively(Duration.ofSeconds(10), service::awaitIdle);
+        }
+        assertEquals(50, ContentFetchService.readJournal(journal).size());
+    }
+
+    @Test
+    void ignoresTornJournalLine() throws Exception {
+        Path journal = tempDir.resolve("content-fetch.journal");
+        Files.writeString(journal, "+a\n+b\n-a\n+c-partial");
+
+        assertEquals(List.of("b"), new ArrayList<>(ContentFetchService.readJournal(journal)));
+    }
+
+    private static ByteArrayInputStream mime(String id) {
+        return new ByteArrayInputStream(("MIME " + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<EmailRecord> records(int count) {
+        List<EmailRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new EmailRecord(String.valueOf(i), "Subject " + i, OffsetDateTime.now(),
+                "sender@test.com", "msg" + i, "conv", null));
+        }
+        return records;
+    }
+}
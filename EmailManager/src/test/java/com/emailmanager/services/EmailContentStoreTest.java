@@ -0,0 +1,77 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailContentStoreTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void storesContentInShardedDirectories() throws Exception {
+        EmailContentStore store = new EmailContentStore(tempDir);
+        EmailRecord email = new EmailRecord("AAMk/abc+def==", "Subject", OffsetDateTime.now(),
+            "sender@test.com", "msg1", "conv1", null);
+
+        assertEquals(1, store.saveEmailContents(Arrays.asList(email)));
+
+        assertTrue(store.hasContent(email.getId()));
+        assertTrue(store.getEmailContent(email.getId()).contains("Subject: Subject"));
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertTrue(files.filter(Files::isRegularFile)
+                .allMatch(p -> tempDir.relativize(p).getNameCount() == 3));
+        }
+    }
+
+    @Test
+    void readsCompressedAndUncompressedContent() throws Exception {
+        EmailRecord plain = new EmailRecord("1", "Plain", OffsetDateTime.now(), "a@test.com", "msg1", "conv1", null);
+        EmailRecord gzipped = new EmailRecord("2", "Gzipped", OffsetDateTime.now(), "b@test.com", "msg2", "conv1", "msg1");
+        new EmailContentStore(tempDir, false).saveEmailContent(plain);
+        EmailContentStore compressed = new EmailContentStore(tempDir, true);
+        compressed.saveEmailContent(gzipped);
+
+        assertTrue(compressed.getEmailContent("1").contains("Subject: Plain"));
+        assertTrue(compressed.getEmailContent("2").contains("Subject: Gzipped"));
+        assertTrue(new EmailContentStore(tempDir).getEmailContent("2").contains("References: msg1"));
+    }
+
+    @Test
+    void rewriteInOtherFormatReplacesEarlierContent() throws Exception {
+        EmailRecord email = new EmailRecord("1", "Stub", OffsetDateTime.now(), "a@test.com", "msg1", "conv1", null);
+        new EmailContentStore(tempDir, false).saveEmailContent(email);
+        new EmailContentStore(tempDir, true).writeContent("1",
+            new ByteArrayInputStream("Subject: Full MIME\r\n".getBytes(StandardCharsets.UTF_8)));
+
+        EmailContentStore plain = new EmailContentStore(tempDir, false);
+        assertEquals("Subject: Full MIME\r\n", plain.getEmailContent("1"));
+        try (InputStream in = plain.openContent("1")) {
+            assertEquals("Subject: Full MIME\r\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void readsLegacyFlatLayout() throws Exception {
+        Files.writeString(tempDir.resolve("legacy-id.eml"), "Subject: Legacy\r\n");
+        EmailContentStore store = new EmailContentStore(tempDir);
+
+        assertTrue(store.hasContent("legacy-id"));
+        assertEquals("Subject: Legacy\r\n", store.getEmailContent("legacy-id"));
+        assertFalse(store.hasContent("missing"));
+    }
+}
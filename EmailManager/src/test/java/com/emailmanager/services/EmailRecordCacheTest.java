@@ -0,0 +1,72 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailRecordCacheTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void servesEntryUntilGenerationChanges() throws Exception {
+        Path csv = writeFile("a.csv", "content");
+        EmailRecordCache cache = new EmailRecordCache(16);
+        cache.put(csv, 1, records(2), Files.size(csv), Files.getLastModifiedTime(csv).toMillis());
+
+        assertEquals(2, cache.get(csv, 1).getEmails().size());
+        assertNotNull(cache.get(csv, 1).findById("1"));
+        assertNull(cache.get(csv, 2));
+    }
+
+    @Test
+    void invalidatesEntryWhenFileChanges() throws Exception {
+        Path csv = writeFile("a.csv", "content");
+        EmailRecordCache cache = new EmailRecordCache(16);
+        cache.put(csv, 1, records(1), Files.size(csv), Files.getLastModifiedTime(csv).toMillis());
+
+        Files.writeString(csv, "changed content");
+        assertNull(cache.get(csv, 1));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedPartition() throws Exception {
+        // Each entry is estimated at roughly 400 KB, so a 1 MB cache holds two of them
+        Path first = writeFile("first.csv", "x");
+        Path second = writeFile("second.csv", "x");
+        Path third = writeFile("third.csv", "x");
+        EmailRecordCache cache = new EmailRecordCache(1);
+
+        cache.put(first, 1, records(5000), 1, Files.getLastModifiedTime(first).toMillis());
+        cache.put(second, 1, records(5000), 1, Files.getLastModifiedTime(second).toMillis());
+        cache.get(first, 1);
+        cache.put(third, 1, records(5000), 1, Files.getLastModifiedTime(third).toMillis());
+
+        assertNotNull(cache.get(first, 1));
+        assertNull(cache.get(second, 1));
+        assertNotNull(cache.get(third, 1));
+    }
+
+    private Path writeFile(String name, String content) throws Exception {
+        Path path = tempDir.resolve(name);
+        Files.writeString(path, content);
+        return path;
+    }
+
+    private static List<EmailRecord> records(int count) {
+        List<EmailRecord> emails = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            emails.add(new EmailRecord(String.valueOf(i), "Subject " + i, OffsetDateTime.now(),
+                "sender@test.com", "msg" + i, "conv", null));
+        }
+        return emails;
+    }
+}
@@ -1,12 +1,14 @@
 package com.emailmanager.services;
 
 import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Path;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -25,6 +27,11 @@ class EmailStorageServiceTest {
         emailStorageService = new EmailStorageService(csvPath);
     }
 
+    @AfterEach
+    void tearDown() {
+        emailStorageService.close();
+    }
+
     @Test
     void saveAndLoadEmails() throws Exception {
         // Prepare test data
@@ -72,4 +79,116 @@ class EmailStorageServiceTest {
         List<EmailRecord> emails = emailStorageService.loadEmails();
         assertTrue(emails.isEmpty());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void saveEmailsAppendsOnlyNewEmails() throws Exception {
+        OffsetDateTime now = OffsetDateTime.now();
+        emailStorageService.saveEmails(Arrays.asList(
+            new EmailRecord("1", "First", now.minusHours(2), "sender1@test.com", "msg1", "conv1", null),
+            new EmailRecord("2", "Second", now.minusHours(1), "sender2@test.com", "msg2", "conv1", "msg1")
+        ));
+
+        // Second sync repeats one known email and contains a duplicate within the batch
+        emailStorageService.saveEmails(Arrays.asList(
+            new EmailRecord("2", "Second", now.minusHours(1), "sender2@test.com", "msg2", "conv1", "msg1"),
+            new EmailRecord("3", "Third", now, "sender3@test.com", "msg3", "conv2", null),
+            new EmailRecord("3", "Third", now, "sender3@test.com", "msg3", "conv2", null)
+        ));
+
+        List<EmailRecord> loadedEmails = emailStorageService.loadEmails();
+        assertEquals(3, loadedEmails.size());
+        assertEquals("Third", loadedEmails.get(2).getSubject());
+    }
+
+    @Test
+    void compactSortsAppendedEmails() throws Exception {
+        OffsetDateTime now = OffsetDateTime.now();
+        emailStorageService.saveEmails(Arrays.asList(
+            new EmailRecord("1", "Newer", now, "sender1@test.com", "msg1", "conv1", null)
+        ));
+        emailStorageService.saveEmails(Arrays.asList(
+            new EmailRecord("2", "Older", now.minusDays(1), "sender2@test.com", "msg2", "conv2", null)
+        ));
+
+        emailStorageService.compact();
+
+        List<EmailRecord> loadedEmails = emailStorageService.loadEmails();
+        assertEquals(2, loadedEmails.size());
+        assertEquals("Older", loadedEmails.get(0).getSubject());
+        assertEquals("Newer", loadedEmails.get(1).getSubject());
+    }
+
+    @Test
+    void getConversationThreadAfterReopenAndCompaction() throws Exception {
+        OffsetDateTime now = OffsetDateTime.now();
+        emailStorageService.saveEmails(Arrays.asList(
+            new EmailRecord("1", "Original", now.minusHours(2), "sender1@test.com", "msg1", "conv-1", null),
+            new EmailRecord("2", "Other, \"quoted\"\nsubject", now.minusHours(1), "sender2@test.com", "msg2", "conv-2", null)
+        ));
+        emailStorageService.saveEmails(Arrays.asList(
+            new EmailRecord("3", "Reply 1", now, "sender2@test.com", "msg3", "conv-1", "msg1")
+        ));
+
+        // A new instance rebuilds the in-memory part of the index from the end of the CSV
+        EmailStorageService reopened = new EmailStorageService(tempDir.resolve(TEST_FILE).toString());
+        try {
+            assertEquals(2, reopened.getConversationThread("conv-1").size());
+            reopened.compact();
+
+            List<EmailRecord> thread = reopened.getConversationThread("conv-1");
+            assertEquals(2, thread.size());
+            assertEquals("Original", thread.get(0).getSubject());
+            assertEquals("Reply 1", thread.get(1).getSubject());
+            assertEquals("Other, \"quoted\"\nsubject", reopened.getConversationThread("conv-2").get(0).getSubject());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void listEmailsReadsRequestedWindow() throws Exception {
+        OffsetDateTime now = OffsetDateTime.now();
+        for (int batch = 0; batch < 3; batch++) {
+            List<EmailRecord> emails = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                int n = batch * 10 + i;
+                emails.add(new EmailRecord(String.valueOf(n), "Subject " + n, now.plusMinutes(n),
+                    "sender@test.com", "msg" + n, "conv", null));
+            }
+            emailStorageService.saveEmails(emails);
+        }
+
+        assertEquals(30, emailStorageService.count());
+        List<EmailRecord> page = emailStorageService.listEmails(8, 5);
+        assertEquals(5, page.size());
+        assertEquals("Subject 8", page.get(0).getSubject());
+        assertEquals("Subject 12", page.get(4).getSubject());
+        assertEquals(2, emailStorageService.listEmails(28, 10).size());
+        assertTrue(emailStorageService.listEmails(30, 10).isEmpty());
+
+        EmailStorageService reopened = new EmailStorageService(tempDir.resolve(TEST_FILE).toString());
+        try {
+            assertEquals("Subject 25", reopened.listEmails(25, 1).get(0).getSubject());
+            reopened.compact();
+            assertEquals(30, reopened.count());
+            assertEquals("Subject 29", reopened.listEmails(29, 1).get(0).getSubject());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void saveAfterCloseStillStoresRows() throws Exception {
+        OffsetDateTime now = OffsetDateTime.now();
+        EmailStorageService first = new EmailStorageService(tempDir, "closed.csv");
+        first.saveEmails(List.of(new EmailRecord("new", "Newer", now, "a@test.com", "msg1", "conv", null)));
+        first.saveEmails(List.of(new EmailRecord("old", "Older", now.minusDays(1), "a@test.com", "msg2", "conv", null)));
+        first.close();
+
+        // The file is out of order, so the first save asks for a compaction the closed store cannot run
+        EmailStorageService closed = new EmailStorageService(tempDir, "closed.csv");
+        closed.close();
+        closed.saveEmails(List.of(new EmailRecord("later", "Later", now.plusDays(1), "a@test.com", "msg3", "conv", null)));
+        assertEquals(3, new EmailStorageService(tempDir, "closed.csv").count());
+    }
+}
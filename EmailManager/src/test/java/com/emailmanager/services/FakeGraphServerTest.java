@@ -0,0 +1,123 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.models.ReplyRequest;
+import com.emailmanager.models.ReplyResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FakeGraphServerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void pagesMessagesAndResumesFromWatermark() throws Exception {
+        try (FakeGraphServer server = new FakeGraphServer(0, 250, 0, 0)) {
+            server.start();
+            GraphService graphService = new GraphService(config(server));
+
+            List<EmailRecord> emails = graphService.getEmailsAsync();
+            assertEquals(250, emails.size());
+            assertEquals(emails.get(3).getInternetMessageId(), emails.get(4).getReferences().split(" ")[3]);
+
+            List<EmailRecord> newer = graphService.getEmailsSince(emails.get(239).getReceivedDateTime());
+            assertEquals(11, newer.size());
+            assertEquals(emails.get(239).getId(), newer.get(0).getId());
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            graphService.downloadMimeContent(emails.get(7).getId(), in -> in.transferTo(content));
+            assertTrue(content.toString(StandardCharsets.UTF_8).contains("Message-ID: " + emails.get(7).getInternetMessageId()));
+        }
+    }
+
+    @Test
+    void syncsThroughThrottlingIntoTheStore() throws Exception {
+        // Every 2nd request is throttled; the scheduler retries after Retry-After
+        try (FakeGraphServer server = new FakeGraphServer(0, 120, 0, 2);
+             EmailStorageService storage = new EmailStorageService(tempDir, "emails.csv");
+             SyncService syncService = new SyncService(new GraphService(config(server)), storage)) {
+            server.start();
+            assertEquals(120, syncService.syncNewEmails());
+            assertEquals(120, storage.count());
+            assertTrue(server.getThrottledCount() > 0);
+
+            server.setMessagesPerMailbox(130);
+            // The inclusive watermark returns the newest stored email again; it is not counted
+            assertEquals(10, syncService.syncNewEmails());
+            assertEquals(130, storage.count());
+        }
+    }
+
+    @Test
+    void sendsRepliesThroughBatch() throws Exception {
+        try (FakeGraphServer server = new FakeGraphServer(0, 100, 0, 0)) {
+            server.start();
+            GraphService graphService = new GraphService(config(server));
+            List<EmailRecord> emails = graphService.getEmailsAsync();
+
+            List<ReplyRequest> replies = new ArrayList<>();
+            for (int i = 0; i < 45; i++) {
+                replies.add(new ReplyRequest("r" + i, emails.get(i).getId(), "Thanks"));
+            }
+            replies.add(new ReplyRequest("missing", "fake-0-999999", "Thanks"));
+
+            List<ReplyResult> results = graphService.replyToEmails(replies);
+            for (int i = 0; i < 45; i++) {
+                assertTrue(results.get(i).isSuccess());
+            }
+            assertEquals(404, results.get(45).getStatusCode());
+            assertEquals(45, server.getReplyCount());
+        }
+    }
+
+    @Test
+    void followsDeltaLinksToNewMessages() throws Exception {
+        try (FakeGraphServer server = new FakeGraphServer(0, 120, 0, 0)) {
+            server.start();
+            HttpClient client = HttpClient.newHttpClient();
+            ObjectMapper objectMapper = new ObjectMapper();
+
+            String link = server.getEndpoint() + "/users/user@example.com/messages/delta?$top=50";
+            int received = 0;
+            JsonNode page;
+            do {
+                page = objectMapper.readTree(client.send(HttpRequest.newBuilder(URI.create(link)).build(),
+                    HttpResponse.BodyHandlers.ofString()).body());
+                received += page.path("value").size();
+                link = page.path("@odata.nextLink").asText(null);
+            } while (link != null);
+            assertEquals(120, received);
+
+            server.setMessagesPerMailbox(130);
+            String deltaLink = page.path("@odata.deltaLink").asText();
+            page = objectMapper.readTree(client.send(HttpRequest.newBuilder(URI.create(deltaLink)).build(),
+                HttpResponse.BodyHandlers.ofString()).body());
+            assertEquals(10, page.path("value").size());
+        }
+    }
+
+    private EmailConfig config(FakeGraphServer server) {
+        EmailConfig config = new EmailConfig();
+        config.setClientId("client");
+        config.setClientSecret("secret");
+        config.setTenantId("tenant");
+        config.setUserEmail("user@example.com");
+        config.setGraphEndpoint(server.getEndpoint());
+        return config;
+    }
+}
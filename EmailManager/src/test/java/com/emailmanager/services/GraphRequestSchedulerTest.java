@@ -0,0 +1,64 @@
+package com.emailmanager.services;
+
+import com.microsoft.graph.http.GraphServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphRequestSchedulerTest {
+    private final GraphRequestScheduler scheduler = new GraphRequestScheduler(100, 100, 2);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    void retriesThrottledRequests() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        String result = scheduler.execute("tenant", "user@test.com", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw graphException(429);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        AtomicInteger attempts = new AtomicInteger();
+        GraphServiceException e = assertThrows(GraphServiceException.class, () ->
+            scheduler.execute("tenant", "user@test.com", () -> {
+                attempts.incrementAndGet();
+                throw graphException(404);
+            }));
+
+        assertEquals(404, e.getResponseCode());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void sendsNonIdempotentRequestsOnce() {
+        AtomicInteger attempts = new AtomicInteger();
+        GraphServiceException e = assertThrows(GraphServiceException.class, () ->
+            scheduler.executeOnce("tenant", "user@test.com", () -> {
+                attempts.incrementAndGet();
+                throw graphException(503);
+            }));
+
+        assertEquals(503, e.getResponseCode());
+        assertEquals(1, attempts.get());
+    }
+
+    private static GraphServiceException graphException(int responseCode) {
+        return GraphServiceException.createFromResponse("https://graph.microsoft.com/v1.0/users", "GET",
+            Collections.emptyList(), null, Collections.singletonMap("Retry-After", "0"), "", responseCode, null, false);
+    }
+}
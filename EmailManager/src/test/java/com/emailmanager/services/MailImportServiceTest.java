@@ -0,0 +1,122 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailImportServiceTest {
+    @TempDir
+    Path tempDir;
+
+    private EmailStorageService store;
+
+    @BeforeEach
+    void setUp() {
+        store = new EmailStorageService(tempDir.resolve("emails"), "emails.csv");
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void importsEmlTreesAndMboxFiles() throws Exception {
+        Path archive = tempDir.resolve("archive");
+        Files.createDirectories(archive.resolve("2019"));
+        Files.writeString(archive.resolve("2019/original.eml"), message("<root@test>", null,
+            "=?UTF-8?B?w5xuaWPDtmRl?= subject", "Mon, 4 Mar 2019 10:15:00 +0100 (CET)"));
+        Files.writeString(archive.resolve("sent.mbox"),
+            "From alice@test.com Mon Mar  4 11:00:00 2019\n"
+            + message("<reply@test>", "<root@test>", "Re: subject", "4 Mar 2019 11:00:00 GMT")
+            + "\n>From here on the body is quoted\n\n"
+            + "From bob@test.com Mon Mar  4 12:00:00 2019\n"
+            + message("<second@test>", "<root@test> <reply@test>", "Re: Re: subject", "Mon, 4 Mar 2019 12:00:00 -0500"));
+        // Exports often carry other files; they are not parsed as mbox
+        Files.writeString(archive.resolve("2019/index.txt"), "Subject: not a message\n");
+
+        MailImportService.ImportResult result;
+        try (MailImportService importService = new MailImportService(store, 4, 2)) {
+            result = importService.importPaths(Collections.singletonList(archive));
+        }
+
+        assertEquals(3, result.getRead());
+        assertEquals(3, result.getImported());
+        List<EmailRecord> emails = store.loadEmails();
+        assertEquals(3, emails.size());
+        EmailRecord root = emails.get(0);
+        assertEquals("Ünicöde subject", root.getSubject());
+        assertEquals("sender@test.com", root.getFrom());
+        assertEquals(OffsetDateTime.parse("2019-03-04T10:15:00+01:00"), root.getReceivedDateTime());
+        assertEquals("Original", root.getMessageType());
+        // Both replies are threaded under the root message
+        assertEquals(3, store.getConversationThread(root.getConversationId()).size());
+        assertEquals("Reply", emails.get(1).getMessageType());
+
+        String reply = store.getEmailContent(emails.get(1).getId());
+        assertTrue(reply.contains("\nFrom here on the body is quoted\n"));
+        assertFalse(reply.contains("From bob@test.com"));
+    }
+
+    @Test
+    void reimportAddsNothing() throws Exception {
+        Path eml = tempDir.resolve("one.eml");
+        Files.writeString(eml, message("<only@test>", null, "Only", "Tue, 5 Mar 2019 09:00:00 +0000"));
+        try (MailImportService importService = new MailImportService(store, 2)) {
+            assertEquals(1, importService.importPaths(Collections.singletonList(eml)).getImported());
+            assertEquals(0, importService.importPaths(List.of(eml, eml)).getImported());
+        }
+        assertEquals(1, store.count());
+    }
+
+    @Test
+    void splitsMboxOnlyOnSeparatorLines() throws Exception {
+        String mbox = "From a Mon Mar  4 11:00:00 2019\nSubject: one\n\nFirst line\nFrom the body, not a separator\n\n"
+            + "From b Mon Mar  4 12:00:00 2019\r\nSubject: two\r\n\r\nbody\r\n";
+        List<String> messages = new ArrayList<>();
+        MailImportService.readMbox(new ByteArrayInputStream(mbox.getBytes(StandardCharsets.UTF_8)),
+            message -> messages.add(new String(message, StandardCharsets.UTF_8)));
+
+        assertEquals(2, messages.size());
+        assertEquals("Subject: one\n\nFirst line\nFrom the body, not a separator\n", messages.get(0));
+        assertEquals("Subject: two\r\n\r\nbody\r\n", messages.get(1));
+    }
+
+    @Test
+    void skipsOversizedMboxMessages() throws Exception {
+        String mbox = "From a Mon Mar  4 11:00:00 2019\nSubject: small\n\nbody\n\n"
+            + "From b Mon Mar  4 12:00:00 2019\nSubject: large\n\n" + "x".repeat(500) + "\n\n"
+            + "From c Mon Mar  4 13:00:00 2019\nSubject: " + "y".repeat(500) + "\n\n"
+            + "From d Mon Mar  4 14:00:00 2019\nSubject: last\n\nbody\n";
+        List<String> messages = new ArrayList<>();
+        int oversized = MailImportService.readMbox(new ByteArrayInputStream(mbox.getBytes(StandardCharsets.UTF_8)), 100,
+            message -> messages.add(new String(message, StandardCharsets.UTF_8)));
+
+        assertEquals(2, oversized);
+        assertEquals(List.of("Subject: small\n\nbody\n", "Subject: last\n\nbody\n"), messages);
+    }
+
+    private static String message(String messageId, String references, String subject, String date) {
+        return "From: \"Sender Name\" <sender@test.com>\n"
+            + "To: someone@test.com\n"
+            + "Subject: " + subject + "\n"
+            + "Date: " + date + "\n"
+            + "Message-ID: " + messageId + "\n"
+            + (references != null ? "References: " + references + "\n" : "")
+            + "\n"
+            + "Body of " + messageId + "\n";
+    }
+}
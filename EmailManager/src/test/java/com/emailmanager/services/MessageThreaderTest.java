@@ -0,0 +1,74 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import com.emailmanager.models.ThreadNode;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageThreaderTest {
+    private final OffsetDateTime now = OffsetDateTime.parse("2024-04-10T12:30:00Z");
+
+    @Test
+    void buildsTreeFromReferencesRegardlessOfArrivalOrder() {
+        MessageThreader threader = new MessageThreader();
+        EmailRecord root = email("1", "<a@x>", null, 0);
+        EmailRecord reply = email("2", "<b@x>", "<a@x>", 1);
+        EmailRecord nested = email("3", "<c@x>", "<a@x> <b@x>", 2);
+        EmailRecord sibling = email("4", "<d@x>", "<a@x>", 3);
+
+        // The nested reply arrives first and hangs off placeholders until its parents show up
+        threader.add(nested);
+        threader.addAll(Arrays.asList(sibling, reply, root));
+
+        ThreadNode thread = threader.getThread(nested);
+        assertEquals("1", thread.getEmail().getId());
+        assertEquals(4, thread.size());
+        List<ThreadNode> children = thread.getChildren();
+        assertEquals("2", children.get(0).getEmail().getId());
+        assertEquals("4", children.get(1).getEmail().getId());
+        assertEquals("3", children.get(0).getChildren().get(0).getEmail().getId());
+    }
+
+    @Test
+    void keepsRepliesToMissingParentTogether() {
+        MessageThreader threader = new MessageThreader();
+        threader.add(email("1", "<b@x>", "<missing@x>", 1));
+        threader.add(email("2", "<c@x>", "<missing@x>", 2));
+        threader.add(email("3", "<other@x>", null, 3));
+
+        ThreadNode thread = threader.getThread(email("1", "<b@x>", null, 0));
+        assertTrue(thread.isPlaceholder());
+        assertEquals(2, thread.getChildren().size());
+        assertEquals(2, threader.getThreads().size());
+    }
+
+    @Test
+    void ignoresDuplicateCopiesAndReferenceLoops() {
+        MessageThreader threader = new MessageThreader();
+        threader.add(email("1", "<a@x>", "<b@x>", 0));
+        threader.add(email("2", "<b@x>", "<a@x>", 1));
+        // The same message synced from a second mailbox has a different Graph ID
+        threader.add(email("other-mailbox-2", "<b@x>", "<a@x>", 1));
+
+        assertEquals(2, threader.getMessageCount());
+        ThreadNode thread = threader.getThread(email("1", "<a@x>", null, 0));
+        assertEquals(2, thread.size());
+    }
+
+    @Test
+    void parsesReferenceHeaders() {
+        assertEquals(List.of("a@x", "b@x"), MessageThreader.parseReferences(" <a@x>\r\n <b@x> "));
+        assertEquals(List.of("msg1", "msg2"), MessageThreader.parseReferences("msg1 msg2"));
+        assertTrue(MessageThreader.parseReferences("").isEmpty());
+    }
+
+    private EmailRecord email(String id, String messageId, String references, int minutes) {
+        return new EmailRecord(id, "Subject " + id, now.plusMinutes(minutes), "sender@test.com",
+            messageId, "conv", references);
+    }
+}
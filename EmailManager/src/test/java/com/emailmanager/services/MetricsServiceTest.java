@@ -0,0 +1,43 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsServiceTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void exposesSyncAndStorageMetrics() throws Exception {
+        EmailConfig config = new EmailConfig();
+        config.setClientId("client");
+        config.setClientSecret("secret");
+        config.setTenantId("tenant");
+        config.setUserEmail("metrics@example.com");
+
+        try (MetricsService metrics = new MetricsService(0);
+             FakeGraphServer server = new FakeGraphServer(0, 150, 0, 2)) {
+            server.start();
+            config.setGraphEndpoint(server.getEndpoint());
+            try (EmailStorageService storage = new EmailStorageService(tempDir, "emails.csv");
+                 SyncService syncService = new SyncService(new GraphService(config), storage)) {
+                syncService.syncNewEmails();
+                storage.loadEmails();
+            }
+
+            String scrape = metrics.scrape();
+            assertTrue(scrape.contains("graph_page_latency_seconds_count{mailbox=\"metrics@example.com\",}"));
+            assertTrue(scrape.contains("graph_messages_received_total{mailbox=\"metrics@example.com\",} 150.0"));
+            assertTrue(scrape.contains("graph_throttled_total{kind=\"http\",mailbox=\"metrics@example.com\",}"));
+            assertTrue(scrape.contains("storage_csv_write_seconds_count"));
+            assertTrue(scrape.contains("storage_csv_parse_seconds_count"));
+            assertTrue(scrape.contains("storage_bytes_written_bytes_total"));
+            assertTrue(scrape.contains("sync_duration_seconds_count{mailbox=\"metrics@example.com\",} 1.0"));
+        }
+    }
+}
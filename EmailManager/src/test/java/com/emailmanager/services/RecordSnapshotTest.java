@@ -0,0 +1,90 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordSnapshotTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTripsRecordsAndContinuesAfterThem() throws Exception {
+        Path csvPath = tempDir.resolve("emails.csv");
+        Files.write(csvPath, new byte[100]);
+        List<EmailRecord> emails = records(0, 3000);
+        emails.add(new EmailRecord("nulls", null, null, null, null, null, ""));
+        RecordSnapshot snapshot = new RecordSnapshot(csvPath);
+        snapshot.write(CompactEmailRecords.of(emails), 100, snapshot.epoch());
+
+        RecordSnapshot.Loaded loaded = snapshot.load();
+        assertEquals(100, loaded.getCoveredLength());
+        assertEquals(emails.size(), loaded.getRecords().size());
+        for (int i = 0; i < emails.size(); i += 250) {
+            assertEquals(emails.get(i).getSubject(), loaded.getRecords().get(i).getSubject());
+            assertEquals(emails.get(i).getReceivedDateTime(), loaded.getRecords().get(i).getReceivedDateTime());
+        }
+        assertNull(loaded.getRecords().findById("nulls").getFrom());
+
+        CompactEmailRecords.Builder builder = new CompactEmailRecords.Builder(loaded.getRecords());
+        builder.add(new EmailRecord("appended", "After the snapshot", OffsetDateTime.parse("2025-01-01T00:00Z"),
+            "sender0@test.com", "<appended@test>", "conv-0", null));
+        CompactEmailRecords extended = builder.build();
+        assertEquals(emails.size() + 1, extended.size());
+        assertEquals("Subject 1234", extended.findById("id-1234").getSubject());
+        assertEquals("After the snapshot", extended.findById("appended").getSubject());
+        assertEquals("conv-0", extended.get(emails.size()).getConversationId());
+
+        // A CSV shorter than the covered length was replaced, so the snapshot no longer applies
+        Files.write(csvPath, new byte[10]);
+        assertNull(snapshot.load());
+    }
+
+    @Test
+    void storageLoadsFromSnapshotPlusAppendedRows() throws Exception {
+        Path csvPath = tempDir.resolve("emails.csv");
+        Path snapshotPath = tempDir.resolve("emails.csv.snapshot");
+        EmailConfig config = new EmailConfig();
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"), false);
+
+        EmailStorageService first = new EmailStorageService(csvPath, contentStore, config, new EmailRecordCache(64));
+        first.appendRecords(records(0, 2000));
+        assertEquals(2000, first.loadEmails().size());
+        first.close();
+        assertTrue(Files.exists(snapshotPath));
+
+        // A fresh cache, as after a restart: rows appended since are parsed on top of the snapshot
+        EmailStorageService second = new EmailStorageService(csvPath, contentStore, config, new EmailRecordCache(64));
+        second.appendRecords(records(2000, 10));
+        List<EmailRecord> loaded = second.loadEmails();
+        assertEquals(2010, loaded.size());
+        assertEquals("Subject 2009", loaded.get(2009).getSubject());
+
+        second.compact();
+        assertFalse(Files.exists(snapshotPath));
+        second.close();
+
+        EmailStorageService third = new EmailStorageService(csvPath, contentStore, config, new EmailRecordCache(64));
+        assertEquals(2010, third.loadEmails().size());
+        assertEquals("id-7", third.findEmailById("id-7").getId());
+        third.close();
+    }
+
+    private static List<EmailRecord> records(int from, int count) {
+        List<EmailRecord> emails = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            emails.add(new EmailRecord("id-" + i, "Subject " + i, OffsetDateTime.parse("2024-03-01T08:00Z").plusMinutes(i),
+                "sender" + (i % 7) + "@test.com", "<msg" + i + "@test>", "conv-" + (i / 5), null));
+        }
+        return emails;
+    }
+}
@@ -0,0 +1,105 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.QueuedReply;
+import com.emailmanager.models.ReplyRequest;
+import com.emailmanager.models.ReplyResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplyQueueServiceTest {
+    @TempDir
+    Path tempDir;
+
+    private final List<String> sentMessageIds = new ArrayList<>();
+
+    @Test
+    void sendsPendingRepliesAndRecordsResults() throws Exception {
+        Path queue = tempDir.resolve("reply-queue.jsonl");
+        try (ReplyQueueService service = new ReplyQueueService(this::send, queue)) {
+            for (int i = 0; i < 100; i++) {
+                service.enqueue("msg" + i, "Thanks");
+            }
+            service.enqueue("missing", "Thanks");
+
+            List<ReplyResult> results = service.processPending();
+            assertEquals(101, results.size());
+            assertEquals(100, results.stream().filter(ReplyResult::isSuccess).count());
+            assertEquals(1, service.getReplies(QueuedReply.Status.FAILED).size());
+        }
+
+        // Sent replies are dropped when the queue is reopened
+        try (ReplyQueueService service = new ReplyQueueService(this::send, queue)) {
+            assertTrue(service.processPending().isEmpty());
+            assertEquals("missing", service.getReplies(QueuedReply.Status.FAILED).get(0).getMessageId());
+        }
+        assertEquals(101, sentMessageIds.size());
+    }
+
+    @Test
+    void doesNotResendRepliesInterruptedWhileSending() throws Exception {
+        Path queue = tempDir.resolve("reply-queue.jsonl");
+        Files.writeString(queue,
+            "{\"id\":\"a\",\"messageId\":\"msg1\",\"replyContent\":\"Thanks\",\"status\":\"PENDING\"}\n"
+            + "{\"id\":\"b\",\"messageId\":\"msg2\",\"replyContent\":\"Thanks\",\"status\":\"PENDING\"}\n"
+            + "{\"id\":\"a\",\"messageId\":\"msg1\",\"replyContent\":\"Thanks\",\"status\":\"SENDING\"}\n"
+            + "{\"id\":\"b\",\"messageId\":\"msg2\",\"repl");
+
+        try (ReplyQueueService service = new ReplyQueueService(this::send, queue)) {
+            List<ReplyResult> results = service.processPending();
+            assertEquals(1, results.size());
+            assertEquals("msg2", results.get(0).getMessageId());
+            assertEquals(1, service.getReplies(QueuedReply.Status.UNCERTAIN).size());
+
+            assertTrue(service.requeue("a"));
+            assertEquals(1, service.processPending().size());
+        }
+        assertEquals(List.of("msg2", "msg1"), sentMessageIds);
+    }
+
+    @Test
+    void keepsPartialResultsWhenTheSenderIsInterrupted() throws Exception {
+        Path queue = tempDir.resolve("reply-queue.jsonl");
+        try (ReplyQueueService service = new ReplyQueueService(this::sendUntilInterrupted, queue)) {
+            for (int i = 0; i < 100; i++) {
+                service.enqueue("msg" + i, "Thanks");
+            }
+
+            assertThrows(InterruptedException.class, service::processPending);
+            assertFalse(Thread.currentThread().isInterrupted());
+            // Only the replies whose batch was in flight are uncertain; the next chunk was not started
+            assertEquals(10, service.getReplies(QueuedReply.Status.SENT).size());
+            assertEquals(10, service.getReplies(QueuedReply.Status.UNCERTAIN).size());
+            assertEquals(60, service.getReplies(QueuedReply.Status.FAILED).size());
+            assertEquals(20, service.getReplies(QueuedReply.Status.PENDING).size());
+        }
+    }
+
+    private List<ReplyResult> sendUntilInterrupted(List<ReplyRequest> replies) {
+        List<ReplyResult> results = new ArrayList<>();
+        for (int i = 0; i < replies.size(); i++) {
+            ReplyRequest reply = replies.get(i);
+            int status = i < 10 ? 202 : i < 20 ? ReplyResult.STATUS_UNKNOWN : ReplyResult.STATUS_NOT_SENT;
+            results.add(new ReplyResult(reply.getId(), reply.getMessageId(), status, null));
+        }
+        Thread.currentThread().interrupt();
+        return results;
+    }
+
+    private List<ReplyResult> send(List<ReplyRequest> replies) {
+        List<ReplyResult> results = new ArrayList<>();
+        for (ReplyRequest reply : replies) {
+            sentMessageIds.add(reply.getMessageId());
+            results.add(reply.getMessageId().equals("missing")
+                ? new ReplyResult(reply.getId(), reply.getMessageId(), 404, "Not found")
+                : new ReplyResult(reply.getId(), reply.getMessageId(), 202, null));
+        }
+        return results;
+    }
+}
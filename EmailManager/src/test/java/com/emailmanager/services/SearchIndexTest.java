@@ -0,0 +1,121 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void findsEmailsContainingAllTerms() throws Exception {
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"));
+        try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), contentStore)) {
+            contentStore.addListener(index);
+            contentStore.saveEmailContents(Arrays.asList(
+                new EmailRecord("1", "Quarterly budget review", OffsetDateTime.now(), "alice@test.com", "msg1", "conv1", null),
+                new EmailRecord("2", "Budget approved", OffsetDateTime.now(), "bob@test.com", "msg2", "conv1", "msg1"),
+                new EmailRecord("3", "Lunch", OffsetDateTime.now(), "alice@test.com", "msg3", "conv2", null)));
+
+            assertEquals(List.of("2", "1"), index.search("budget", 10));
+            assertEquals(List.of("1"), index.search("Budget ALICE", 10));
+            assertEquals(List.of("3", "1"), index.search("alice", 10));
+            assertTrue(index.search("missing", 10).isEmpty());
+
+            // Downloaded MIME content replaces the stub and is indexed as well
+            contentStore.writeContent("3", new ByteArrayInputStream(
+                "Subject: Lunch\r\n\r\nShall we try the new ramen place?".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(List.of("3"), index.search("ramen", 10));
+            assertEquals(List.of("3", "1"), index.search("alice", 10));
+        }
+    }
+
+    @Test
+    void keepsDocumentsAcrossFlushesMergesAndReopen() throws Exception {
+        Path searchPath = tempDir.resolve("search");
+        EmailContentStore contentStore = new EmailContentStore(tempDir.resolve("storage"));
+        try (SearchIndex index = new SearchIndex(searchPath, contentStore)) {
+            for (int i = 0; i < 9000; i++) {
+                index.addDocument("id" + i, "common term" + (i % 10) + (i == 4321 ? " needle" : ""));
+            }
+            assertEquals(List.of("id4321"), index.search("needle", 10));
+        }
+
+        try (SearchIndex index = new SearchIndex(searchPath, contentStore)) {
+            assertEquals(9000, index.getDocumentCount());
+            assertEquals(List.of("id4321"), index.search("needle", 10));
+            assertEquals(900, index.search("term7 common", 10000).size());
+            assertEquals("id8997", index.search("term7", 1).get(0));
+        }
+    }
+
+    @Test
+    void indexesStoredEmailsMissingFromTheIndex() throws Exception {
+        try (EmailStorageService storage = new EmailStorageService(tempDir, "emails.csv")) {
+            storage.saveEmails(Arrays.asList(
+                new EmailRecord("1", "Invoice 42", OffsetDateTime.now(), "billing@test.com", "msg1", "conv1", null),
+                new EmailRecord("2", "Welcome", OffsetDateTime.now(), "hr@test.com", "msg2", "conv2", null)));
+
+            try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), storage.getContentStore())) {
+                assertEquals(2, index.indexMissing(storage));
+                assertEquals(0, index.indexMissing(storage));
+                assertEquals(List.of("1"), index.search("invoice", 10));
+            }
+        }
+    }
+
+    @Test
+    void reindexesContentReplacedAfterItsStubWasIndexed() throws Exception {
+        try (EmailStorageService storage = new EmailStorageService(tempDir, "emails.csv")) {
+            storage.saveEmails(Arrays.asList(
+                new EmailRecord("1", "Lunch", OffsetDateTime.now(), "alice@test.com", "msg1", "conv1", null),
+                new EmailRecord("2", "Welcome", OffsetDateTime.now(), "hr@test.com", "msg2", "conv2", null)));
+            try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), storage.getContentStore())) {
+                assertEquals(2, index.indexMissing(storage));
+            }
+
+            // The download lands while the index is not listening, as if its document was lost in a crash
+            storage.getContentStore().writeContent("1", new ByteArrayInputStream(
+                "Subject: Lunch\r\n\r\nShall we try the new ramen place?".getBytes(StandardCharsets.UTF_8)));
+
+            try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), storage.getContentStore())) {
+                assertEquals(1, index.indexMissing(storage));
+                assertEquals(List.of("1"), index.search("ramen", 10));
+            }
+            try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), storage.getContentStore())) {
+                assertEquals(0, index.indexMissing(storage));
+            }
+        }
+    }
+
+    @Test
+    void readsDocumentTableLargerThanOneChunk() throws Exception {
+        try (EmailStorageService storage = new EmailStorageService(tempDir, "emails.csv")) {
+            List<EmailRecord> emails = new ArrayList<>();
+            for (int i = 0; i < 3000; i++) {
+                // Graph-length IDs, so entries straddle the chunk boundaries
+                String id = String.format("AAMkAGI2TG93AAA-%060d", i);
+                emails.add(new EmailRecord(id, "Subject " + i, OffsetDateTime.now(), "a@test.com", "msg" + i, "conv1", null));
+            }
+            storage.saveEmails(emails);
+
+            try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), storage.getContentStore())) {
+                assertEquals(3000, index.indexMissing(storage));
+            }
+            try (SearchIndex index = new SearchIndex(tempDir.resolve("search"), storage.getContentStore())) {
+                assertEquals(0, index.indexMissing(storage));
+            }
+        }
+    }
+}
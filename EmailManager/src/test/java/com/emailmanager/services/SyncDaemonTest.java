@@ -0,0 +1,45 @@
+package com.emailmanager.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncDaemonTest {
+    @Test
+    void keepsSchedulingAfterFailedRuns() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch thirdRun = new CountDownLatch(3);
+        try (SyncDaemon daemon = new SyncDaemon(1)) {
+            daemon.schedule("mailbox@test.com", 1, () -> {
+                runs.incrementAndGet();
+                thirdRun.countDown();
+                throw new Exception("Graph unavailable");
+            });
+            assertTrue(thirdRun.await(10, TimeUnit.SECONDS));
+        }
+        int afterClose = runs.get();
+        Thread.sleep(1500);
+        assertEquals(afterClose, runs.get());
+    }
+
+    @Test
+    void closeWaitsForRunningSync() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        SyncDaemon daemon = new SyncDaemon(2);
+        daemon.schedule("mailbox@test.com", 60, () -> {
+            started.countDown();
+            Thread.sleep(500);
+            finished.set(true);
+            return 1;
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        daemon.close();
+        assertTrue(finished.get());
+    }
+}
@@ -0,0 +1,37 @@
+package com.emailmanager.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncStateServiceTest {
+    @TempDir
+    Path tempDir;
+
+    private SyncStateService syncStateService;
+
+    @BeforeEach
+    void setUp() {
+        syncStateService = new SyncStateService(tempDir.resolve("sync-state.json"));
+    }
+
+    @Test
+    void watermarkIsNullBeforeFirstSync() throws Exception {
+        assertNull(syncStateService.getWatermark());
+    }
+
+    @Test
+    void watermarkIsPersistedAndOnlyMovesForward() throws Exception {
+        OffsetDateTime now = OffsetDateTime.parse("2024-05-01T10:15:30Z");
+        syncStateService.updateWatermark(now);
+        syncStateService.updateWatermark(now.minusDays(1));
+
+        SyncStateService reloaded = new SyncStateService(tempDir.resolve("sync-state.json"));
+        assertEquals(now, reloaded.getWatermark());
+    }
+}
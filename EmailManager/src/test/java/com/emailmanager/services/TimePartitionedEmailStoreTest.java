@@ -0,0 +1,148 @@
+package com.emailmanager.services;
+
+import com.emailmanager.models.EmailConfig;
+import com.emailmanager.models.EmailRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimePartitionedEmailStoreTest {
+    @TempDir
+    Path tempDir;
+
+    private EmailConfig config;
+    private EmailStore store;
+
+    private final List<EmailRecord> emails = Arrays.asList(
+        new EmailRecord("1", "January", OffsetDateTime.parse("2024-01-31T23:30:00-02:00"), "a@test.com",
+            "<msg1@test>", "conv-1", null),
+        new EmailRecord("2", "February", OffsetDateTime.parse("2024-02-10T10:00Z"), "b@test.com",
+            "<msg2@test>", "conv-1", "<msg1@test>"),
+        new EmailRecord("3", "March", OffsetDateTime.parse("2024-03-05T10:00Z"), "a@test.com",
+            "<msg3@test>", "conv-2", null),
+        new EmailRecord("4", "Undated", null, "c@test.com", "<msg4@test>", "conv-3", null)
+    );
+
+    @BeforeEach
+    void setUp() {
+        config = new EmailConfig();
+        config.setPartitionPeriod("month");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void writesEachEmailToItsMonth() throws Exception {
+        store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+        store.saveEmails(emails);
+        store.saveEmails(emails);
+
+        // The first email is on 1 February in UTC
+        assertEquals(Arrays.asList("undated", "2024-02", "2024-03"),
+            ((TimePartitionedEmailStore) store).getPartitionKeys());
+        assertEquals(4, store.count());
+        assertEquals(Arrays.asList("4", "1", "2", "3"), ids(store.listEmails(0, 10)));
+        assertEquals(Arrays.asList("2", "3"), ids(store.listEmails(2, 2)));
+        assertEquals("Undated", store.findEmailById("4").getSubject());
+        assertEquals(Arrays.asList("1", "2"), ids(store.getConversationThread("conv-1")));
+        assertEquals(OffsetDateTime.parse("2024-03-05T10:00Z"), store.getLatestReceivedDateTime());
+        assertTrue(Files.exists(tempDir.resolve("storage")));
+    }
+
+    @Test
+    void dateRangeQueryReadsOnlyOverlappingPartitions() throws Exception {
+        store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+        store.saveEmails(emails);
+        // A partition that cannot be read fails any query that opens it
+        Path march = tempDir.resolve("periods/2024-03/emails.csv");
+        Files.delete(march);
+        Files.createDirectory(march);
+        assertThrows(IOException.class, () -> store.findEmailsBetween(OffsetDateTime.parse("2024-03-01T00:00Z"), null));
+
+        assertEquals(Arrays.asList("1", "2"), ids(store.findEmailsBetween(
+            OffsetDateTime.parse("2024-02-01T00:00Z"), OffsetDateTime.parse("2024-03-01T00:00Z"))));
+        assertEquals(Arrays.asList("2"), ids(store.findEmailsBetween(
+            OffsetDateTime.parse("2024-02-05T00:00Z"), OffsetDateTime.parse("2024-02-28T00:00Z"))));
+        assertEquals(Arrays.asList("1", "2"), ids(store.findEmailsBetween(
+            null, OffsetDateTime.parse("2024-03-01T00:00Z"))));
+    }
+
+    @Test
+    void splitsExistingCsvOnFirstOpen() throws Exception {
+        EmailStorageService single = new EmailStorageService(tempDir, "emails.csv");
+        single.saveEmails(emails);
+        single.close();
+
+        store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+
+        assertEquals(4, store.count());
+        assertEquals(Arrays.asList("3"), ids(store.findEmailsBetween(OffsetDateTime.parse("2024-03-01T00:00Z"), null)));
+    }
+
+    @Test
+    void resumesInterruptedSplit() throws Exception {
+        EmailStorageService single = new EmailStorageService(tempDir, "emails.csv");
+        single.saveEmails(emails);
+        single.close();
+        // A split that stopped after its first batch left one partition and no completion marker
+        TimePartitionedEmailStore partial = new TimePartitionedEmailStore(tempDir.resolve("periods"),
+            TimePartitionedEmailStore.Period.MONTH, single.getContentStore(), config, new EmailRecordCache(16),
+            new StorageMetrics("test"));
+        partial.appendRecords(emails.subList(0, 1));
+        partial.close();
+
+        store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+        assertEquals(4, store.count());
+        store.close();
+
+        // Once complete, the split is not repeated
+        Files.delete(tempDir.resolve("periods").resolve("2024-03").resolve("emails.csv"));
+        store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+        assertEquals(3, store.count());
+    }
+
+    @Test
+    void partitionsShareOneCompactionThread() throws Exception {
+        config.setPartitionPeriod("day");
+        long threadsBefore = compactionThreads();
+        store = EmailStoreFactory.create(tempDir, config, new EmailRecordCache(16));
+        List<EmailRecord> daily = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            daily.add(new EmailRecord("day-" + i, "Day " + i, OffsetDateTime.parse("2024-01-01T12:00Z").plusDays(i),
+                "a@test.com", "<day" + i + "@test>", "conv-" + i, null));
+        }
+        store.appendRecords(daily);
+        // Loading writes a record snapshot per partition on the compaction thread
+        assertEquals(60, store.loadEmails().size());
+
+        assertEquals(60, ((TimePartitionedEmailStore) store).getPartitionKeys().size());
+        assertTrue(compactionThreads() - threadsBefore <= 1);
+    }
+
+    private static long compactionThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().equals("email-compaction") && thread.isAlive())
+            .count();
+    }
+
+    private static List<String> ids(List<EmailRecord> emails) {
+        return emails.stream().map(EmailRecord::getId).collect(Collectors.toList());
+    }
+}
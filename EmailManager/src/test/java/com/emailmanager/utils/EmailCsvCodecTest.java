@@ -0,0 +1,166 @@
+package com.emailmanager.utils;
+
+import com.emailmanager.models.EmailRecord;
+import com.opencsv.bean.StatefulBeanToCsvBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailCsvCodecTest {
+    @TempDir
+    Path tempDir;
+
+    private final List<EmailRecord> emails = Arrays.asList(
+        new EmailRecord("1", "Plain subject", OffsetDateTime.parse("2024-03-01T08:00Z"), "a@test.com",
+            "<msg1@test>", "conv-1", null),
+        new EmailRecord("2", "Commas, \"quotes\"\nand a newline", OffsetDateTime.parse("2024-03-01T09:30:15.123+05:30"),
+            "b@test.com", "<msg2@test>", "conv-1", "<msg1@test>"),
+        new EmailRecord("3", "Ünïcödé \\ backslash", OffsetDateTime.parse("2024-03-02T23:59:59.000000001-08:00"),
+            "c@test.com", "<msg3@test>", "conv-2", "")
+    );
+
+    @Test
+    void readsFilesWrittenByOpenCsv() throws Exception {
+        Path csv = tempDir.resolve("emails.csv");
+        try (Writer writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            new StatefulBeanToCsvBuilder<EmailRecord>(writer).build().write(emails);
+        }
+
+        // Compared with what was written rather than with CsvToBean, whose backslash escaping drops
+        // the backslash in the third subject
+        assertRecordsEqual(emails, EmailCsvCodec.readAll(csv));
+    }
+
+    @Test
+    void encodesExactlyLikeOpenCsv() {
+        for (EmailRecord email : emails) {
+            assertArrayEquals(EmailCsvFormat.encode(email), EmailCsvCodec.encode(email));
+        }
+    }
+
+    @Test
+    void scanReportsRecordOffsets() throws Exception {
+        Path csv = tempDir.resolve("emails.csv");
+        List<Long> expectedOffsets = new ArrayList<>();
+        long offset = 0;
+        for (EmailRecord email : emails) {
+            byte[] row = EmailCsvCodec.encode(email);
+            expectedOffsets.add(offset);
+            offset += row.length;
+            Files.write(csv, row, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        List<Long> offsets = new ArrayList<>();
+        long end = EmailCsvCodec.scan(csv, 0, (recordOffset, email) -> offsets.add(recordOffset));
+        assertEquals(expectedOffsets, offsets);
+        assertEquals(Files.size(csv), end);
+    }
+
+    @Test
+    void parallelScanMatchesSequentialScanAtAnyChunkSize() throws Exception {
+        // Subjects with quotes and newlines, so chunks often start inside a quoted field
+        Path csv = tempDir.resolve("emails.csv");
+        List<EmailRecord> many = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            EmailRecord template = emails.get(i % emails.size());
+            many.add(new EmailRecord("id-" + i, template.getSubject() + "\n\"" + i + "\"", template.getReceivedDateTime(),
+                template.getFrom(), template.getInternetMessageId(), template.getConversationId(), template.getReferences()));
+        }
+        for (EmailRecord email : many) {
+            Files.write(csv, EmailCsvCodec.encode(email), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        List<Long> expectedOffsets = new ArrayList<>();
+        EmailCsvCodec.scan(csv, 0, (offset, email) -> expectedOffsets.add(offset));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (long chunkSize : new long[] {1, 7, 64, 1000, Files.size(csv)}) {
+                List<Long> offsets = new ArrayList<>();
+                List<EmailRecord> parsed = new ArrayList<>();
+                long end = EmailCsvCodec.scanParallel(csv, pool, chunkSize, Long.MAX_VALUE, (offset, email) -> {
+                    offsets.add(offset);
+                    parsed.add(email);
+                });
+                assertEquals(expectedOffsets, offsets, "chunk size " + chunkSize);
+                assertRecordsEqual(many, parsed);
+                assertEquals(Files.size(csv), end);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void boundedScansStopAtTheLastCompleteRow() throws Exception {
+        Path csv = tempDir.resolve("emails.csv");
+        for (EmailRecord email : emails) {
+            Files.write(csv, EmailCsvCodec.encode(email), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        long complete = Files.size(csv);
+        // A row still being appended: written up to somewhere inside it
+        byte[] partial = EmailCsvCodec.encode(emails.get(0));
+        Files.write(csv, Arrays.copyOf(partial, partial.length / 2), StandardOpenOption.APPEND);
+        long size = Files.size(csv);
+
+        List<EmailRecord> parsed = new ArrayList<>();
+        assertEquals(complete, EmailCsvCodec.scanComplete(csv, 0, size, (offset, email) -> parsed.add(email)));
+        assertRecordsEqual(emails, parsed);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<EmailRecord> parallel = new ArrayList<>();
+            assertEquals(complete, EmailCsvCodec.scanParallel(csv, pool, 16, size, (offset, email) -> parallel.add(email)));
+            assertRecordsEqual(emails, parallel);
+        } finally {
+            pool.shutdown();
+        }
+
+        // Rows appended after the bound are not read
+        List<EmailRecord> first = new ArrayList<>();
+        long firstRowEnd = EmailCsvCodec.encode(emails.get(0)).length;
+        assertEquals(firstRowEnd, EmailCsvCodec.scanComplete(csv, 0, firstRowEnd + 3, (offset, email) -> first.add(email)));
+        assertEquals(1, first.size());
+    }
+
+    @Test
+    void dateFastPathMatchesFormatter() {
+        String[] values = {
+            "2024-01-01T00:00Z", "2024-01-01T10:15:30Z", "2024-01-01T10:15:30.5+02:00",
+            "2024-12-31T23:59:59.123456789-09:30", "2024-06-15T12:00:00+14:00"
+        };
+        for (String value : values) {
+            assertEquals(OffsetDateTime.parse(value), EmailCsvCodec.parseDateTime(value), value);
+        }
+        assertNull(EmailCsvCodec.parseDateTime(""));
+    }
+
+    private static void assertRecordsEqual(List<EmailRecord> expected, List<EmailRecord> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            EmailRecord e = expected.get(i);
+            EmailRecord a = actual.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getSubject(), a.getSubject());
+            assertEquals(e.getReceivedDateTime(), a.getReceivedDateTime());
+            assertEquals(e.getFrom(), a.getFrom());
+            assertEquals(e.getInternetMessageId(), a.getInternetMessageId());
+            assertEquals(e.getConversationId(), a.getConversationId());
+            // Missing references are written as empty fields
+            assertEquals(Objects.toString(e.getReferences(), ""), a.getReferences());
+            assertEquals(e.getMessageType(), a.getMessageType());
+        }
+    }
+}